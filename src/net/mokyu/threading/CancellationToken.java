@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2011 Daniel Isheden
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package net.mokyu.threading;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A CancellationToken tells a GameExecutor to stop running a TaskTree early.
+ * A token is cancelled either explicitly with cancel(), from any thread, or
+ * when its deadline passes.
+ * 
+ * Cancellation is cooperative. A GameExecutor that supports cancellation
+ * checks the token before every Task and subtask it takes from its queue. Tasks that have not started when
+ * the token is cancelled are dropped, and finish() is not called for any
+ * Task completing after it. Dropped Tasks are still counted, so
+ * run(TaskTree, CancellationToken) returns as soon as the Tasks already
+ * running have returned. Long running Tasks can call isCancelled()
+ * themselves to return sooner.
+ * 
+ * A token can not be reset. Create a new one for every request.
+ */
+public class CancellationToken {
+
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private final long deadline;
+    private volatile boolean cancelled;
+
+    /**
+     * Creates a token without a deadline, which is only cancelled by cancel().
+     */
+    public CancellationToken() {
+        this.deadline = NO_DEADLINE;
+    }
+
+    /**
+     * Creates a token that is cancelled when the specified time has passed,
+     * counted from now.
+     * @param timeout The time until the deadline.
+     * @param unit The unit of timeout.
+     */
+    public CancellationToken(long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Negative timeout: " + timeout);
+        }
+        long nanos = unit.toNanos(timeout);
+        this.deadline = nanos >= NO_DEADLINE / 2 ? NO_DEADLINE : System.nanoTime() + nanos;
+    }
+
+    /**
+     * Cancels this token. Tasks that have not started yet will not be run.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Returns true if cancel() has been called or the deadline has passed.
+     * @return whether work checking this token should stop.
+     */
+    public boolean isCancelled() {
+        if (cancelled) {
+            return true;
+        }
+        if (deadline != NO_DEADLINE && System.nanoTime() - deadline >= 0) {
+            cancelled = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the time left until the deadline, 0 if the token is cancelled
+     * and Long.MAX_VALUE if it has no deadline.
+     * @return the remaining time in nanoseconds.
+     */
+    public long getRemainingNanos() {
+        if (isCancelled()) {
+            return 0;
+        }
+        return deadline == NO_DEADLINE ? Long.MAX_VALUE : deadline - System.nanoTime();
+    }
+}
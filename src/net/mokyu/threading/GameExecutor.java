@@ -52,6 +52,29 @@ public interface GameExecutor {
      */
     public void run(TaskTree tree);
     
+    /**
+     * Runs the specified TaskTree with this GameExecutor until it is
+     * completed or the token is cancelled. Once the token is cancelled, Tasks
+     * and subtasks that have not started are dropped without calling their
+     * run() method, finish() is no longer called, and this method returns
+     * when the Tasks already running have returned.
+     * 
+     * The default implementation is for GameExecutors that do not support
+     * cancellation. It runs nothing if the token is already cancelled, and
+     * otherwise runs the whole tree with run(TaskTree).
+     * @param tree The tree to run.
+     * @param token The token to check, or null to run the whole tree.
+     * @return true if every Task was run and finished, false if any was
+     * dropped.
+     */
+    public default boolean run(TaskTree tree, CancellationToken token) {
+        if (token != null && token.isCancelled()) {
+            return false;
+        }
+        run(tree);
+        return true;
+    }
+    
     /**
      * Closes this GameExecutor. This terminates all threads that the
      * GameExecutor may have allocated. It is NOT safe to call this method
@@ -65,6 +65,9 @@ public class MultithreadedExecutor implements GameExecutor {
     private final Object counterSyncObject = new Object();
     
     private volatile boolean running = true;
+    
+    private volatile CancellationToken token;
+    private volatile boolean dropped;
 
     /**
      * Creates a new MultithreadedGameExecutor which has the specified number
@@ -97,11 +100,23 @@ public class MultithreadedExecutor implements GameExecutor {
 
     @Override
     public void run(TaskTree tree) {
+        run(tree, null);
+    }
+
+    @Override
+    public boolean run(TaskTree tree, CancellationToken token) {
         if(!running){
-            return;
+            return false;
         }
+        this.token = token;
+        this.dropped = false;
         drawThread = Thread.currentThread();
         //drawThread.setPriority(Thread.MAX_PRIORITY);
+        
+        //Must be set before the first Task is queued, or the workers may
+        //finish the whole tree before the counter has a target to reach.
+        totalTasks = tree.getNumTasks();
+        
         ArrayList<Task> rootTasks = tree.getRootTasks();
         Task t;
         for (int i = 0; i < rootTasks.size(); i++) {
@@ -112,8 +127,6 @@ public class MultithreadedExecutor implements GameExecutor {
                 t.addToQueue(taskQueue);
             }
         }
-        
-        totalTasks = tree.getNumTasks();
 
         while (true) {
             Task task = null;
@@ -122,19 +135,24 @@ public class MultithreadedExecutor implements GameExecutor {
                     task = drawQueue.take();
                 } catch (InterruptedException ex) {
                     //All tasks are completed.
-                    return;
+                    this.token = null;
+                    return !dropped;
                 }
             }
             
-            try{
-                task.run();
-            }catch(Throwable throwable){
-                System.err.println("Uncaught exception in draw thread:");
-                throwable.printStackTrace();
+            if (isCancelled()) {
+                dropped = true;
+            } else {
+                try{
+                    task.run();
+                }catch(Throwable throwable){
+                    System.err.println("Uncaught exception in draw thread:");
+                    throwable.printStackTrace();
+                }
             }
             
             if (task.complete()) {
-                task.finish();
+                finish(task);
                 ArrayList<Task> newTasks = task.getUnlockedTasks();
                 for (Task newTask : newTasks) {
                     if (newTask.unlock()) {
@@ -148,13 +166,31 @@ public class MultithreadedExecutor implements GameExecutor {
                 synchronized (counterSyncObject) {
                     if (finishedTasks.incrementAndGet() == totalTasks) {
                         finishedTasks.set(0);
-                        return;
+                        this.token = null;
+                        return !dropped;
                     }
                 }
             }
         }
     }
 
+    private boolean isCancelled() {
+        CancellationToken t = token;
+        return t != null && t.isCancelled();
+    }
+
+    /**
+     * Calls finish() on a completed Task unless the token has been
+     * cancelled, in which case the Task counts as dropped.
+     */
+    private void finish(Task task) {
+        if (isCancelled()) {
+            dropped = true;
+        } else {
+            task.finish();
+        }
+    }
+
     public void close() {
         running = false;
         for (WorkerThread t : threads) {
@@ -183,15 +219,19 @@ public class MultithreadedExecutor implements GameExecutor {
                     break;
                 }
                 
-                try{
-                    task.run();
-                }catch(Throwable throwable){
-                    System.err.println("Uncaught exception in worker thread " + id + ":");
-                    throwable.printStackTrace();
+                if (isCancelled()) {
+                    dropped = true;
+                } else {
+                    try{
+                        task.run();
+                    }catch(Throwable throwable){
+                        System.err.println("Uncaught exception in worker thread " + id + ":");
+                        throwable.printStackTrace();
+                    }
                 }
                 
                 if (task.complete()) {
-                    task.finish();
+                    finish(task);
                     ArrayList<Task> newTasks = task.getUnlockedTasks();
                     for (Task newTask : newTasks) {
                         if (newTask.unlock()) {
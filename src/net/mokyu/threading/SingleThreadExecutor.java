@@ -55,17 +55,40 @@ public class SingleThreadExecutor implements GameExecutor {
      */
     @Override
     public void run(TaskTree tree) {
+        run(tree, null);
+    }
+
+    /**
+     * Runs the given TaskTree in the thread calling run(), dropping the
+     * remaining Tasks once the token is cancelled.
+     * @param tree 
+     * @param token 
+     * @return true if no Task was dropped.
+     */
+    @Override
+    public boolean run(TaskTree tree, CancellationToken token) {
         ArrayList<Task> rootTasks = tree.getRootTasks();
         for(int i = 0; i < rootTasks.size(); i++){
             rootTasks.get(i).addToQueue(taskQueue);
         }
 
+        boolean dropped = false;
         for (Task task = taskQueue.poll(); task != null; task = taskQueue.poll()) {
 
-            task.run();
+            //Dropped Tasks still complete, so that the Tasks requiring them
+            //are unlocked (and dropped in turn) and the queue drains.
+            if (token != null && token.isCancelled()) {
+                dropped = true;
+            } else {
+                task.run();
+            }
 
             if (task.complete()) {
-                task.finish();
+                if (token != null && token.isCancelled()) {
+                    dropped = true;
+                } else {
+                    task.finish();
+                }
                 ArrayList<Task> newTasks = task.getUnlockedTasks();
                 for (Task newTask : newTasks) {
                     if (newTask.unlock()) {
@@ -74,6 +97,7 @@ public class SingleThreadExecutor implements GameExecutor {
                 }
             }
         }
+        return !dropped;
     }
     
     /**
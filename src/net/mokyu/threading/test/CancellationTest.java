@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2011 Daniel Isheden
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.mokyu.threading.test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import net.mokyu.threading.BasicTask;
+import net.mokyu.threading.CancellationToken;
+import net.mokyu.threading.GameExecutor;
+import net.mokyu.threading.MultithreadedExecutor;
+import net.mokyu.threading.SingleThreadExecutor;
+import net.mokyu.threading.SplitTask;
+import net.mokyu.threading.TaskTree;
+import net.mokyu.threading.TaskTreeBuilder;
+
+/**
+ * Checks run(TaskTree, CancellationToken) on both GameExecutors and on an
+ * executor that only implements run(TaskTree): a cancelled token drops the
+ * remaining Tasks, and the same TaskTree can be run again afterwards.
+ */
+public class CancellationTest {
+
+    private static final int SUBTASKS = 8;
+
+    private static int failures;
+
+    public static void main(String[] args) {
+        GameExecutor single = new SingleThreadExecutor();
+        GameExecutor multi = new MultithreadedExecutor(4);
+        try {
+            test("SingleThreadExecutor", single, true);
+            test("MultithreadedExecutor", multi, true);
+            test("executor without cancellation", new PlainExecutor(single), false);
+        } finally {
+            single.close();
+            multi.close();
+        }
+        System.out.println(failures == 0 ? "All tests passed." : failures + " tests failed.");
+    }
+
+    private static void test(String name, GameExecutor executor, boolean cancellable) {
+        System.out.println("Testing " + name + "...");
+        CountingTask first = new CountingTask();
+        LastTask last = new LastTask();
+        last.addRequiredTask(first);
+        TaskTreeBuilder builder = new TaskTreeBuilder();
+        builder.addTask(first);
+        builder.addTask(last);
+        TaskTree tree = builder.build();
+
+        // A token cancelled before the run drops every Task.
+        CancellationToken cancelled = new CancellationToken();
+        cancelled.cancel();
+        check(!executor.run(tree, cancelled), name + ": a cancelled token returned true");
+        check(first.runs.get() == 0 && last.runs.get() == 0 && first.finishes == 0 && last.finishes == 0,
+                name + ": a cancelled token ran Tasks");
+
+        // A token cancelled while the first Task runs drops the Task
+        // requiring it, and finish() is not called.
+        if (cancellable) {
+            first.cancelOnRun = new CancellationToken();
+            check(!executor.run(tree, first.cancelOnRun), name + ": cancelling during the run returned true");
+            check(last.runs.get() == 0, name + ": a Task ran after the cancellation");
+            check(first.finishes == 0 && last.finishes == 0, name + ": finish() was called after the cancellation");
+            first.cancelOnRun = null;
+        }
+
+        // The tree is reusable after a cancellation, with or without a token.
+        first.runs.set(0);
+        executor.run(tree);
+        check(first.runs.get() == SUBTASKS && last.runs.get() == 1 && first.finishes == 1 && last.finishes == 1,
+                name + ": the tree did not run completely after a cancellation");
+        check(executor.run(tree, new CancellationToken()), name + ": a token that is not cancelled returned false");
+        check(first.runs.get() == 2 * SUBTASKS && last.runs.get() == 2 && first.finishes == 2 && last.finishes == 2,
+                name + ": the tree did not run completely with a token");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            System.out.println("FAILED: " + message);
+            failures++;
+        }
+    }
+
+    private static class CountingTask extends SplitTask {
+
+        final AtomicInteger runs = new AtomicInteger();
+        volatile CancellationToken cancelOnRun;
+        int finishes;
+
+        public CountingTask() {
+            super(0, 0, SUBTASKS);
+        }
+
+        @Override
+        protected void runSubtask(int subtask) {
+            runs.incrementAndGet();
+            CancellationToken token = cancelOnRun;
+            if (token != null) {
+                token.cancel();
+            }
+        }
+
+        @Override
+        public void finish() {
+            finishes++;
+        }
+    }
+
+    private static class LastTask extends BasicTask {
+
+        final AtomicInteger runs = new AtomicInteger();
+        int finishes;
+
+        public LastTask() {
+            super(1, 0);
+        }
+
+        @Override
+        protected void run() {
+            runs.incrementAndGet();
+        }
+
+        @Override
+        public void finish() {
+            finishes++;
+        }
+    }
+
+    /**
+     * A GameExecutor that does not support cancellation, using the default
+     * run(TaskTree, CancellationToken).
+     */
+    private static class PlainExecutor implements GameExecutor {
+
+        private final GameExecutor executor;
+
+        public PlainExecutor(GameExecutor executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public void run(TaskTree tree) {
+            executor.run(tree);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package pro.sort.aggregate;
+
+/**
+ * How the values of equal keys are combined by a SortAggregator. Every value
+ * is first mapped with of(), and the results are combined with combine(),
+ * which must be associative and commutative: values are combined in no
+ * particular order.
+ */
+public interface Aggregation {
+
+	/**
+	 * Number of values per key; the values themselves are ignored.
+	 */
+	public static final Aggregation COUNT = new Aggregation() {
+		@Override
+		public long of(long value) {
+			return 1;
+		}
+
+		@Override
+		public long combine(long a, long b) {
+			return a + b;
+		}
+	};
+
+	/**
+	 * Sum of the values per key, wrapping around on overflow.
+	 */
+	public static final Aggregation SUM = new Aggregation() {
+		@Override
+		public long of(long value) {
+			return value;
+		}
+
+		@Override
+		public long combine(long a, long b) {
+			return a + b;
+		}
+	};
+
+	public static final Aggregation MIN = new Aggregation() {
+		@Override
+		public long of(long value) {
+			return value;
+		}
+
+		@Override
+		public long combine(long a, long b) {
+			return Math.min(a, b);
+		}
+	};
+
+	public static final Aggregation MAX = new Aggregation() {
+		@Override
+		public long of(long value) {
+			return value;
+		}
+
+		@Override
+		public long combine(long a, long b) {
+			return Math.max(a, b);
+		}
+	};
+
+	public long of(long value);
+
+	public long combine(long a, long b);
+}
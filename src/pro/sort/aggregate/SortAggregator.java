@@ -0,0 +1,349 @@
+package pro.sort.aggregate;
+
+import java.util.Arrays;
+
+import net.mokyu.threading.GameExecutor;
+import net.mokyu.threading.SplitTask;
+import net.mokyu.threading.TaskTree;
+import net.mokyu.threading.TaskTreeBuilder;
+import pro.sort.method.ScratchPool;
+import pro.sort.sorter.Splitters;
+
+/**
+ * Sort based group-by for long keys with long values: returns every distinct
+ * key in ascending order with the aggregate of its values.
+ *
+ * The sorted input is never materialized. Every chunk copies its key/value
+ * pairs into scratch buffers, sorts them with a radix sort and aggregates
+ * equal neighbours right away, so the runs that are merged afterwards are
+ * already reduced to distinct keys. The runs are then partitioned by key
+ * range, with splitters sampled from the runs, so that no key spans two
+ * partitions. Every partition merges its part of all runs, combining equal
+ * keys from different chunks, and a prefix sum over the partition sizes
+ * tells each partition where to copy its result.
+ *
+ * Tasks: aggregate chunks, then merge partitions, then compact.
+ */
+public class SortAggregator {
+
+	private final int numChunks;
+	private final Aggregation aggregation;
+	private final TaskTree taskTree;
+	private ScratchPool pool = new ScratchPool();
+
+	// State of the current call.
+	private long[] keys, values;
+	private int sortStart, length;
+	private long[][] runKeys, runValues;
+	private int[] runLengths;
+	private int[][] bounds; // bounds[c][p]: start of partition p in run c
+	private long[][] partKeys, partValues;
+	private int[] partLengths, partOffsets;
+	private long[] resultKeys, resultValues;
+
+	/**
+	 * The distinct keys in ascending order and their aggregates.
+	 */
+	public static class Result {
+
+		private final long[] keys, values;
+
+		private Result(long[] keys, long[] values) {
+			this.keys = keys;
+			this.values = values;
+		}
+
+		public int size() {
+			return keys.length;
+		}
+
+		public long[] getKeys() {
+			return keys;
+		}
+
+		public long[] getValues() {
+			return values;
+		}
+	}
+
+	public SortAggregator(int numChunks, Aggregation aggregation) {
+		if (numChunks < 1) {
+			throw new IllegalArgumentException("Minimum number of chunks is 1");
+		}
+		this.numChunks = numChunks;
+		this.aggregation = aggregation;
+
+		TaskTreeBuilder builder = new TaskTreeBuilder();
+		SplitTask chunkTask = new AggregateChunksTask();
+		SplitTask mergeTask = new MergePartitionsTask();
+		SplitTask compactTask = new CompactTask();
+		mergeTask.addRequiredTask(chunkTask);
+		compactTask.addRequiredTask(mergeTask);
+		builder.addTask(chunkTask);
+		builder.addTask(mergeTask);
+		builder.addTask(compactTask);
+		taskTree = builder.build();
+	}
+
+	public void setScratchPool(ScratchPool pool) {
+		this.pool = pool;
+	}
+
+	public ScratchPool getScratchPool() {
+		return pool;
+	}
+
+	/**
+	 * Groups keys[start, end) and aggregates values[start, end) per key. The
+	 * input arrays are not modified. values may be null if the aggregation
+	 * does not look at them (COUNT); every value is 0 then.
+	 */
+	public Result aggregate(long[] keys, long[] values, int start, int end, GameExecutor executor) {
+		if (start < 0 || end > keys.length || start > end) {
+			throw new IllegalArgumentException(
+					"Invalid range [" + start + ", " + end + ") of an array of length " + keys.length);
+		}
+		if (values != null && values.length < end) {
+			throw new IllegalArgumentException("Fewer values than keys");
+		}
+		this.keys = keys;
+		this.values = values;
+		this.sortStart = start;
+		this.length = end - start;
+		this.runKeys = new long[numChunks][];
+		this.runValues = new long[numChunks][];
+		this.runLengths = new int[numChunks];
+		this.bounds = new int[numChunks][numChunks + 1];
+		this.partKeys = new long[numChunks][];
+		this.partValues = new long[numChunks][];
+		this.partLengths = new int[numChunks];
+		this.partOffsets = new int[numChunks + 1];
+		try {
+			executor.run(taskTree);
+			return new Result(resultKeys, resultValues);
+		} finally {
+			for (int i = 0; i < numChunks; i++) {
+				release(runKeys[i]);
+				release(runValues[i]);
+				release(partKeys[i]);
+				release(partValues[i]);
+			}
+			this.keys = null;
+			this.values = null;
+			this.runKeys = null;
+			this.runValues = null;
+			this.partKeys = null;
+			this.partValues = null;
+			this.resultKeys = null;
+			this.resultValues = null;
+		}
+	}
+
+	private void release(long[] buffer) {
+		if (buffer != null) {
+			pool.release(buffer);
+		}
+	}
+
+	private int chunkStart(int chunkID) {
+		return (int) ((long) length * chunkID / numChunks);
+	}
+
+	/**
+	 * Sorts the pairs of a chunk by key and aggregates equal keys.
+	 */
+	private void aggregateChunk(int chunkID) {
+		int from = chunkStart(chunkID), to = chunkStart(chunkID + 1);
+		int n = to - from;
+		long[] k = pool.borrowLongs(n);
+		long[] v = pool.borrowLongs(n);
+		long[] kBuffer = pool.borrowLongs(n);
+		long[] vBuffer = pool.borrowLongs(n);
+		System.arraycopy(keys, sortStart + from, k, 0, n);
+		for (int i = 0; i < n; i++) {
+			v[i] = aggregation.of(values == null ? 0 : values[sortStart + from + i]);
+		}
+
+		if (radixSortPairs(k, v, kBuffer, vBuffer, n)) {
+			long[] temp = k;
+			k = kBuffer;
+			kBuffer = temp;
+			temp = v;
+			v = vBuffer;
+			vBuffer = temp;
+		}
+		pool.release(kBuffer);
+		pool.release(vBuffer);
+
+		int distinct = 0;
+		for (int i = 0; i < n; i++) {
+			if (distinct > 0 && k[distinct - 1] == k[i]) {
+				v[distinct - 1] = aggregation.combine(v[distinct - 1], v[i]);
+			} else {
+				k[distinct] = k[i];
+				v[distinct] = v[i];
+				distinct++;
+			}
+		}
+		runKeys[chunkID] = k;
+		runValues[chunkID] = v;
+		runLengths[chunkID] = distinct;
+	}
+
+	/**
+	 * LSD radix sort of pairs by signed key, 8 bits per pass, skipping passes
+	 * in which all keys share a digit. Returns true if the result ended up in
+	 * the buffers.
+	 */
+	private static boolean radixSortPairs(long[] keys, long[] values, long[] keyBuffer, long[] valueBuffer,
+			int n) {
+		if (n < 2) {
+			return false;
+		}
+		int[] count = new int[256];
+		long[] srcKeys = keys, srcValues = values, dstKeys = keyBuffer, dstValues = valueBuffer;
+		boolean inBuffer = false;
+		for (int shift = 0; shift < 64; shift += 8) {
+			int flip = shift == 56 ? 0x80 : 0;
+			Arrays.fill(count, 0);
+			for (int i = 0; i < n; i++) {
+				count[((int) (srcKeys[i] >>> shift) & 0xFF) ^ flip]++;
+			}
+			if (count[((int) (srcKeys[0] >>> shift) & 0xFF) ^ flip] == n) {
+				continue;
+			}
+			for (int d = 0, sum = 0; d < 256; d++) {
+				int c = count[d];
+				count[d] = sum;
+				sum += c;
+			}
+			for (int i = 0; i < n; i++) {
+				long key = srcKeys[i];
+				int position = count[((int) (key >>> shift) & 0xFF) ^ flip]++;
+				dstKeys[position] = key;
+				dstValues[position] = srcValues[i];
+			}
+			long[] temp = srcKeys;
+			srcKeys = dstKeys;
+			dstKeys = temp;
+			temp = srcValues;
+			srcValues = dstValues;
+			dstValues = temp;
+			inBuffer = !inBuffer;
+		}
+		return inBuffer;
+	}
+
+	/**
+	 * Splits the runs into numChunks key ranges, see
+	 * {@link Splitters#partitionRuns(long[][], int[], int[], int[][])}.
+	 */
+	private void partition() {
+		Splitters.partitionRuns(runKeys, new int[numChunks], runLengths, bounds);
+	}
+
+	/**
+	 * Merges partition p of all runs into its own buffers, combining equal
+	 * keys. The number of runs is small, so the smallest head is found with
+	 * a scan.
+	 */
+	private void mergePartition(int p) {
+		int[] position = new int[numChunks];
+		int[] limit = new int[numChunks];
+		int size = 0;
+		for (int c = 0; c < numChunks; c++) {
+			position[c] = bounds[c][p];
+			limit[c] = bounds[c][p + 1];
+			size += limit[c] - position[c];
+		}
+		long[] k = pool.borrowLongs(size);
+		long[] v = pool.borrowLongs(size);
+		int out = 0;
+		while (true) {
+			int min = -1;
+			for (int c = 0; c < numChunks; c++) {
+				if (position[c] < limit[c] && (min < 0 || runKeys[c][position[c]] < runKeys[min][position[min]])) {
+					min = c;
+				}
+			}
+			if (min < 0) {
+				break;
+			}
+			long key = runKeys[min][position[min]];
+			long value = runValues[min][position[min]++];
+			if (out > 0 && k[out - 1] == key) {
+				v[out - 1] = aggregation.combine(v[out - 1], value);
+			} else {
+				k[out] = key;
+				v[out] = value;
+				out++;
+			}
+		}
+		partKeys[p] = k;
+		partValues[p] = v;
+		partLengths[p] = out;
+	}
+
+	private void computeOffsets() {
+		for (int p = 0; p < numChunks; p++) {
+			partOffsets[p + 1] = partOffsets[p] + partLengths[p];
+		}
+		resultKeys = new long[partOffsets[numChunks]];
+		resultValues = new long[partOffsets[numChunks]];
+	}
+
+	private void compact(int p) {
+		System.arraycopy(partKeys[p], 0, resultKeys, partOffsets[p], partLengths[p]);
+		System.arraycopy(partValues[p], 0, resultValues, partOffsets[p], partLengths[p]);
+	}
+
+	private class AggregateChunksTask extends SplitTask {
+
+		public AggregateChunksTask() {
+			super(0, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			aggregateChunk(subtask);
+		}
+
+		@Override
+		public void finish() {
+			partition();
+		}
+	}
+
+	private class MergePartitionsTask extends SplitTask {
+
+		public MergePartitionsTask() {
+			super(1, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			mergePartition(subtask);
+		}
+
+		@Override
+		public void finish() {
+			computeOffsets();
+		}
+	}
+
+	private class CompactTask extends SplitTask {
+
+		public CompactTask() {
+			super(2, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			compact(subtask);
+		}
+
+		@Override
+		public void finish() {
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package pro.sort.big;
+
+/**
+ * A long array indexed by longs, so it can hold more than 2^31 elements. The
+ * elements are stored in segments of 2^segmentShift longs, all full except
+ * for the last one.
+ */
+public class BigLongArray {
+
+	public static final int DEFAULT_SEGMENT_SHIFT = 27;
+
+	private final long[][] segments;
+	private final long length;
+	private final int shift;
+	private final long mask;
+
+	public BigLongArray(long length) {
+		this(length, DEFAULT_SEGMENT_SHIFT);
+	}
+
+	public BigLongArray(long length, int segmentShift) {
+		if (length < 0) {
+			throw new IllegalArgumentException("Negative length: " + length);
+		}
+		if (segmentShift < 1 || segmentShift > 30) {
+			throw new IllegalArgumentException("Segment shift must be between 1 and 30");
+		}
+		this.length = length;
+		this.shift = segmentShift;
+		this.mask = (1L << segmentShift) - 1;
+
+		long segmentSize = 1L << segmentShift;
+		int numSegments = (int) ((length + segmentSize - 1) >> segmentShift);
+		segments = new long[numSegments][];
+		for (int i = 0; i < numSegments; i++) {
+			segments[i] = new long[(int) Math.min(segmentSize, length - ((long) i << segmentShift))];
+		}
+	}
+
+	public long length() {
+		return length;
+	}
+
+	public long get(long index) {
+		return segments[(int) (index >>> shift)][(int) (index & mask)];
+	}
+
+	public void set(long index, long value) {
+		segments[(int) (index >>> shift)][(int) (index & mask)] = value;
+	}
+
+	public int getSegmentShift() {
+		return shift;
+	}
+
+	public int getNumSegments() {
+		return segments.length;
+	}
+
+	/**
+	 * Returns the backing array of a segment, which holds the elements from
+	 * index segment << getSegmentShift() on.
+	 */
+	public long[] getSegment(int segment) {
+		return segments[segment];
+	}
+
+	/**
+	 * Counterpart of System.arraycopy. The ranges must not overlap if source
+	 * and destination are the same array.
+	 */
+	public static void copy(BigLongArray source, long sourceIndex, BigLongArray destination, long destinationIndex,
+			long length) {
+		while (length > 0) {
+			int sourceOffset = (int) (sourceIndex & source.mask);
+			int destinationOffset = (int) (destinationIndex & destination.mask);
+			long[] sourceSegment = source.segments[(int) (sourceIndex >>> source.shift)];
+			long[] destinationSegment = destination.segments[(int) (destinationIndex >>> destination.shift)];
+			int count = (int) Math.min(length, Math.min(sourceSegment.length - sourceOffset,
+					destinationSegment.length - destinationOffset));
+			System.arraycopy(sourceSegment, sourceOffset, destinationSegment, destinationOffset, count);
+			sourceIndex += count;
+			destinationIndex += count;
+			length -= count;
+		}
+	}
+}
@@ -0,0 +1,279 @@
+package pro.sort.external;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.mokyu.threading.GameExecutor;
+import net.mokyu.threading.SplitTask;
+import net.mokyu.threading.TaskTree;
+import net.mokyu.threading.TaskTreeBuilder;
+import pro.sort.method.ISorterMethod;
+import pro.sort.sorter.LoserTree;
+import pro.sort.sorter.ParallelMerger;
+
+/**
+ * Sorts data sets that do not fit in memory.
+ *
+ * The input is read in blocks of about memoryBudget encoded bytes. Each block
+ * is cut into numChunks pieces that are sorted in parallel by the
+ * ISorterMethod and merged by a ParallelMerger, then written to a temporary
+ * run file. The runs are merged fanIn at a time with a LoserTree, in as many
+ * passes as needed, until one pass writes the output. All files hold length
+ * prefixed records in the format of the RecordCodec; reads and writes go
+ * through FileChannels with one buffer in use and one in flight on a
+ * background I/O thread.
+ *
+ * Objects usually take several times their encoded size on the heap, so the
+ * memory budget should be set accordingly.
+ */
+public class ExternalSorter<T> {
+
+	private static final int MIN_BUFFER_SIZE = 64 * 1024;
+	private static final int MAX_BUFFER_SIZE = 64 * 1024 * 1024;
+
+	private final RecordCodec<T> codec;
+	private final Comparator<T> comparator;
+	private final ISorterMethod sorter;
+	private final int numChunks;
+	private final ParallelMerger<T> merger;
+	private final TaskTree taskTree;
+
+	private long memoryBudget = 256L * 1024 * 1024;
+	private int fanIn = 64;
+	private Path tempDirectory;
+
+	private Object[] block;
+	private int blockSize;
+
+	public ExternalSorter(RecordCodec<T> codec, Comparator<T> comparator, ISorterMethod sorter, int numChunks) {
+		if (numChunks < 1) {
+			throw new IllegalArgumentException("Minimum number of chunks is 1");
+		}
+		this.codec = codec;
+		this.comparator = comparator;
+		this.sorter = sorter.specialize(comparator);
+		this.numChunks = numChunks;
+		this.merger = new ParallelMerger<>(numChunks);
+
+		TaskTreeBuilder builder = new TaskTreeBuilder();
+		builder.addTask(new SortChunksTask());
+		taskTree = builder.build();
+	}
+
+	/**
+	 * Sets the approximate number of bytes, counted in encoded size, that is
+	 * held in memory: the size of a block and the total size of the merge
+	 * buffers.
+	 */
+	public void setMemoryBudget(long memoryBudget) {
+		if (memoryBudget < 2L * MIN_BUFFER_SIZE) {
+			throw new IllegalArgumentException("Minimum memory budget is " + 2 * MIN_BUFFER_SIZE + " bytes");
+		}
+		this.memoryBudget = memoryBudget;
+	}
+
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * Sets the number of runs merged at once.
+	 */
+	public void setFanIn(int fanIn) {
+		if (fanIn < 2) {
+			throw new IllegalArgumentException("Minimum fan-in is 2");
+		}
+		this.fanIn = fanIn;
+	}
+
+	public int getFanIn() {
+		return fanIn;
+	}
+
+	/**
+	 * Sets the directory for the run files, or null for the default temporary
+	 * file directory.
+	 */
+	public void setTempDirectory(Path tempDirectory) {
+		this.tempDirectory = tempDirectory;
+	}
+
+	public Path getTempDirectory() {
+		return tempDirectory;
+	}
+
+	/**
+	 * Sorts a file of records written with the codec.
+	 */
+	public void sort(Path input, Path output, GameExecutor executor) throws IOException {
+		try (RecordReader<T> reader = new RecordReader<>(input, codec, bufferSize(), null)) {
+			sort(reader, output, executor);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Sorts the records of the iterator into the output file.
+	 */
+	public void sort(Iterator<? extends T> input, Path output, GameExecutor executor) throws IOException {
+		List<Path> runs = new ArrayList<>();
+		ExecutorService io = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "External sort I/O");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			writeRuns(input, runs, io, executor);
+
+			while (runs.size() > fanIn) {
+				List<Path> merged = new ArrayList<>();
+				for (int i = 0; i < runs.size(); i += fanIn) {
+					List<Path> group = runs.subList(i, Math.min(i + fanIn, runs.size()));
+					Path run = createRun();
+					merged.add(run);
+					mergeRuns(group, run, io);
+				}
+				deleteAll(runs);
+				runs = merged;
+			}
+
+			if (runs.size() == 1) {
+				Files.move(runs.get(0), output, StandardCopyOption.REPLACE_EXISTING);
+				runs.clear();
+			} else {
+				mergeRuns(runs, output, io);
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			block = null;
+			io.shutdown();
+			deleteAll(runs);
+		}
+	}
+
+	private int bufferSize() {
+		long size = memoryBudget / (2L * (fanIn + 1));
+		return (int) Math.max(MIN_BUFFER_SIZE, Math.min(MAX_BUFFER_SIZE, size));
+	}
+
+	private Path createRun() throws IOException {
+		return tempDirectory == null ? Files.createTempFile("sort", ".run")
+				: Files.createTempFile(tempDirectory, "sort", ".run");
+	}
+
+	private void deleteAll(List<Path> runs) throws IOException {
+		for (Path run : runs) {
+			Files.deleteIfExists(run);
+		}
+	}
+
+	/**
+	 * Cuts the input into blocks and writes every block as a sorted run.
+	 */
+	@SuppressWarnings("unchecked")
+	private void writeRuns(Iterator<? extends T> input, List<Path> runs, ExecutorService io, GameExecutor executor)
+			throws IOException {
+		block = new Object[1024];
+		while (input.hasNext()) {
+			blockSize = 0;
+			long bytes = 0;
+			while (bytes < memoryBudget && blockSize < Integer.MAX_VALUE - 8 && input.hasNext()) {
+				T record = input.next();
+				if (blockSize == block.length) {
+					block = Arrays.copyOf(block, (int) Math.min(Integer.MAX_VALUE - 8, blockSize * 2L));
+				}
+				block[blockSize++] = record;
+				bytes += 4 + codec.encodedSize(record);
+			}
+
+			T[] sorted = (T[]) sortBlock(executor);
+			Path run = createRun();
+			runs.add(run);
+			try (RecordWriter<T> writer = new RecordWriter<>(run, codec, bufferSize(), io)) {
+				for (int i = 0; i < blockSize; i++) {
+					writer.write(sorted[i]);
+				}
+			}
+			Arrays.fill(block, 0, blockSize, null);
+		}
+	}
+
+	/**
+	 * Sorts the block and returns the array that holds the result.
+	 */
+	@SuppressWarnings("unchecked")
+	private Object[] sortBlock(GameExecutor executor) {
+		if (blockSize < numChunks * 2 || numChunks == 1) {
+			sorter.sort((T[]) block, 0, blockSize, comparator);
+			return block;
+		}
+		executor.run(taskTree);
+
+		T[][] sources = (T[][]) new Object[numChunks][];
+		int[] starts = new int[numChunks];
+		int[] ends = new int[numChunks];
+		for (int i = 0; i < numChunks; i++) {
+			sources[i] = (T[]) block;
+			starts[i] = chunkStart(i);
+			ends[i] = chunkStart(i + 1);
+		}
+		Object[] merged = new Object[blockSize];
+		merger.merge(sources, starts, ends, (T[]) merged, 0, comparator, executor);
+		return merged;
+	}
+
+	private int chunkStart(int chunkID) {
+		return (int) ((long) blockSize * chunkID / numChunks);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void sortChunk(int chunkID) {
+		sorter.sort((T[]) block, chunkStart(chunkID), chunkStart(chunkID + 1), comparator);
+	}
+
+	private void mergeRuns(List<Path> runs, Path output, ExecutorService io) throws IOException {
+		int bufferSize = bufferSize();
+		List<RecordReader<T>> readers = new ArrayList<>(runs.size());
+		try (RecordWriter<T> writer = new RecordWriter<>(output, codec, bufferSize, io)) {
+			for (Path run : runs) {
+				readers.add(new RecordReader<>(run, codec, bufferSize, io));
+			}
+			LoserTree<T> tree = new LoserTree<>(readers, comparator);
+			while (tree.hasNext()) {
+				writer.write(tree.next());
+			}
+		} finally {
+			for (RecordReader<T> reader : readers) {
+				reader.close();
+			}
+		}
+	}
+
+	private class SortChunksTask extends SplitTask {
+
+		public SortChunksTask() {
+			super(0, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			sortChunk(subtask);
+		}
+
+		@Override
+		public void finish() {
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package pro.sort.external;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Helpers for the background I/O of the record readers and writers.
+ */
+class IO {
+
+	private IO() {
+	}
+
+	static int writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		int total = 0;
+		while (buffer.hasRemaining()) {
+			total += channel.write(buffer);
+		}
+		return total;
+	}
+
+	/**
+	 * Runs the task on the executor, or right away if it is null.
+	 */
+	static Future<Integer> submit(ExecutorService io, Callable<Integer> task) {
+		if (io != null) {
+			return io.submit(task);
+		}
+		CompletableFuture<Integer> result = new CompletableFuture<>();
+		try {
+			result.complete(task.call());
+		} catch (Exception e) {
+			result.completeExceptionally(e);
+		}
+		return result;
+	}
+
+	static int await(Future<Integer> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for I/O", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) cause).getCause();
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+}
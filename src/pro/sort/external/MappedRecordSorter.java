@@ -0,0 +1,596 @@
+package pro.sort.external;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.mokyu.threading.GameExecutor;
+import net.mokyu.threading.SplitTask;
+import net.mokyu.threading.TaskTree;
+import net.mokyu.threading.TaskTreeBuilder;
+
+/**
+ * Sorts a file of fixed-width binary records in place through memory
+ * mappings, so the records never enter the heap. Records are ordered by the
+ * keyWidth bytes at keyOffset, compared as unsigned bytes with the first byte
+ * most significant. The sort is stable.
+ *
+ * The file is cut into numChunks ranges of records. Every chunk sorts an
+ * index of its records, then moves the records to their sorted places in
+ * place by following the cycles of the permutation. The sorted chunks are
+ * merged by co-ranking: each subtask finds the final rank of the records of
+ * its own range of the output, and the records are then moved to their
+ * ranks along the cycles of that permutation. The heap holds an int per
+ * record, and a record is written twice in all.
+ *
+ * A record is only ever out of the file while it is being moved, and is put
+ * back if the move fails. If the sort fails, sort() throws an IOException
+ * and the file holds the same records as before, in no particular order.
+ *
+ * With setUseTempFile(true), the chunks are merged into a mapped temporary
+ * file as large as the input instead, which is then copied back. The input
+ * file is only written by the copy back, so a sort that fails before it
+ * leaves the file unchanged.
+ */
+public class MappedRecordSorter {
+
+	private static final int BATCH_BYTES = 64 * 1024;
+
+	private final int recordSize;
+	private final int keyOffset;
+	private final int keyWidth;
+	private final int numChunks;
+	private final TaskTree inPlaceTaskTree;
+	private final TaskTree tempFileTaskTree;
+
+	private boolean useTempFile;
+	private Path tempDirectory;
+
+	private MappedRecords records;
+	private MappedRecords output; // null when sorting in place
+	private long numRecords;
+	private int[][] orders; // orders[c][i]: chunk relative record at sorted position i
+	private int[][] targets; // targets[c][i]: merged rank of record i of chunk c
+	private final AtomicReference<Throwable> failure = new AtomicReference<>();
+	private volatile boolean copyingBack;
+
+	// Test seam, run before every comparison when set.
+	Runnable beforeComparison;
+
+	public MappedRecordSorter(int recordSize, int keyOffset, int keyWidth, int numChunks) {
+		if (recordSize < 1) {
+			throw new IllegalArgumentException("Minimum record size is 1");
+		}
+		if (keyOffset < 0 || keyWidth < 1 || keyOffset + keyWidth > recordSize) {
+			throw new IllegalArgumentException("Key does not fit in the record");
+		}
+		if (numChunks < 1) {
+			throw new IllegalArgumentException("Minimum number of chunks is 1");
+		}
+		this.recordSize = recordSize;
+		this.keyOffset = keyOffset;
+		this.keyWidth = keyWidth;
+		this.numChunks = numChunks;
+
+		inPlaceTaskTree = buildTaskTree(new PermuteTask());
+		tempFileTaskTree = buildTaskTree(new CopyBackTask());
+	}
+
+	private TaskTree buildTaskTree(SplitTask lastTask) {
+		TaskTreeBuilder builder = new TaskTreeBuilder();
+		SplitTask sortTask = new SortChunksTask();
+		SplitTask mergeTask = new MergeTask();
+		mergeTask.addRequiredTask(sortTask);
+		lastTask.addRequiredTask(mergeTask);
+		builder.addTask(sortTask);
+		builder.addTask(mergeTask);
+		builder.addTask(lastTask);
+		return builder.build();
+	}
+
+	/**
+	 * Sets whether the chunks are merged into a temporary file as large as
+	 * the input and copied back, so that a failed sort leaves the file
+	 * unchanged, instead of being merged in place. Off by default.
+	 */
+	public void setUseTempFile(boolean useTempFile) {
+		this.useTempFile = useTempFile;
+	}
+
+	public boolean isUseTempFile() {
+		return useTempFile;
+	}
+
+	/**
+	 * Sets the directory for the temporary merge file, or null for the
+	 * default temporary file directory.
+	 */
+	public void setTempDirectory(Path tempDirectory) {
+		this.tempDirectory = tempDirectory;
+	}
+
+	public Path getTempDirectory() {
+		return tempDirectory;
+	}
+
+	public void sort(Path file, GameExecutor executor) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			long size = channel.size();
+			if (size % recordSize != 0) {
+				throw new IllegalArgumentException(
+						"File size " + size + " is not a multiple of the record size " + recordSize);
+			}
+			numRecords = size / recordSize;
+			if (numRecords < 2) {
+				return;
+			}
+			if ((numRecords + numChunks - 1) / numChunks > Integer.MAX_VALUE - 8) {
+				throw new IllegalArgumentException("Too many records per chunk, use more chunks");
+			}
+			if (!useTempFile && numRecords > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("In place sorting supports at most " + Integer.MAX_VALUE
+						+ " records, use setUseTempFile(true)");
+			}
+
+			records = new MappedRecords(channel, numRecords, recordSize);
+			failure.set(null);
+			copyingBack = false;
+			try {
+				if (useTempFile) {
+					sortThroughTempFile(file, executor);
+				} else {
+					targets = new int[numChunks][];
+					executor.run(inPlaceTaskTree);
+					Throwable cause = failure.get();
+					if (cause != null) {
+						throw new IOException("Sorting " + file
+								+ " failed, the file holds the same records in no particular order", cause);
+					}
+				}
+				records.force();
+			} finally {
+				records = null;
+				targets = null;
+				failure.set(null);
+			}
+		}
+	}
+
+	private void sortThroughTempFile(Path file, GameExecutor executor) throws IOException {
+		Path temp = tempDirectory == null ? Files.createTempFile("sort", ".tmp")
+				: Files.createTempFile(tempDirectory, "sort", ".tmp");
+		// The mappings stay valid until they are garbage collected, also
+		// after the file is deleted.
+		try (FileChannel tempChannel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE,
+				StandardOpenOption.DELETE_ON_CLOSE)) {
+			output = new MappedRecords(tempChannel, numRecords, recordSize);
+			orders = new int[numChunks][];
+			executor.run(tempFileTaskTree);
+			Throwable cause = failure.get();
+			if (cause != null) {
+				throw new IOException(copyingBack ? "Copying the sorted records back to " + file
+						+ " failed, the file is only partly sorted" : "Sorting " + file
+								+ " failed, the file is unchanged", cause);
+			}
+		} finally {
+			output = null;
+			orders = null;
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private long chunkStart(int chunkID) {
+		return numRecords * chunkID / numChunks;
+	}
+
+	/**
+	 * Chunk holding the record at the given index.
+	 */
+	private int chunkOf(long index) {
+		int chunkID = (int) (index * numChunks / numRecords);
+		while (chunkStart(chunkID + 1) <= index) {
+			chunkID++;
+		}
+		while (chunkStart(chunkID) > index) {
+			chunkID--;
+		}
+		return chunkID;
+	}
+
+	private int compare(long a, long b) {
+		if (beforeComparison != null) {
+			beforeComparison.run();
+		}
+		return records.compareKeys(a, b, keyOffset, keyWidth);
+	}
+
+	/**
+	 * Index in the file of the record at a sorted position of a chunk.
+	 * Sorted positions are numbered like the records of the chunk. Chunks
+	 * sorted in place hold their records in sorted order.
+	 */
+	private long recordAt(int chunkID, long position) {
+		if (orders == null) {
+			return position;
+		}
+		long start = chunkStart(chunkID);
+		return start + orders[chunkID][(int) (position - start)];
+	}
+
+	private void sortChunk(int chunkID) {
+		long start = chunkStart(chunkID);
+		int length = (int) (chunkStart(chunkID + 1) - start);
+
+		int[] order = new int[length];
+		for (int i = 0; i < length; i++) {
+			order[i] = i;
+		}
+		sortIndices(order, 0, length, new int[length], start);
+		if (output != null) {
+			orders[chunkID] = order;
+		} else {
+			permuteChunk(start, order);
+			targets[chunkID] = order; // Reused for the merged ranks.
+		}
+	}
+
+	/**
+	 * Moves the records of a chunk to their sorted places, order[i] being the
+	 * record that goes to position i, by following every cycle of the
+	 * permutation through a single spare record. If a move fails, the spare
+	 * record is written to the free place of its cycle, so the chunk still
+	 * holds all of its records.
+	 */
+	private void permuteChunk(long start, int[] order) {
+		MappedRecords view = records.view();
+		byte[] spare = new byte[recordSize];
+		byte[] moving = new byte[recordSize];
+		for (int i = 0; i < order.length; i++) {
+			if (order[i] == i || order[i] < 0) {
+				continue;
+			}
+			view.read(start + i, 1, spare, 0);
+			int j = i;
+			try {
+				while (order[j] != i) {
+					int from = order[j];
+					view.read(start + from, 1, moving, 0);
+					view.write(start + j, 1, moving, 0);
+					order[j] = -1;
+					j = from;
+				}
+			} finally {
+				view.write(start + j, 1, spare, 0);
+				order[j] = -1;
+			}
+		}
+	}
+
+	/**
+	 * Moves every record to its merged rank by following the cycles of the
+	 * permutation given by targets, carrying a single record at a time. If a
+	 * move fails, the carried record is written to the free place of its
+	 * cycle, so the file still holds all of its records.
+	 */
+	private void permuteFile() {
+		MappedRecords view = records.view();
+		byte[] carried = new byte[recordSize];
+		byte[] displaced = new byte[recordSize];
+		for (int c = 0; c < numChunks; c++) {
+			long start = chunkStart(c);
+			int[] chunkTargets = targets[c];
+			for (int i = 0; i < chunkTargets.length; i++) {
+				long first = start + i;
+				long target = chunkTargets[i];
+				chunkTargets[i] = -1;
+				if (target == first || target < 0) {
+					continue;
+				}
+				view.read(first, 1, carried, 0);
+				try {
+					while (target != first) {
+						view.read(target, 1, displaced, 0);
+						view.write(target, 1, carried, 0);
+						byte[] swap = carried;
+						carried = displaced;
+						displaced = swap;
+
+						int chunkID = chunkOf(target);
+						int offset = (int) (target - chunkStart(chunkID));
+						target = targets[chunkID][offset];
+						targets[chunkID][offset] = -1;
+					}
+				} finally {
+					view.write(first, 1, carried, 0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stable merge sort of chunk relative record indices by key.
+	 */
+	private void sortIndices(int[] indices, int from, int to, int[] buffer, long base) {
+		if (to - from < 16) {
+			for (int i = from + 1; i < to; i++) {
+				int current = indices[i];
+				int j = i - 1;
+				while (j >= from && compare(base + current, base + indices[j]) < 0) {
+					indices[j + 1] = indices[j];
+					j--;
+				}
+				indices[j + 1] = current;
+			}
+			return;
+		}
+		int mid = (from + to) >>> 1;
+		sortIndices(indices, from, mid, buffer, base);
+		sortIndices(indices, mid, to, buffer, base);
+		if (compare(base + indices[mid], base + indices[mid - 1]) >= 0) {
+			return;
+		}
+		System.arraycopy(indices, from, buffer, from, mid - from);
+		int i = from, j = mid, d = from;
+		while (i < mid && j < to) {
+			indices[d++] = compare(base + indices[j], base + buffer[i]) < 0 ? indices[j++] : buffer[i++];
+		}
+		System.arraycopy(buffer, i, indices, d, mid - i);
+	}
+
+	/**
+	 * Merges the output ranks of one chunk from all sorted chunks. Sorting
+	 * in place, this only records the merged rank of every record; otherwise
+	 * the records are copied to the temporary file.
+	 */
+	private void mergeChunk(int chunkID) {
+		long from = chunkStart(chunkID), to = chunkStart(chunkID + 1);
+		long[] heads = split(from);
+		long[] ends = split(to);
+		int[] tree = buildTree(heads, ends);
+
+		if (output == null) {
+			long[] starts = new long[numChunks];
+			for (int c = 0; c < numChunks; c++) {
+				starts[c] = chunkStart(c);
+			}
+			for (long rank = from; rank < to; rank++) {
+				int winner = tree[0];
+				targets[winner][(int) (heads[winner]++ - starts[winner])] = (int) rank;
+				replay(tree, winner, heads, ends);
+			}
+			return;
+		}
+
+		MappedRecords source = records.view();
+		MappedRecords destination = output.view();
+		int batch = Math.max(1, BATCH_BYTES / recordSize);
+		byte[] staging = new byte[batch * recordSize];
+		int staged = 0;
+		long position = from;
+		while (position + staged < to) {
+			int winner = tree[0];
+			source.read(recordAt(winner, heads[winner]++), 1, staging, staged * recordSize);
+			if (++staged == batch) {
+				destination.write(position, staged, staging, 0);
+				position += staged;
+				staged = 0;
+			}
+			replay(tree, winner, heads, ends);
+		}
+		destination.write(position, staged, staging, 0);
+	}
+
+	/**
+	 * Plays the new head of the winner's chunk up the loser tree.
+	 */
+	private void replay(int[] tree, int winner, long[] heads, long[] ends) {
+		for (int node = (winner + numChunks) >> 1; node >= 1; node >>= 1) {
+			if (beats(tree[node], winner, heads, ends)) {
+				int loser = winner;
+				winner = tree[node];
+				tree[node] = loser;
+			}
+		}
+		tree[0] = winner;
+	}
+
+	/**
+	 * Loser tree over the chunk heads: tree[0] is the winner, tree[1..k-1]
+	 * the losers of the internal nodes, leaf i is node k + i.
+	 */
+	private int[] buildTree(long[] heads, long[] ends) {
+		int k = numChunks;
+		int[] tree = new int[k];
+		if (k == 1) {
+			return tree;
+		}
+		int[] winners = new int[2 * k];
+		for (int i = 0; i < k; i++) {
+			winners[k + i] = i;
+		}
+		for (int node = k - 1; node >= 1; node--) {
+			int a = winners[2 * node], b = winners[2 * node + 1];
+			if (beats(a, b, heads, ends)) {
+				winners[node] = a;
+				tree[node] = b;
+			} else {
+				winners[node] = b;
+				tree[node] = a;
+			}
+		}
+		tree[0] = winners[1];
+		return tree;
+	}
+
+	private boolean beats(int a, int b, long[] heads, long[] ends) {
+		if (heads[a] >= ends[a]) {
+			return false;
+		}
+		if (heads[b] >= ends[b]) {
+			return true;
+		}
+		int c = compare(recordAt(a, heads[a]), recordAt(b, heads[b]));
+		return c < 0 || (c == 0 && a < b);
+	}
+
+	/**
+	 * Returns, for every chunk, the first sorted position that does not come
+	 * before output rank 'rank'. See ParallelMerger.
+	 */
+	private long[] split(long rank) {
+		long[] splits = new long[numChunks];
+		if (rank >= numRecords) {
+			for (int i = 0; i < numChunks; i++) {
+				splits[i] = chunkStart(i + 1);
+			}
+			return splits;
+		}
+		for (int j = 0; j < numChunks; j++) {
+			long lo = chunkStart(j), hi = chunkStart(j + 1) - 1;
+			while (lo <= hi) {
+				long mid = (lo + hi) >>> 1;
+				long r = rankOf(j, mid);
+				if (r == rank) {
+					long key = recordAt(j, mid);
+					for (int i = 0; i < numChunks; i++) {
+						splits[i] = i == j ? mid : bound(i, key, i < j);
+					}
+					return splits;
+				} else if (r < rank) {
+					lo = mid + 1;
+				} else {
+					hi = mid - 1;
+				}
+			}
+		}
+		throw new IllegalStateException("Chunks are not sorted");
+	}
+
+	private long rankOf(int j, long position) {
+		long key = recordAt(j, position);
+		long rank = position - chunkStart(j);
+		for (int i = 0; i < numChunks; i++) {
+			if (i != j) {
+				rank += bound(i, key, i < j) - chunkStart(i);
+			}
+		}
+		return rank;
+	}
+
+	/**
+	 * First sorted position of the chunk with a key greater than (upper) or
+	 * not less than (lower) the key of the given record.
+	 */
+	private long bound(int chunkID, long record, boolean upper) {
+		long lo = chunkStart(chunkID), hi = chunkStart(chunkID + 1);
+		while (lo < hi) {
+			long mid = (lo + hi) >>> 1;
+			int c = compare(recordAt(chunkID, mid), record);
+			if (c < 0 || (upper && c == 0)) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	private void copyBack(int chunkID) {
+		long from = chunkStart(chunkID), to = chunkStart(chunkID + 1);
+		MappedRecords source = output.view();
+		MappedRecords destination = records.view();
+		int batch = Math.max(1, BATCH_BYTES / recordSize);
+		byte[] staging = new byte[batch * recordSize];
+		for (long i = from; i < to; i += batch) {
+			int count = (int) Math.min(batch, to - i);
+			source.read(i, count, staging, 0);
+			destination.write(i, count, staging, 0);
+		}
+	}
+
+	/**
+	 * Records the first failure of any subtask. Once there is one, the
+	 * remaining subtasks do nothing, so the records are not moved to their
+	 * merged ranks or copied back.
+	 */
+	private abstract class GuardedTask extends SplitTask {
+
+		public GuardedTask(int id) {
+			this(id, numChunks);
+		}
+
+		public GuardedTask(int id, int subtasks) {
+			super(id, 0, subtasks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			if (failure.get() != null) {
+				return;
+			}
+			try {
+				work(subtask);
+			} catch (Throwable throwable) {
+				failure.compareAndSet(null, throwable);
+			}
+		}
+
+		protected abstract void work(int subtask);
+
+		@Override
+		public void finish() {
+		}
+	}
+
+	private class SortChunksTask extends GuardedTask {
+
+		public SortChunksTask() {
+			super(0);
+		}
+
+		@Override
+		protected void work(int subtask) {
+			sortChunk(subtask);
+		}
+	}
+
+	private class MergeTask extends GuardedTask {
+
+		public MergeTask() {
+			super(1);
+		}
+
+		@Override
+		protected void work(int subtask) {
+			mergeChunk(subtask);
+		}
+	}
+
+	private class CopyBackTask extends GuardedTask {
+
+		public CopyBackTask() {
+			super(2);
+		}
+
+		@Override
+		protected void work(int subtask) {
+			copyingBack = true;
+			copyBack(subtask);
+		}
+	}
+
+	private class PermuteTask extends GuardedTask {
+
+		public PermuteTask() {
+			super(2, 1);
+		}
+
+		@Override
+		protected void work(int subtask) {
+			permuteFile();
+		}
+	}
+}
\ No newline at end of file
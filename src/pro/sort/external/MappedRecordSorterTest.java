@@ -0,0 +1,138 @@
+package pro.sort.external;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.mokyu.threading.GameExecutor;
+import net.mokyu.threading.MultithreadedExecutor;
+
+/**
+ * Checks that MappedRecordSorter sorts a record file, in place and through a
+ * temporary file, and that a sort that fails part way, in the chunk sort or
+ * in the merge, throws an IOException. Sorting in place, the file must still
+ * hold the same records afterwards; sorting through a temporary file, it must
+ * be unchanged.
+ */
+public class MappedRecordSorterTest {
+
+	private static final int RECORD_SIZE = 16;
+	private static final int KEY_OFFSET = 4;
+	private static final int KEY_WIDTH = 8;
+	private static final int NUM_RECORDS = 100_000;
+	private static final int NUM_CHUNKS = 4;
+
+	private static int failures;
+
+	public static void main(String[] args) throws IOException {
+		GameExecutor executor = new MultithreadedExecutor(NUM_CHUNKS);
+		Path file = Files.createTempFile("records", ".bin");
+		try {
+			byte[] input = new byte[NUM_RECORDS * RECORD_SIZE];
+			new Random(1).nextBytes(input);
+			test(false, file, input, executor);
+			test(true, file, input, executor);
+		} finally {
+			Files.deleteIfExists(file);
+			executor.close();
+		}
+		System.out.println(failures == 0 ? "All tests passed." : failures + " tests failed.");
+	}
+
+	private static void test(boolean useTempFile, Path file, byte[] input, GameExecutor executor)
+			throws IOException {
+		String mode = useTempFile ? "Temp file" : "In place";
+		MappedRecordSorter sorter = new MappedRecordSorter(RECORD_SIZE, KEY_OFFSET, KEY_WIDTH, NUM_CHUNKS);
+		sorter.setUseTempFile(useTempFile);
+
+		// A normal sort, counting the comparisons it needs.
+		Files.write(file, input);
+		AtomicLong count = new AtomicLong();
+		sorter.beforeComparison = count::incrementAndGet;
+		sorter.sort(file, executor);
+		checkSorted(mode, Files.readAllBytes(file), input);
+		long comparisons = count.get();
+		System.out.println(mode + ": sorted " + NUM_RECORDS + " records with " + comparisons + " comparisons.");
+
+		// Fail at points spread over the chunk sort and the merge. The
+		// merge only starts when all chunks are sorted, so the last
+		// comparisons are always merge comparisons.
+		long[] failPoints = { 1, comparisons / 4, comparisons / 2, comparisons * 3 / 4, comparisons - 100_000,
+				comparisons - 1_000, comparisons };
+		for (long failAt : failPoints) {
+			Files.write(file, input);
+			AtomicLong failCount = new AtomicLong();
+			sorter.beforeComparison = () -> {
+				if (failCount.incrementAndGet() == failAt) {
+					throw new IllegalStateException("Injected failure");
+				}
+			};
+			try {
+				sorter.sort(file, executor);
+				fail(mode + ": no exception when failing at comparison " + failAt);
+			} catch (IOException expected) {
+				System.out.println(mode + ": failing at comparison " + failAt + ": " + expected.getMessage());
+			}
+			byte[] after = Files.readAllBytes(file);
+			if (useTempFile && !Arrays.equals(after, input)) {
+				fail(mode + ": file changed after failing at comparison " + failAt);
+			}
+			if (!Arrays.equals(checksums(after), checksums(input))) {
+				fail(mode + ": records lost after failing at comparison " + failAt);
+			}
+		}
+
+		// The sorter is usable again after a failure.
+		Files.write(file, input);
+		sorter.beforeComparison = null;
+		sorter.sort(file, executor);
+		checkSorted(mode, Files.readAllBytes(file), input);
+	}
+
+	private static void checkSorted(String mode, byte[] sorted, byte[] input) {
+		for (int i = 1; i < NUM_RECORDS; i++) {
+			if (compareKeys(sorted, i - 1, i) > 0) {
+				fail(mode + ": records " + (i - 1) + " and " + i + " are out of order");
+				return;
+			}
+		}
+		if (!Arrays.equals(checksums(input), checksums(sorted))) {
+			fail(mode + ": the sorted file does not hold the same records");
+		}
+	}
+
+	private static int compareKeys(byte[] records, int a, int b) {
+		for (int i = 0; i < KEY_WIDTH; i++) {
+			int x = records[a * RECORD_SIZE + KEY_OFFSET + i] & 0xFF;
+			int y = records[b * RECORD_SIZE + KEY_OFFSET + i] & 0xFF;
+			if (x != y) {
+				return x - y;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Sorted hashes of all records, equal for any permutation of them.
+	 */
+	private static long[] checksums(byte[] records) {
+		long[] hashes = new long[NUM_RECORDS];
+		for (int r = 0; r < NUM_RECORDS; r++) {
+			long hash = 1125899906842597L;
+			for (int i = 0; i < RECORD_SIZE; i++) {
+				hash = 31 * hash + records[r * RECORD_SIZE + i];
+			}
+			hashes[r] = hash;
+		}
+		Arrays.sort(hashes);
+		return hashes;
+	}
+
+	private static void fail(String message) {
+		System.out.println("FAILED: " + message);
+		failures++;
+	}
+}
@@ -0,0 +1,121 @@
+package pro.sort.external;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Fixed-width records of a memory mapped file, addressed by a long index.
+ * The file is mapped in regions of a power of two records, each below the
+ * 2 GB limit of a MappedByteBuffer.
+ *
+ * compareKeys() only uses absolute reads and may be called from any thread.
+ * read() and write() move buffer positions, so every thread must use its own
+ * view().
+ */
+class MappedRecords {
+
+	private final ByteBuffer[] regions;
+	private final int recordSize;
+	private final int shift;
+	private final long mask;
+	private final long numRecords;
+
+	MappedRecords(FileChannel channel, long numRecords, int recordSize) throws IOException {
+		this.recordSize = recordSize;
+		this.numRecords = numRecords;
+		int recordsPerRegion = Integer.highestOneBit(Integer.MAX_VALUE / recordSize);
+		this.shift = Integer.numberOfTrailingZeros(recordsPerRegion);
+		this.mask = recordsPerRegion - 1;
+
+		int numRegions = (int) ((numRecords + recordsPerRegion - 1) >> shift);
+		regions = new ByteBuffer[numRegions];
+		for (int r = 0; r < numRegions; r++) {
+			long first = (long) r << shift;
+			long count = Math.min(recordsPerRegion, numRecords - first);
+			regions[r] = channel.map(FileChannel.MapMode.READ_WRITE, first * recordSize, count * recordSize);
+		}
+	}
+
+	private MappedRecords(MappedRecords records) {
+		this.recordSize = records.recordSize;
+		this.shift = records.shift;
+		this.mask = records.mask;
+		this.numRecords = records.numRecords;
+		this.regions = new ByteBuffer[records.regions.length];
+		for (int r = 0; r < regions.length; r++) {
+			regions[r] = records.regions[r].duplicate();
+		}
+	}
+
+	MappedRecords view() {
+		return new MappedRecords(this);
+	}
+
+	long getNumRecords() {
+		return numRecords;
+	}
+
+	/**
+	 * Compares the keys of two records as unsigned bytes, the first byte being
+	 * the most significant.
+	 */
+	int compareKeys(long a, long b, int keyOffset, int keyWidth) {
+		ByteBuffer bufferA = regions[(int) (a >>> shift)], bufferB = regions[(int) (b >>> shift)];
+		int offsetA = (int) (a & mask) * recordSize + keyOffset;
+		int offsetB = (int) (b & mask) * recordSize + keyOffset;
+		int i = 0;
+		for (; i + 8 <= keyWidth; i += 8) {
+			long x = bufferA.getLong(offsetA + i), y = bufferB.getLong(offsetB + i);
+			if (x != y) {
+				return Long.compareUnsigned(x, y);
+			}
+		}
+		for (; i < keyWidth; i++) {
+			int x = bufferA.get(offsetA + i) & 0xFF, y = bufferB.get(offsetB + i) & 0xFF;
+			if (x != y) {
+				return x - y;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Copies count records starting at index into destination.
+	 */
+	void read(long index, int count, byte[] destination, int destinationOffset) {
+		while (count > 0) {
+			ByteBuffer region = regions[(int) (index >>> shift)];
+			int first = (int) (index & mask);
+			int n = Math.min(count, region.capacity() / recordSize - first);
+			region.position(first * recordSize);
+			region.get(destination, destinationOffset, n * recordSize);
+			index += n;
+			count -= n;
+			destinationOffset += n * recordSize;
+		}
+	}
+
+	/**
+	 * Copies count records from source to the records starting at index.
+	 */
+	void write(long index, int count, byte[] source, int sourceOffset) {
+		while (count > 0) {
+			ByteBuffer region = regions[(int) (index >>> shift)];
+			int first = (int) (index & mask);
+			int n = Math.min(count, region.capacity() / recordSize - first);
+			region.position(first * recordSize);
+			region.put(source, sourceOffset, n * recordSize);
+			index += n;
+			count -= n;
+			sourceOffset += n * recordSize;
+		}
+	}
+
+	void force() {
+		for (ByteBuffer region : regions) {
+			((MappedByteBuffer) region).force();
+		}
+	}
+}
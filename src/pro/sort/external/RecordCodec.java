@@ -0,0 +1,27 @@
+package pro.sort.external;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts records to and from bytes for the files written by the
+ * ExternalSorter. Every record is stored with its length in front, so
+ * records may have different sizes.
+ */
+public interface RecordCodec<T> {
+
+	/**
+	 * Returns the exact number of bytes encode() writes for the record.
+	 */
+	public int encodedSize(T record);
+
+	/**
+	 * Writes the record at the position of the buffer, advancing it by
+	 * encodedSize(record) bytes.
+	 */
+	public void encode(T record, ByteBuffer buffer);
+
+	/**
+	 * Reads a record from a buffer that contains exactly its bytes.
+	 */
+	public T decode(ByteBuffer buffer);
+}
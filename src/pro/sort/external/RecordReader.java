@@ -0,0 +1,164 @@
+package pro.sort.external;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Reads the length prefixed records written by a RecordWriter. While records
+ * are decoded from one buffer, the I/O executor fills the other one
+ * (read-ahead). I/O errors are thrown as UncheckedIOException.
+ */
+public class RecordReader<T> implements Iterator<T>, Closeable {
+
+	private final FileChannel channel;
+	private final RecordCodec<T> codec;
+	private final ExecutorService io;
+
+	private ByteBuffer current, next;
+	private Future<Integer> pending;
+	private boolean endOfFile;
+
+	private T nextRecord;
+	private boolean hasNextRecord;
+
+	/**
+	 * @param io
+	 *            executor that does the reads in the background, or null to
+	 *            read in the calling thread
+	 */
+	public RecordReader(Path path, RecordCodec<T> codec, int bufferSize, ExecutorService io) throws IOException {
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		this.codec = codec;
+		this.io = io;
+		this.current = ByteBuffer.allocateDirect(bufferSize);
+		this.current.limit(0);
+		this.next = ByteBuffer.allocateDirect(bufferSize);
+		readAhead();
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (!hasNextRecord) {
+			try {
+				advance();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		return hasNextRecord;
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		T record = nextRecord;
+		nextRecord = null;
+		hasNextRecord = false;
+		return record;
+	}
+
+	private void advance() throws IOException {
+		if (!fill(4)) {
+			if (current.hasRemaining()) {
+				throw new IOException("Truncated record length");
+			}
+			return;
+		}
+		int size = current.getInt();
+		if (!fill(size)) {
+			throw new IOException("Truncated record, expected " + size + " bytes");
+		}
+		ByteBuffer view = current.slice();
+		view.limit(size);
+		nextRecord = codec.decode(view);
+		current.position(current.position() + size);
+		hasNextRecord = true;
+	}
+
+	/**
+	 * Makes sure the current buffer holds at least the given number of bytes,
+	 * moving data over from the read-ahead buffer. Returns false at the end of
+	 * the file.
+	 */
+	private boolean fill(int needed) throws IOException {
+		if (current.remaining() >= needed) {
+			return true;
+		}
+		current.compact();
+		if (current.capacity() < needed) {
+			ByteBuffer larger = ByteBuffer.allocate(needed);
+			current.flip();
+			larger.put(current);
+			current = larger;
+		}
+		while (current.position() < needed && awaitNext()) {
+			int count = Math.min(next.remaining(), current.remaining());
+			ByteBuffer part = next.duplicate();
+			part.limit(next.position() + count);
+			current.put(part);
+			next.position(next.position() + count);
+			if (!next.hasRemaining()) {
+				readAhead();
+			}
+		}
+		current.flip();
+		return current.remaining() >= needed;
+	}
+
+	/**
+	 * Waits for the read-ahead and returns whether the next buffer has data.
+	 */
+	private boolean awaitNext() throws IOException {
+		if (pending != null) {
+			int read = IO.await(pending);
+			pending = null;
+			if (read <= 0) {
+				endOfFile = true;
+			}
+		}
+		return next.hasRemaining();
+	}
+
+	private void readAhead() {
+		if (endOfFile) {
+			return;
+		}
+		ByteBuffer buffer = next;
+		buffer.clear();
+		pending = IO.submit(io, () -> {
+			int total = 0;
+			while (buffer.hasRemaining()) {
+				int read = channel.read(buffer);
+				if (read < 0) {
+					break;
+				}
+				total += read;
+			}
+			buffer.flip();
+			return total;
+		});
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			if (pending != null) {
+				IO.await(pending);
+				pending = null;
+			}
+		} finally {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package pro.sort.external;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Writes length prefixed records to a file. Records are encoded into one
+ * buffer while the other one is written by the I/O executor (write-behind).
+ */
+public class RecordWriter<T> implements Closeable {
+
+	private final FileChannel channel;
+	private final RecordCodec<T> codec;
+	private final ExecutorService io;
+
+	private ByteBuffer current, spare;
+	private Future<Integer> pending;
+
+	/**
+	 * @param io
+	 *            executor that does the writes in the background, or null to
+	 *            write in the calling thread
+	 */
+	public RecordWriter(Path path, RecordCodec<T> codec, int bufferSize, ExecutorService io) throws IOException {
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		this.codec = codec;
+		this.io = io;
+		this.current = ByteBuffer.allocateDirect(bufferSize);
+		this.spare = ByteBuffer.allocateDirect(bufferSize);
+	}
+
+	public void write(T record) throws IOException {
+		int size = codec.encodedSize(record);
+		if (current.remaining() < 4 + size) {
+			swap();
+			if (current.capacity() < 4 + size) {
+				// Larger than a buffer, write it on its own.
+				awaitPending();
+				ByteBuffer large = ByteBuffer.allocate(4 + size);
+				encode(record, size, large);
+				large.flip();
+				IO.writeFully(channel, large);
+				return;
+			}
+		}
+		encode(record, size, current);
+	}
+
+	private void encode(T record, int size, ByteBuffer buffer) {
+		buffer.putInt(size);
+		int position = buffer.position();
+		codec.encode(record, buffer);
+		if (buffer.position() - position != size) {
+			throw new IllegalStateException(
+					"Codec wrote " + (buffer.position() - position) + " bytes, expected " + size);
+		}
+	}
+
+	/**
+	 * Hands the current buffer to the I/O executor and continues in the spare
+	 * one once its previous write has completed.
+	 */
+	private void swap() throws IOException {
+		if (current.position() == 0) {
+			return;
+		}
+		ByteBuffer full = current;
+		full.flip();
+		awaitPending();
+		pending = IO.submit(io, () -> IO.writeFully(channel, full));
+		current = spare;
+		current.clear();
+		spare = full;
+	}
+
+	private void awaitPending() throws IOException {
+		if (pending != null) {
+			IO.await(pending);
+			pending = null;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			swap();
+			awaitPending();
+		} finally {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,227 @@
+package pro.sort.method;
+
+/**
+ * Primitive sort built from fixed size sorting networks. Each block of BLOCK
+ * elements is sorted by a bitonic network where every compare-exchange is a
+ * min/max pair, so the block phase has no data dependent branches and the JIT
+ * can turn it into conditional moves or packed min/max instructions. Sorted
+ * blocks are then combined with a branchless bottom-up merge.
+ *
+ * Floats are sorted through their order preserving integer keys (see
+ * PrimitiveKeys), which keeps -0.0 and NaN in Float.compare order.
+ */
+public class BitonicMethod implements IPrimitiveSorterMethod {
+
+	public static final int BLOCK = 16;
+
+	// Compare-exchange pairs of the bitonic network for BLOCK elements. After
+	// each step array[NETWORK_LO[k]] <= array[NETWORK_HI[k]].
+	private static final int[] NETWORK_LO;
+	private static final int[] NETWORK_HI;
+
+	static {
+		int size = 0;
+		int[] lo = new int[BLOCK * BLOCK];
+		int[] hi = new int[BLOCK * BLOCK];
+		for (int k = 2; k <= BLOCK; k <<= 1) {
+			for (int j = k >> 1; j > 0; j >>= 1) {
+				for (int i = 0; i < BLOCK; i++) {
+					int l = i ^ j;
+					if (l > i) {
+						boolean ascending = (i & k) == 0;
+						lo[size] = ascending ? i : l;
+						hi[size] = ascending ? l : i;
+						size++;
+					}
+				}
+			}
+		}
+		NETWORK_LO = new int[size];
+		NETWORK_HI = new int[size];
+		System.arraycopy(lo, 0, NETWORK_LO, 0, size);
+		System.arraycopy(hi, 0, NETWORK_HI, 0, size);
+	}
+
+	public void sort(int[] array, int start, int end, int skip) {
+		int from = Math.min(skip > 0 ? start + skip + 1 : start, end);
+		sortRange(array, from, end);
+		if (from > start && from < end) {
+			int[] prefix = new int[from - start];
+			System.arraycopy(array, start, prefix, 0, prefix.length);
+			merge(prefix, 0, prefix.length, array, from, end, array, start);
+		}
+	}
+
+	public void sort(long[] array, int start, int end, int skip) {
+		int from = Math.min(skip > 0 ? start + skip + 1 : start, end);
+		sortRange(array, from, end);
+		if (from > start && from < end) {
+			long[] prefix = new long[from - start];
+			System.arraycopy(array, start, prefix, 0, prefix.length);
+			merge(prefix, 0, prefix.length, array, from, end, array, start);
+		}
+	}
+
+	public void sort(float[] array, int start, int end, int skip) {
+		int length = end - start;
+		if (length < 2) {
+			return;
+		}
+		int[] keys = new int[length];
+		for (int i = 0; i < length; i++) {
+			keys[i] = PrimitiveKeys.floatToSortable(array[start + i]);
+		}
+		sort(keys, 0, length, skip);
+		for (int i = 0; i < length; i++) {
+			array[start + i] = PrimitiveKeys.sortableToFloat(keys[i]);
+		}
+	}
+
+	private static void sortRange(int[] array, int start, int end) {
+		int length = end - start;
+		if (length < BLOCK) {
+			insertionSort(array, start, end);
+			return;
+		}
+
+		int blockStart = start;
+		for (; blockStart + BLOCK <= end; blockStart += BLOCK) {
+			sortBlock(array, blockStart);
+		}
+		insertionSort(array, blockStart, end);
+
+		// Bottom-up merge, ping-ponging between the array and the buffer.
+		int[] src = array, dst = new int[length];
+		int srcOffset = start, dstOffset = 0;
+		for (int width = BLOCK; width < length; width <<= 1) {
+			for (int lo = 0; lo < length; lo += width << 1) {
+				int mid = Math.min(lo + width, length);
+				int hi = Math.min(lo + (width << 1), length);
+				merge(src, srcOffset + lo, srcOffset + mid, src, srcOffset + mid, srcOffset + hi, dst, dstOffset + lo);
+			}
+			int[] tempArray = src;
+			src = dst;
+			dst = tempArray;
+			int tempOffset = srcOffset;
+			srcOffset = dstOffset;
+			dstOffset = tempOffset;
+		}
+		if (src != array) {
+			System.arraycopy(src, srcOffset, array, start, length);
+		}
+	}
+
+	private static void sortRange(long[] array, int start, int end) {
+		int length = end - start;
+		if (length < BLOCK) {
+			insertionSort(array, start, end);
+			return;
+		}
+
+		int blockStart = start;
+		for (; blockStart + BLOCK <= end; blockStart += BLOCK) {
+			sortBlock(array, blockStart);
+		}
+		insertionSort(array, blockStart, end);
+
+		long[] src = array, dst = new long[length];
+		int srcOffset = start, dstOffset = 0;
+		for (int width = BLOCK; width < length; width <<= 1) {
+			for (int lo = 0; lo < length; lo += width << 1) {
+				int mid = Math.min(lo + width, length);
+				int hi = Math.min(lo + (width << 1), length);
+				merge(src, srcOffset + lo, srcOffset + mid, src, srcOffset + mid, srcOffset + hi, dst, dstOffset + lo);
+			}
+			long[] tempArray = src;
+			src = dst;
+			dst = tempArray;
+			int tempOffset = srcOffset;
+			srcOffset = dstOffset;
+			dstOffset = tempOffset;
+		}
+		if (src != array) {
+			System.arraycopy(src, srcOffset, array, start, length);
+		}
+	}
+
+	private static void sortBlock(int[] array, int offset) {
+		for (int k = 0; k < NETWORK_LO.length; k++) {
+			int l = offset + NETWORK_LO[k];
+			int h = offset + NETWORK_HI[k];
+			int x = array[l], y = array[h];
+			array[l] = Math.min(x, y);
+			array[h] = Math.max(x, y);
+		}
+	}
+
+	private static void sortBlock(long[] array, int offset) {
+		for (int k = 0; k < NETWORK_LO.length; k++) {
+			int l = offset + NETWORK_LO[k];
+			int h = offset + NETWORK_HI[k];
+			long x = array[l], y = array[h];
+			array[l] = Math.min(x, y);
+			array[h] = Math.max(x, y);
+		}
+	}
+
+	/**
+	 * Merges a[aStart, aEnd) and b[bStart, bEnd) into dst starting at
+	 * dstStart. Ties are taken from a first. dst may be b as long as the
+	 * output never overtakes the unread part of b.
+	 */
+	static void merge(int[] a, int aStart, int aEnd, int[] b, int bStart, int bEnd, int[] dst, int dstStart) {
+		int i = aStart, j = bStart, d = dstStart;
+		while (i < aEnd && j < bEnd) {
+			int x = a[i], y = b[j];
+			boolean left = x <= y;
+			dst[d++] = left ? x : y;
+			i += left ? 1 : 0;
+			j += left ? 0 : 1;
+		}
+		if (i < aEnd) {
+			System.arraycopy(a, i, dst, d, aEnd - i);
+		} else if (dst != b || d != j) {
+			System.arraycopy(b, j, dst, d, bEnd - j);
+		}
+	}
+
+	static void merge(long[] a, int aStart, int aEnd, long[] b, int bStart, int bEnd, long[] dst, int dstStart) {
+		int i = aStart, j = bStart, d = dstStart;
+		while (i < aEnd && j < bEnd) {
+			long x = a[i], y = b[j];
+			boolean left = x <= y;
+			dst[d++] = left ? x : y;
+			i += left ? 1 : 0;
+			j += left ? 0 : 1;
+		}
+		if (i < aEnd) {
+			System.arraycopy(a, i, dst, d, aEnd - i);
+		} else if (dst != b || d != j) {
+			System.arraycopy(b, j, dst, d, bEnd - j);
+		}
+	}
+
+	private static void insertionSort(int[] array, int start, int end) {
+		for (int i = start + 1; i < end; i++) {
+			int current = array[i];
+			int j = i - 1;
+			while (j >= start && current < array[j]) {
+				array[j + 1] = array[j];
+				j--;
+			}
+			array[j + 1] = current;
+		}
+	}
+
+	private static void insertionSort(long[] array, int start, int end) {
+		for (int i = start + 1; i < end; i++) {
+			long current = array[i];
+			int j = i - 1;
+			while (j >= start && current < array[j]) {
+				array[j + 1] = array[j];
+				j--;
+			}
+			array[j + 1] = current;
+		}
+	}
+}
@@ -9,8 +9,20 @@ public class BubbleMethod implements ISorterMethod {
 	}
 
 	public <T> void sort(T[] array, int start, int end, Comparator<T> comparator, int skip) {
+		sort(array, start, end, comparator, skip, null);
+	}
+
+	/**
+	 * Checks the context for cancellation before every pass, as a single
+	 * chunk can take seconds to sort.
+	 */
+	@Override
+	public <T> void sort(T[] array, int start, int end, Comparator<T> comparator, int skip, SortContext context) {
 		System.out.println("sortingBubbles:" + (start + skip + 1) + " => " + end + "\n");
 		for (int i = start + skip + 1; i < end; i++) {
+			if (context != null && context.isCancelled()) {
+				return;
+			}
 			for (int j = i + 1; j < (end - 1); j++) {
 				if (comparator.compare(array[i], array[j]) < 0) {
 					T temp = array[i];
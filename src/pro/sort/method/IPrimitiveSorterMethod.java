@@ -0,0 +1,27 @@
+package pro.sort.method;
+
+/**
+ * Counterpart of {@link ISorterMethod} for primitive keys. The skip argument
+ * has the same meaning: the first skip + 1 elements of the range are already
+ * sorted.
+ */
+public interface IPrimitiveSorterMethod {
+
+	public default void sort(int[] array, int start, int end) {
+		sort(array, start, end, 0);
+	}
+
+	public default void sort(long[] array, int start, int end) {
+		sort(array, start, end, 0);
+	}
+
+	public default void sort(float[] array, int start, int end) {
+		sort(array, start, end, 0);
+	}
+
+	public void sort(int[] array, int start, int end, int skip);
+
+	public void sort(long[] array, int start, int end, int skip);
+
+	public void sort(float[] array, int start, int end, int skip);
+}
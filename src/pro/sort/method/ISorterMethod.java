@@ -24,4 +24,30 @@ public interface ISorterMethod {
 	 * @param i
 	 */
 	public <T> void sort(T[] array, int start, int end, Comparator<T> comparator, int i);
+
+	/**
+	 * Same as sort(array, start, end, comparator, skip), but takes scratch
+	 * memory from the context instead of allocating it. Methods that need
+	 * buffers override this; the default ignores the context. Long running
+	 * methods also return early once context.isCancelled() is true.
+	 * 
+	 * @param context
+	 *            resources of the calling sorter
+	 */
+	public default <T> void sort(T[] array, int start, int end, Comparator<T> comparator, int skip,
+			SortContext context) {
+		sort(array, start, end, comparator, skip);
+	}
+
+	/**
+	 * Returns the method that should be used for sorting with the given
+	 * comparator. Callers that sort many ranges with the same comparator
+	 * resolve it once and use the result for every range.
+	 * 
+	 * @param comparator
+	 * @return this method, or a variant specialized for the comparator
+	 */
+	public default <T> ISorterMethod specialize(Comparator<T> comparator) {
+		return this;
+	}
 }
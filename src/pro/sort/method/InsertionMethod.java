@@ -3,13 +3,27 @@ import java.util.Comparator;
 
 public class InsertionMethod implements ISorterMethod{
 
+   private static final int CHECK_MASK = 0xFF; // check every 256 elements
+
    public <T> void sort(T[] array, int start, int end, Comparator<T> comparator){
       sort(array, start, end, comparator, 0);
    }
    
    public <T> void sort(T[] array, int start, int end, Comparator<T> comparator, int skip){
+      sort(array, start, end, comparator, skip, null);
+   }
+   
+   /**
+    * Checks the context for cancellation every few hundred elements, as a
+    * single chunk can take seconds to sort.
+    */
+   @Override
+   public <T> void sort(T[] array, int start, int end, Comparator<T> comparator, int skip, SortContext context){
       System.out.println("sortingInsertions:"+(start + skip + 1)+" => "+end+"\n");
       for(int i = start + skip + 1; i < end; i++){
+         if(context != null && (i & CHECK_MASK) == 0 && context.isCancelled()){
+            return;
+         }
 
          T current = array[i];
 
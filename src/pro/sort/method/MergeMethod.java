@@ -0,0 +1,219 @@
+package pro.sort.method;
+
+import java.util.Comparator;
+
+/**
+ * Stable natural merge sort. The range is scanned for ascending and strictly
+ * descending runs (the latter are reversed), short runs are extended to
+ * MIN_RUN elements with insertion sort, and runs are merged with the stack
+ * discipline of TimSort so that merges stay balanced. Before a merge, the
+ * elements already in their final place at both ends are cut off with binary
+ * searches, so presorted input costs little more than one scan.
+ *
+ * The merge buffer, at most half the range, is borrowed from the scratch
+ * pool of the SortContext. Cancellation is checked before every merge.
+ */
+public class MergeMethod implements ISorterMethod {
+
+	private static final int MIN_RUN = 32;
+	private static final int MAX_RUNS = 64;
+
+	public <T> void sort(T[] array, int start, int end, Comparator<T> comparator, int skip) {
+		sort(array, start, end, comparator, skip, SortContext.DEFAULT);
+	}
+
+	/**
+	 * The sorted prefix given by skip is found by the run scan anyway, so
+	 * skip is not needed here.
+	 */
+	@Override
+	public <T> void sort(T[] array, int start, int end, Comparator<T> comparator, int skip, SortContext context) {
+		if (end - start < 2) {
+			return;
+		}
+		int[] runBase = new int[MAX_RUNS];
+		int[] runLength = new int[MAX_RUNS];
+		int numRuns = 0;
+		Object[] buffer = null;
+		ScratchPool pool = context.getScratchPool();
+
+		try {
+			for (int lo = start; lo < end;) {
+				int runEnd = findRun(array, lo, end, comparator);
+				int minEnd = Math.min(end, lo + MIN_RUN);
+				if (runEnd < minEnd) {
+					insertionSort(array, lo, runEnd, minEnd, comparator);
+					runEnd = minEnd;
+				}
+				runBase[numRuns] = lo;
+				runLength[numRuns] = runEnd - lo;
+				numRuns++;
+				lo = runEnd;
+
+				// Keep run lengths decreasing faster than Fibonacci numbers.
+				while (numRuns > 1) {
+					int n = numRuns - 2;
+					if (n > 0 && runLength[n - 1] <= runLength[n] + runLength[n + 1]
+							|| n > 1 && runLength[n - 2] <= runLength[n - 1] + runLength[n]) {
+						if (runLength[n - 1] < runLength[n + 1]) {
+							n--;
+						}
+					} else if (runLength[n] > runLength[n + 1]) {
+						break;
+					}
+					if (context.isCancelled()) {
+						return;
+					}
+					if (buffer == null) {
+						buffer = pool.borrowObjects((end - start) / 2 + 1);
+					}
+					numRuns = mergeAt(array, runBase, runLength, numRuns, n, buffer, comparator);
+				}
+			}
+			while (numRuns > 1) {
+				int n = numRuns - 2;
+				if (n > 0 && runLength[n - 1] < runLength[n + 1]) {
+					n--;
+				}
+				if (context.isCancelled()) {
+					return;
+				}
+				if (buffer == null) {
+					buffer = pool.borrowObjects((end - start) / 2 + 1);
+				}
+				numRuns = mergeAt(array, runBase, runLength, numRuns, n, buffer, comparator);
+			}
+		} finally {
+			if (buffer != null) {
+				pool.release(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Returns the end of the run starting at lo, reversing it if it is
+	 * strictly descending.
+	 */
+	private static <T> int findRun(T[] array, int lo, int end, Comparator<T> comparator) {
+		int i = lo + 1;
+		if (i == end) {
+			return end;
+		}
+		if (comparator.compare(array[i], array[lo]) < 0) {
+			while (i + 1 < end && comparator.compare(array[i + 1], array[i]) < 0) {
+				i++;
+			}
+			for (int a = lo, b = i; a < b; a++, b--) {
+				T temp = array[a];
+				array[a] = array[b];
+				array[b] = temp;
+			}
+		} else {
+			while (i + 1 < end && comparator.compare(array[i + 1], array[i]) >= 0) {
+				i++;
+			}
+		}
+		return i + 1;
+	}
+
+	/**
+	 * Inserts [sorted, end) into the sorted range [lo, sorted).
+	 */
+	private static <T> void insertionSort(T[] array, int lo, int sorted, int end, Comparator<T> comparator) {
+		for (int i = sorted; i < end; i++) {
+			T current = array[i];
+			int j = i - 1;
+			while (j >= lo && comparator.compare(current, array[j]) < 0) {
+				array[j + 1] = array[j];
+				j--;
+			}
+			array[j + 1] = current;
+		}
+	}
+
+	/**
+	 * Merges runs n and n + 1 and returns the new number of runs.
+	 */
+	private static <T> int mergeAt(T[] array, int[] runBase, int[] runLength, int numRuns, int n, Object[] buffer,
+			Comparator<T> comparator) {
+		int base1 = runBase[n], length1 = runLength[n];
+		int base2 = runBase[n + 1], length2 = runLength[n + 1];
+		runLength[n] = length1 + length2;
+		for (int i = n + 1; i < numRuns - 1; i++) {
+			runBase[i] = runBase[i + 1];
+			runLength[i] = runLength[i + 1];
+		}
+
+		// Elements of the first run not greater than the first of the second
+		// run, and elements of the second run not less than the last of the
+		// first run, are already in place.
+		int skipped = upperBound(array, base1, base1 + length1, array[base2], comparator) - base1;
+		base1 += skipped;
+		length1 -= skipped;
+		if (length1 > 0) {
+			length2 = lowerBound(array, base2, base2 + length2, array[base1 + length1 - 1], comparator) - base2;
+			if (length2 > 0) {
+				if (length1 <= length2) {
+					mergeLow(array, base1, length1, base2, length2, buffer, comparator);
+				} else {
+					mergeHigh(array, base1, length1, base2, length2, buffer, comparator);
+				}
+			}
+		}
+		return numRuns - 1;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> void mergeLow(T[] array, int base1, int length1, int base2, int length2, Object[] buffer,
+			Comparator<T> comparator) {
+		System.arraycopy(array, base1, buffer, 0, length1);
+		int i = 0, j = base2, end2 = base2 + length2, d = base1;
+		while (i < length1 && j < end2) {
+			if (comparator.compare(array[j], (T) buffer[i]) < 0) {
+				array[d++] = array[j++];
+			} else {
+				array[d++] = (T) buffer[i++];
+			}
+		}
+		System.arraycopy(buffer, i, array, d, length1 - i);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> void mergeHigh(T[] array, int base1, int length1, int base2, int length2, Object[] buffer,
+			Comparator<T> comparator) {
+		System.arraycopy(array, base2, buffer, 0, length2);
+		int i = base1 + length1 - 1, j = length2 - 1, d = base2 + length2 - 1;
+		while (i >= base1 && j >= 0) {
+			if (comparator.compare((T) buffer[j], array[i]) < 0) {
+				array[d--] = array[i--];
+			} else {
+				array[d--] = (T) buffer[j--];
+			}
+		}
+		System.arraycopy(buffer, 0, array, base1, j + 1);
+	}
+
+	private static <T> int upperBound(T[] array, int lo, int hi, T key, Comparator<T> comparator) {
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (comparator.compare(array[mid], key) <= 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	private static <T> int lowerBound(T[] array, int lo, int hi, T key, Comparator<T> comparator) {
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (comparator.compare(array[mid], key) < 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+}
@@ -0,0 +1,31 @@
+package pro.sort.method;
+
+/**
+ * Order preserving conversions between floating point values and integer
+ * keys. The integer keys compare (signed) exactly like Float.compare and
+ * Double.compare, which lets the integer kernels sort floating point data.
+ * NaNs are collapsed to the canonical NaN.
+ */
+public final class PrimitiveKeys {
+
+	private PrimitiveKeys() {
+	}
+
+	public static int floatToSortable(float value) {
+		int bits = Float.floatToIntBits(value);
+		return bits ^ ((bits >> 31) & 0x7fffffff);
+	}
+
+	public static float sortableToFloat(int key) {
+		return Float.intBitsToFloat(key ^ ((key >> 31) & 0x7fffffff));
+	}
+
+	public static long doubleToSortable(double value) {
+		long bits = Double.doubleToLongBits(value);
+		return bits ^ ((bits >> 63) & 0x7fffffffffffffffL);
+	}
+
+	public static double sortableToDouble(long key) {
+		return Double.longBitsToDouble(key ^ ((key >> 63) & 0x7fffffffffffffffL));
+	}
+}
@@ -0,0 +1,146 @@
+package pro.sort.method;
+
+import java.util.Arrays;
+
+/**
+ * Least significant digit radix sort with 8 bit digits. Each pass counts the
+ * digits and scatters the keys into a scratch buffer, so the cost is a fixed
+ * number of linear passes no matter how the input is ordered. Passes in which
+ * all keys share the same digit are skipped. Floats are sorted through their
+ * order preserving integer keys.
+ *
+ * The skip argument is ignored; the whole range is always sorted.
+ */
+public class RadixMethod implements IPrimitiveSorterMethod {
+
+	private static final int INSERTION_LIMIT = 64;
+
+	private final ScratchPool pool;
+
+	public RadixMethod() {
+		this(SortContext.DEFAULT.getScratchPool());
+	}
+
+	public RadixMethod(ScratchPool pool) {
+		this.pool = pool;
+	}
+
+	public void sort(int[] array, int start, int end, int skip) {
+		int length = end - start;
+		if (length <= INSERTION_LIMIT) {
+			insertionSort(array, start, end);
+			return;
+		}
+		int[] buffer = pool.borrowInts(length);
+		int[] count = new int[256];
+		int[] src = array, dst = buffer;
+		int srcOffset = start, dstOffset = 0;
+		for (int shift = 0; shift < 32; shift += 8) {
+			int flip = shift == 24 ? 0x80 : 0;
+			Arrays.fill(count, 0);
+			for (int i = 0; i < length; i++) {
+				count[((src[srcOffset + i] >>> shift) & 0xFF) ^ flip]++;
+			}
+			if (count[((src[srcOffset] >>> shift) & 0xFF) ^ flip] == length) {
+				continue;
+			}
+			for (int d = 0, sum = 0; d < 256; d++) {
+				int c = count[d];
+				count[d] = sum;
+				sum += c;
+			}
+			for (int i = 0; i < length; i++) {
+				int key = src[srcOffset + i];
+				dst[dstOffset + count[((key >>> shift) & 0xFF) ^ flip]++] = key;
+			}
+			int[] tempArray = src;
+			src = dst;
+			dst = tempArray;
+			int tempOffset = srcOffset;
+			srcOffset = dstOffset;
+			dstOffset = tempOffset;
+		}
+		if (src != array) {
+			System.arraycopy(src, srcOffset, array, start, length);
+		}
+		pool.release(buffer);
+	}
+
+	public void sort(long[] array, int start, int end, int skip) {
+		int length = end - start;
+		if (length <= INSERTION_LIMIT) {
+			insertionSort(array, start, end);
+			return;
+		}
+		long[] buffer = pool.borrowLongs(length);
+		int[] count = new int[256];
+		long[] src = array, dst = buffer;
+		int srcOffset = start, dstOffset = 0;
+		for (int shift = 0; shift < 64; shift += 8) {
+			int flip = shift == 56 ? 0x80 : 0;
+			Arrays.fill(count, 0);
+			for (int i = 0; i < length; i++) {
+				count[((int) (src[srcOffset + i] >>> shift) & 0xFF) ^ flip]++;
+			}
+			if (count[((int) (src[srcOffset] >>> shift) & 0xFF) ^ flip] == length) {
+				continue;
+			}
+			for (int d = 0, sum = 0; d < 256; d++) {
+				int c = count[d];
+				count[d] = sum;
+				sum += c;
+			}
+			for (int i = 0; i < length; i++) {
+				long key = src[srcOffset + i];
+				dst[dstOffset + count[((int) (key >>> shift) & 0xFF) ^ flip]++] = key;
+			}
+			long[] tempArray = src;
+			src = dst;
+			dst = tempArray;
+			int tempOffset = srcOffset;
+			srcOffset = dstOffset;
+			dstOffset = tempOffset;
+		}
+		if (src != array) {
+			System.arraycopy(src, srcOffset, array, start, length);
+		}
+		pool.release(buffer);
+	}
+
+	public void sort(float[] array, int start, int end, int skip) {
+		int length = end - start;
+		int[] keys = pool.borrowInts(length);
+		for (int i = 0; i < length; i++) {
+			keys[i] = PrimitiveKeys.floatToSortable(array[start + i]);
+		}
+		sort(keys, 0, length, 0);
+		for (int i = 0; i < length; i++) {
+			array[start + i] = PrimitiveKeys.sortableToFloat(keys[i]);
+		}
+		pool.release(keys);
+	}
+
+	private static void insertionSort(int[] array, int start, int end) {
+		for (int i = start + 1; i < end; i++) {
+			int current = array[i];
+			int j = i - 1;
+			while (j >= start && current < array[j]) {
+				array[j + 1] = array[j];
+				j--;
+			}
+			array[j + 1] = current;
+		}
+	}
+
+	private static void insertionSort(long[] array, int start, int end) {
+		for (int i = start + 1; i < end; i++) {
+			long current = array[i];
+			int j = i - 1;
+			while (j >= start && current < array[j]) {
+				array[j + 1] = array[j];
+				j--;
+			}
+			array[j + 1] = current;
+		}
+	}
+}
@@ -0,0 +1,236 @@
+package pro.sort.method;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reusable scratch memory for sort methods, so that merge buffers are not
+ * allocated (and garbage collected) on every call.
+ *
+ * Buffers come in power of two size classes; a borrowed buffer may be longer
+ * than requested. Released buffers go back to a lock-free free list of their
+ * class and are handed out again to any thread. Object arrays are cleared on
+ * release so the pool does not keep sorted elements alive. Requests above
+ * 2^30 elements are allocated exactly and never pooled.
+ *
+ * The pool keeps at most maxRetainedBytes of free buffers (references
+ * counted as 8 bytes); a buffer released while the pool is full is left to
+ * the garbage collector. One huge sort therefore does not pin its scratch
+ * memory for the life of the pool.
+ *
+ * ByteBuffers are allocated off-heap when the pool is created with direct
+ * set; object scratch always lives on the heap.
+ */
+public class ScratchPool {
+
+	private static final int MIN_SHIFT = 6;
+	private static final int MAX_SHIFT = 30;
+
+	/**
+	 * Default limit of the free buffers kept by a pool.
+	 */
+	public static final long DEFAULT_MAX_RETAINED_BYTES = 256L << 20;
+
+	private final boolean direct;
+	private final long maxRetainedBytes;
+	private final AtomicLong retainedBytes = new AtomicLong();
+
+	private final ConcurrentLinkedQueue<Object[]>[] objects;
+	private final ConcurrentLinkedQueue<int[]>[] ints;
+	private final ConcurrentLinkedQueue<long[]>[] longs;
+	private final ConcurrentLinkedQueue<ByteBuffer>[] buffers;
+
+	public ScratchPool() {
+		this(false);
+	}
+
+	/**
+	 * @param direct
+	 *            whether borrowBuffer() hands out direct (off-heap) buffers
+	 */
+	public ScratchPool(boolean direct) {
+		this(direct, DEFAULT_MAX_RETAINED_BYTES);
+	}
+
+	/**
+	 * @param direct
+	 *            whether borrowBuffer() hands out direct (off-heap) buffers
+	 * @param maxRetainedBytes
+	 *            how many bytes of free buffers the pool keeps at most
+	 */
+	public ScratchPool(boolean direct, long maxRetainedBytes) {
+		if (maxRetainedBytes < 0) {
+			throw new IllegalArgumentException("Negative retention limit: " + maxRetainedBytes);
+		}
+		this.direct = direct;
+		this.maxRetainedBytes = maxRetainedBytes;
+		this.objects = newFreeLists();
+		this.ints = newFreeLists();
+		this.longs = newFreeLists();
+		this.buffers = newFreeLists();
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static <B> ConcurrentLinkedQueue<B>[] newFreeLists() {
+		ConcurrentLinkedQueue<B>[] lists = new ConcurrentLinkedQueue[MAX_SHIFT + 1];
+		for (int i = MIN_SHIFT; i <= MAX_SHIFT; i++) {
+			lists[i] = new ConcurrentLinkedQueue<>();
+		}
+		return lists;
+	}
+
+	public boolean isDirect() {
+		return direct;
+	}
+
+	public long getMaxRetainedBytes() {
+		return maxRetainedBytes;
+	}
+
+	/**
+	 * Bytes of free buffers currently kept by the pool.
+	 */
+	public long getRetainedBytes() {
+		return retainedBytes.get();
+	}
+
+	public Object[] borrowObjects(int minLength) {
+		int sizeClass = sizeClass(minLength);
+		if (sizeClass > MAX_SHIFT) {
+			return new Object[minLength];
+		}
+		Object[] buffer = objects[sizeClass].poll();
+		if (buffer == null) {
+			return new Object[1 << sizeClass];
+		}
+		retainedBytes.addAndGet(-8L << sizeClass);
+		return buffer;
+	}
+
+	public void release(Object[] buffer) {
+		int sizeClass = pooledClass(buffer.length);
+		if (sizeClass >= 0 && retain(8L << sizeClass)) {
+			Arrays.fill(buffer, null);
+			objects[sizeClass].offer(buffer);
+		}
+	}
+
+	public int[] borrowInts(int minLength) {
+		int sizeClass = sizeClass(minLength);
+		if (sizeClass > MAX_SHIFT) {
+			return new int[minLength];
+		}
+		int[] buffer = ints[sizeClass].poll();
+		if (buffer == null) {
+			return new int[1 << sizeClass];
+		}
+		retainedBytes.addAndGet(-4L << sizeClass);
+		return buffer;
+	}
+
+	public void release(int[] buffer) {
+		int sizeClass = pooledClass(buffer.length);
+		if (sizeClass >= 0 && retain(4L << sizeClass)) {
+			ints[sizeClass].offer(buffer);
+		}
+	}
+
+	public long[] borrowLongs(int minLength) {
+		int sizeClass = sizeClass(minLength);
+		if (sizeClass > MAX_SHIFT) {
+			return new long[minLength];
+		}
+		long[] buffer = longs[sizeClass].poll();
+		if (buffer == null) {
+			return new long[1 << sizeClass];
+		}
+		retainedBytes.addAndGet(-8L << sizeClass);
+		return buffer;
+	}
+
+	public void release(long[] buffer) {
+		int sizeClass = pooledClass(buffer.length);
+		if (sizeClass >= 0 && retain(8L << sizeClass)) {
+			longs[sizeClass].offer(buffer);
+		}
+	}
+
+	/**
+	 * Returns a cleared buffer of at least minCapacity bytes, with its limit
+	 * at its capacity.
+	 */
+	public ByteBuffer borrowBuffer(int minCapacity) {
+		int sizeClass = sizeClass(minCapacity);
+		if (sizeClass > MAX_SHIFT) {
+			return direct ? ByteBuffer.allocateDirect(minCapacity) : ByteBuffer.allocate(minCapacity);
+		}
+		ByteBuffer buffer = buffers[sizeClass].poll();
+		if (buffer == null) {
+			buffer = direct ? ByteBuffer.allocateDirect(1 << sizeClass) : ByteBuffer.allocate(1 << sizeClass);
+		} else {
+			retainedBytes.addAndGet(-1L << sizeClass);
+		}
+		buffer.clear();
+		return buffer;
+	}
+
+	public void release(ByteBuffer buffer) {
+		int sizeClass = pooledClass(buffer.capacity());
+		if (sizeClass >= 0 && buffer.isDirect() == direct && retain(1L << sizeClass)) {
+			buffers[sizeClass].offer(buffer);
+		}
+	}
+
+	/**
+	 * Drops all pooled buffers.
+	 */
+	public void clear() {
+		for (int i = MIN_SHIFT; i <= MAX_SHIFT; i++) {
+			while (objects[i].poll() != null) {
+				retainedBytes.addAndGet(-8L << i);
+			}
+			while (ints[i].poll() != null) {
+				retainedBytes.addAndGet(-4L << i);
+			}
+			while (longs[i].poll() != null) {
+				retainedBytes.addAndGet(-8L << i);
+			}
+			while (buffers[i].poll() != null) {
+				retainedBytes.addAndGet(-1L << i);
+			}
+		}
+	}
+
+	/**
+	 * Reserves room for a released buffer of the given size, or returns false
+	 * if it would take the pool over its limit.
+	 */
+	private boolean retain(long bytes) {
+		if (retainedBytes.addAndGet(bytes) > maxRetainedBytes) {
+			retainedBytes.addAndGet(-bytes);
+			return false;
+		}
+		return true;
+	}
+
+	private static int sizeClass(int minLength) {
+		if (minLength < 0) {
+			throw new IllegalArgumentException("Negative length: " + minLength);
+		}
+		return Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(minLength - 1));
+	}
+
+	/**
+	 * Size class of a buffer of the given length, or -1 if such buffers are
+	 * not pooled.
+	 */
+	private static int pooledClass(int length) {
+		if (Integer.bitCount(length) != 1) {
+			return -1;
+		}
+		int sizeClass = Integer.numberOfTrailingZeros(length);
+		return sizeClass >= MIN_SHIFT && sizeClass <= MAX_SHIFT ? sizeClass : -1;
+	}
+}
@@ -0,0 +1,55 @@
+package pro.sort.method;
+
+import net.mokyu.threading.CancellationToken;
+
+/**
+ * Per-sorter resources handed to sort methods along with the range to sort.
+ */
+public class SortContext {
+
+	/**
+	 * Context used when a method is called without one. Its pool is shared
+	 * by all such calls.
+	 */
+	public static final SortContext DEFAULT = new SortContext(new ScratchPool());
+
+	private final ScratchPool scratchPool;
+	private final CancellationToken cancellationToken;
+
+	public SortContext(ScratchPool scratchPool) {
+		this(scratchPool, null);
+	}
+
+	/**
+	 * Creates a context whose sorts give up early once the token is
+	 * cancelled. The token may be null.
+	 */
+	public SortContext(ScratchPool scratchPool, CancellationToken cancellationToken) {
+		if (scratchPool == null) {
+			throw new IllegalArgumentException("Scratch pool can not be null");
+		}
+		this.scratchPool = scratchPool;
+		this.cancellationToken = cancellationToken;
+	}
+
+	/**
+	 * Pool that methods borrow scratch buffers from instead of allocating
+	 * them. Every borrowed buffer must be released before sort() returns.
+	 */
+	public ScratchPool getScratchPool() {
+		return scratchPool;
+	}
+
+	public CancellationToken getCancellationToken() {
+		return cancellationToken;
+	}
+
+	/**
+	 * Checked by methods between steps of a long sort (partitions, merges).
+	 * A method that sees true returns right away, leaving the range a
+	 * permutation of its input but not necessarily sorted.
+	 */
+	public boolean isCancelled() {
+		return cancellationToken != null && cancellationToken.isCancelled();
+	}
+}
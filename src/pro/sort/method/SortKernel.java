@@ -0,0 +1,163 @@
+package pro.sort.method;
+
+import java.util.Comparator;
+
+/**
+ * General purpose comparison sort: quicksort partitioning with an insertion
+ * sort cutoff, falling back to merge sort when the partitioning degenerates.
+ * The skip argument is handled by sorting the unsorted tail and merging it
+ * with the sorted prefix.
+ *
+ * This class is also the template that SpecializingMethod copies into a
+ * separate class loader for every comparator class. It must therefore stay
+ * self contained: no nested classes, lambdas or non-public dependencies.
+ */
+public class SortKernel implements ISorterMethod {
+
+	private static final int INSERTION_LIMIT = 24;
+
+	public <T> void sort(T[] array, int start, int end, Comparator<T> comparator, int skip) {
+		int from = Math.min(skip > 0 ? start + skip + 1 : start, end);
+		int depthLimit = 2 * (32 - Integer.numberOfLeadingZeros(end - from + 1));
+		quickSort(array, from, end, comparator, depthLimit, null);
+		if (from > start && from < end) {
+			mergePrefix(array, start, from, end, comparator);
+		}
+	}
+
+	@Override
+	public <T> void sort(T[] array, int start, int end, Comparator<T> comparator, int skip, SortContext context) {
+		int from = Math.min(skip > 0 ? start + skip + 1 : start, end);
+		int depthLimit = 2 * (32 - Integer.numberOfLeadingZeros(end - from + 1));
+		quickSort(array, from, end, comparator, depthLimit, context);
+		if (from > start && from < end && !context.isCancelled()
+				&& comparator.compare(array[from - 1], array[from]) > 0) {
+			ScratchPool pool = context.getScratchPool();
+			Object[] buffer = pool.borrowObjects(from - start);
+			mergePrefix(array, start, from, end, comparator, buffer);
+			pool.release(buffer);
+		}
+	}
+
+	/**
+	 * Returns early, leaving the range partly sorted, once the context (if
+	 * any) is cancelled.
+	 */
+	private static <T> void quickSort(T[] array, int lo, int hi, Comparator<T> comparator, int depthLimit,
+			SortContext context) {
+		while (hi - lo > INSERTION_LIMIT) {
+			if (context != null && context.isCancelled()) {
+				return;
+			}
+			if (depthLimit-- == 0) {
+				mergeSort(array, lo, hi, comparator);
+				return;
+			}
+			int p = partition(array, lo, hi, comparator);
+			// Recurse into the smaller side, loop on the larger one.
+			if (p - lo < hi - p) {
+				quickSort(array, lo, p, comparator, depthLimit, context);
+				lo = p;
+			} else {
+				quickSort(array, p, hi, comparator, depthLimit, context);
+				hi = p;
+			}
+		}
+		insertionSort(array, lo, hi, comparator);
+	}
+
+	/**
+	 * Hoare partition around the median of the first, middle and last
+	 * element. Returns p such that [lo, p) <= pivot <= [p, hi), with both
+	 * sides non-empty.
+	 */
+	private static <T> int partition(T[] array, int lo, int hi, Comparator<T> comparator) {
+		int mid = (lo + hi) >>> 1;
+		if (comparator.compare(array[mid], array[lo]) < 0) {
+			swap(array, mid, lo);
+		}
+		if (comparator.compare(array[hi - 1], array[mid]) < 0) {
+			swap(array, hi - 1, mid);
+			if (comparator.compare(array[mid], array[lo]) < 0) {
+				swap(array, mid, lo);
+			}
+		}
+		T pivot = array[mid];
+
+		int i = lo - 1, j = hi;
+		while (true) {
+			do {
+				i++;
+			} while (comparator.compare(array[i], pivot) < 0);
+			do {
+				j--;
+			} while (comparator.compare(pivot, array[j]) < 0);
+			if (i >= j) {
+				return j + 1;
+			}
+			swap(array, i, j);
+		}
+	}
+
+	static <T> void insertionSort(T[] array, int start, int end, Comparator<T> comparator) {
+		for (int i = start + 1; i < end; i++) {
+			T current = array[i];
+			int j = i - 1;
+			if (comparator.compare(current, array[j]) < 0) {
+				do {
+					array[j + 1] = array[j];
+					j--;
+				} while (j >= start && comparator.compare(current, array[j]) < 0);
+				array[j + 1] = current;
+			}
+		}
+	}
+
+	static <T> void mergeSort(T[] array, int start, int end, Comparator<T> comparator) {
+		if (end - start <= INSERTION_LIMIT) {
+			insertionSort(array, start, end, comparator);
+			return;
+		}
+		int mid = (start + end) >>> 1;
+		mergeSort(array, start, mid, comparator);
+		mergeSort(array, mid, end, comparator);
+		mergePrefix(array, start, mid, end, comparator);
+	}
+
+	/**
+	 * Merges the sorted ranges [start, mid) and [mid, end). Only the first
+	 * range is copied out; ties are taken from it first.
+	 */
+	static <T> void mergePrefix(T[] array, int start, int mid, int end, Comparator<T> comparator) {
+		if (comparator.compare(array[mid - 1], array[mid]) <= 0) {
+			return;
+		}
+		mergePrefix(array, start, mid, end, comparator, new Object[mid - start]);
+	}
+
+	/**
+	 * mergePrefix() with a caller supplied buffer of at least mid - start
+	 * elements.
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> void mergePrefix(T[] array, int start, int mid, int end, Comparator<T> comparator,
+			Object[] buffer) {
+		int length = mid - start;
+		System.arraycopy(array, start, buffer, 0, length);
+		int i = 0, j = mid, d = start;
+		while (i < length && j < end) {
+			if (comparator.compare(array[j], (T) buffer[i]) < 0) {
+				array[d++] = array[j++];
+			} else {
+				array[d++] = (T) buffer[i++];
+			}
+		}
+		System.arraycopy(buffer, i, array, d, length - i);
+	}
+
+	private static void swap(Object[] array, int i, int j) {
+		Object temp = array[i];
+		array[i] = array[j];
+		array[j] = temp;
+	}
+}
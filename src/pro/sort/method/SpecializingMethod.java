@@ -0,0 +1,107 @@
+package pro.sort.method;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ISorterMethod that hands every comparator class its own copy of SortKernel.
+ *
+ * A single sort loop that is called with many different comparators ends up
+ * with a megamorphic compare() call site, which the JIT will not inline. Here
+ * the bytecode of SortKernel is defined again in a fresh class loader for
+ * each comparator class, so every copy is a distinct class with its own
+ * profile and its compare() calls stay monomorphic.
+ *
+ * Comparators produced by the same factory (e.g. Comparator.comparingInt)
+ * share a class and therefore a kernel. After MAX_KERNELS copies, or if the
+ * class file cannot be read, the shared SortKernel is used instead.
+ */
+public class SpecializingMethod implements ISorterMethod {
+
+	private static final int MAX_KERNELS = 64;
+
+	private static final ISorterMethod SHARED_KERNEL = new SortKernel();
+	private static final byte[] KERNEL_BYTES = readKernelBytes();
+
+	private final ConcurrentHashMap<Class<?>, ISorterMethod> kernels = new ConcurrentHashMap<>();
+
+	public <T> void sort(T[] array, int start, int end, Comparator<T> comparator, int skip) {
+		specialize(comparator).sort(array, start, end, comparator, skip);
+	}
+
+	@Override
+	public <T> void sort(T[] array, int start, int end, Comparator<T> comparator, int skip, SortContext context) {
+		specialize(comparator).sort(array, start, end, comparator, skip, context);
+	}
+
+	@Override
+	public <T> ISorterMethod specialize(Comparator<T> comparator) {
+		Class<?> shape = comparator.getClass();
+		ISorterMethod kernel = kernels.get(shape);
+		if (kernel != null) {
+			return kernel;
+		}
+		if (KERNEL_BYTES == null || kernels.size() >= MAX_KERNELS) {
+			return SHARED_KERNEL;
+		}
+		return kernels.computeIfAbsent(shape, c -> defineKernel());
+	}
+
+	private static ISorterMethod defineKernel() {
+		try {
+			KernelLoader loader = new KernelLoader(SortKernel.class.getClassLoader());
+			Class<?> kernelClass = loader.loadClass(SortKernel.class.getName());
+			return (ISorterMethod) kernelClass.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError | SecurityException ex) {
+			return SHARED_KERNEL;
+		}
+	}
+
+	private static byte[] readKernelBytes() {
+		String resource = SortKernel.class.getSimpleName() + ".class";
+		try (InputStream in = SortKernel.class.getResourceAsStream(resource)) {
+			if (in == null) {
+				return null;
+			}
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+				out.write(buffer, 0, n);
+			}
+			return out.toByteArray();
+		} catch (IOException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Defines its own copy of SortKernel and delegates every other class
+	 * (ISorterMethod in particular) to the parent loader.
+	 */
+	private static class KernelLoader extends ClassLoader {
+
+		KernelLoader(ClassLoader parent) {
+			super(parent);
+		}
+
+		@Override
+		protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			if (!name.equals(SortKernel.class.getName())) {
+				return super.loadClass(name, resolve);
+			}
+			synchronized (getClassLoadingLock(name)) {
+				Class<?> c = findLoadedClass(name);
+				if (c == null) {
+					c = defineClass(name, KERNEL_BYTES, 0, KERNEL_BYTES.length);
+				}
+				if (resolve) {
+					resolveClass(c);
+				}
+				return c;
+			}
+		}
+	}
+}
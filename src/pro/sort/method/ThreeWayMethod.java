@@ -0,0 +1,93 @@
+package pro.sort.method;
+
+import java.util.Comparator;
+
+/**
+ * Quicksort with three-way ("fat") partitioning: elements equal to the pivot
+ * are gathered in the middle and never looked at again. On input with only a
+ * few distinct keys each distinct key is partitioned out once, making the
+ * sort close to linear.
+ */
+public class ThreeWayMethod implements ISorterMethod {
+
+	private static final int INSERTION_LIMIT = 16;
+
+	public <T> void sort(T[] array, int start, int end, Comparator<T> comparator, int skip) {
+		int from = Math.min(skip > 0 ? start + skip + 1 : start, end);
+		int depthLimit = 2 * (32 - Integer.numberOfLeadingZeros(end - from + 1));
+		sortRange(array, from, end, comparator, depthLimit, null);
+		if (from > start && from < end) {
+			SortKernel.mergePrefix(array, start, from, end, comparator);
+		}
+	}
+
+	@Override
+	public <T> void sort(T[] array, int start, int end, Comparator<T> comparator, int skip, SortContext context) {
+		int from = Math.min(skip > 0 ? start + skip + 1 : start, end);
+		int depthLimit = 2 * (32 - Integer.numberOfLeadingZeros(end - from + 1));
+		sortRange(array, from, end, comparator, depthLimit, context);
+		if (from > start && from < end && !context.isCancelled()
+				&& comparator.compare(array[from - 1], array[from]) > 0) {
+			ScratchPool pool = context.getScratchPool();
+			Object[] buffer = pool.borrowObjects(from - start);
+			SortKernel.mergePrefix(array, start, from, end, comparator, buffer);
+			pool.release(buffer);
+		}
+	}
+
+	private static <T> void sortRange(T[] array, int lo, int hi, Comparator<T> comparator, int depthLimit,
+			SortContext context) {
+		while (hi - lo > INSERTION_LIMIT) {
+			if (context != null && context.isCancelled()) {
+				return;
+			}
+			if (depthLimit-- == 0) {
+				SortKernel.mergeSort(array, lo, hi, comparator);
+				return;
+			}
+
+			int mid = (lo + hi) >>> 1;
+			T pivot = median(array[lo], array[mid], array[hi - 1], comparator);
+
+			// [lo, lt) < pivot, [lt, i) == pivot, (gt, hi) > pivot
+			int lt = lo, gt = hi - 1, i = lo;
+			while (i <= gt) {
+				int c = comparator.compare(array[i], pivot);
+				if (c < 0) {
+					swap(array, lt++, i++);
+				} else if (c > 0) {
+					swap(array, i, gt--);
+				} else {
+					i++;
+				}
+			}
+
+			if (lt - lo < hi - gt) {
+				sortRange(array, lo, lt, comparator, depthLimit, context);
+				lo = gt + 1;
+			} else {
+				sortRange(array, gt + 1, hi, comparator, depthLimit, context);
+				hi = lt;
+			}
+		}
+		SortKernel.insertionSort(array, lo, hi, comparator);
+	}
+
+	private static <T> T median(T a, T b, T c, Comparator<T> comparator) {
+		if (comparator.compare(a, b) > 0) {
+			T temp = a;
+			a = b;
+			b = temp;
+		}
+		if (comparator.compare(b, c) <= 0) {
+			return b;
+		}
+		return comparator.compare(a, c) > 0 ? a : c;
+	}
+
+	private static void swap(Object[] array, int i, int j) {
+		Object temp = array[i];
+		array[i] = array[j];
+		array[j] = temp;
+	}
+}
@@ -0,0 +1,326 @@
+package pro.sort.search;
+
+import net.mokyu.threading.GameExecutor;
+import net.mokyu.threading.SplitTask;
+import net.mokyu.threading.TaskTree;
+import net.mokyu.threading.TaskTreeBuilder;
+
+/**
+ * Search index over a sorted long range, for data that is sorted once and
+ * searched often.
+ *
+ * The keys are stored in Eytzinger (breadth first) order: the root of the
+ * implicit search tree at 1 and the children of node k at 2k and 2k + 1. The
+ * first levels of the tree, which every search visits, share a few cache
+ * lines, and the two children of a node are neighbours, so a search touches
+ * far fewer cache lines than a binary search over the sorted array. The
+ * search loop has no data dependent branch; the comparison only decides the
+ * next index.
+ *
+ * Batched lookups advance a group of searches one level at a time, so the
+ * cache misses of independent searches overlap instead of being waited for
+ * one by one; in Java this takes the place of explicit prefetching. A lone
+ * search waits for every miss in turn and is not faster than a binary
+ * search on large indices, so look keys up in batches where possible. Large
+ * batches and large indices are processed in parallel on the executor.
+ *
+ * Results are ranks: the number of keys less than the searched key, i.e. the
+ * position of the lower bound relative to the start of the sorted range.
+ */
+public class EytzingerIndex {
+
+	private static final int GROUP = 8;
+	private static final int PARALLEL_THRESHOLD = 1 << 14;
+
+	private final int numChunks;
+	private final int length;
+
+	// tree[k] is the key of node k, ranks[k] its position in sorted order.
+	// Both cover the whole last level, so that a search never needs a bounds
+	// check.
+	private final long[] tree;
+	private final int[] ranks;
+	private final int depth;
+
+	private final TaskTree buildTree, lookupTree;
+
+	// Build and lookup state of the current call.
+	private long[] sorted;
+	private int sortedStart;
+	private int[] subtreeRoots, subtreeOffsets;
+	private int numSubtrees;
+	private long[] keys;
+	private int keysStart, keysLength;
+	private int[] results;
+
+	/**
+	 * Builds the index sequentially.
+	 */
+	public EytzingerIndex(long[] sorted, int start, int end) {
+		this(sorted, start, end, 1, null);
+	}
+
+	/**
+	 * Builds the index of the sorted range [start, end), in parallel if the
+	 * executor is not null. numChunks is also the parallelism of batched
+	 * lookups.
+	 */
+	public EytzingerIndex(long[] sorted, int start, int end, int numChunks, GameExecutor executor) {
+		if (numChunks < 1) {
+			throw new IllegalArgumentException("Minimum number of chunks is 1");
+		}
+		if (start < 0 || end > sorted.length || start > end) {
+			throw new IllegalArgumentException(
+					"Invalid range [" + start + ", " + end + ") of an array of length " + sorted.length);
+		}
+		if (end - start >= 1 << 30) {
+			throw new IllegalArgumentException("Maximum index size is 2^30 - 1 keys");
+		}
+		this.numChunks = numChunks;
+		this.length = end - start;
+		this.depth = 32 - Integer.numberOfLeadingZeros(length);
+		this.tree = new long[1 << depth];
+		this.ranks = new int[1 << depth];
+
+		TaskTreeBuilder builder = new TaskTreeBuilder();
+		builder.addTask(new BuildTask());
+		buildTree = builder.build();
+		builder = new TaskTreeBuilder();
+		builder.addTask(new LookupTask());
+		lookupTree = builder.build();
+
+		this.sorted = sorted;
+		this.sortedStart = start;
+		try {
+			if (executor == null || numChunks == 1 || length < PARALLEL_THRESHOLD) {
+				fill(1, 0);
+			} else {
+				buildParallel(executor);
+			}
+		} finally {
+			this.sorted = null;
+			this.subtreeRoots = null;
+			this.subtreeOffsets = null;
+		}
+	}
+
+	public int size() {
+		return length;
+	}
+
+	/**
+	 * Returns the number of keys less than key.
+	 */
+	public int lowerBound(long key) {
+		long[] tree = this.tree;
+		int k = 1;
+		for (int level = 0; level < depth; level++) {
+			k = 2 * k + (tree[k] < key ? 1 : 0);
+		}
+		return rankOf(k);
+	}
+
+	public boolean contains(long key) {
+		int k = 1;
+		for (int level = 0; level < depth; level++) {
+			k = 2 * k + (tree[k] < key ? 1 : 0);
+		}
+		int node = nodeOf(k);
+		if (node > length) {
+			// Padding leaf: the next node in order is its successor ancestor.
+			node = nodeOf(node);
+		}
+		return node != 0 && tree[node] == key;
+	}
+
+	/**
+	 * Stores lowerBound(keys[keysStart + i]) in results[resultsStart + i]
+	 * for every i < count.
+	 */
+	public void lowerBounds(long[] keys, int keysStart, int[] results, int resultsStart, int count) {
+		int i = 0;
+		for (; i + GROUP <= count; i += GROUP) {
+			lowerBoundGroup(keys, keysStart + i, results, resultsStart + i);
+		}
+		for (; i < count; i++) {
+			results[resultsStart + i] = lowerBound(keys[keysStart + i]);
+		}
+	}
+
+	/**
+	 * Batched lookup of a whole array, split into numChunks parallel parts.
+	 */
+	public int[] lowerBounds(long[] keys, GameExecutor executor) {
+		int[] results = new int[keys.length];
+		if (executor == null || numChunks == 1 || keys.length < PARALLEL_THRESHOLD) {
+			lowerBounds(keys, 0, results, 0, keys.length);
+			return results;
+		}
+		this.keys = keys;
+		this.keysStart = 0;
+		this.keysLength = keys.length;
+		this.results = results;
+		try {
+			executor.run(lookupTree);
+		} finally {
+			this.keys = null;
+			this.results = null;
+		}
+		return results;
+	}
+
+	/**
+	 * GROUP searches advanced together, level by level.
+	 */
+	private void lowerBoundGroup(long[] keys, int keysStart, int[] results, int resultsStart) {
+		long[] tree = this.tree;
+		int k0 = 1, k1 = 1, k2 = 1, k3 = 1, k4 = 1, k5 = 1, k6 = 1, k7 = 1;
+		long key0 = keys[keysStart], key1 = keys[keysStart + 1], key2 = keys[keysStart + 2],
+				key3 = keys[keysStart + 3], key4 = keys[keysStart + 4], key5 = keys[keysStart + 5],
+				key6 = keys[keysStart + 6], key7 = keys[keysStart + 7];
+		for (int level = 0; level < depth; level++) {
+			k0 = 2 * k0 + (tree[k0] < key0 ? 1 : 0);
+			k1 = 2 * k1 + (tree[k1] < key1 ? 1 : 0);
+			k2 = 2 * k2 + (tree[k2] < key2 ? 1 : 0);
+			k3 = 2 * k3 + (tree[k3] < key3 ? 1 : 0);
+			k4 = 2 * k4 + (tree[k4] < key4 ? 1 : 0);
+			k5 = 2 * k5 + (tree[k5] < key5 ? 1 : 0);
+			k6 = 2 * k6 + (tree[k6] < key6 ? 1 : 0);
+			k7 = 2 * k7 + (tree[k7] < key7 ? 1 : 0);
+		}
+		results[resultsStart] = rankOf(k0);
+		results[resultsStart + 1] = rankOf(k1);
+		results[resultsStart + 2] = rankOf(k2);
+		results[resultsStart + 3] = rankOf(k3);
+		results[resultsStart + 4] = rankOf(k4);
+		results[resultsStart + 5] = rankOf(k5);
+		results[resultsStart + 6] = rankOf(k6);
+		results[resultsStart + 7] = rankOf(k7);
+	}
+
+	/**
+	 * The answer is the last node where the search went left: strip the
+	 * right steps after it and the left step itself. Node 0 means the search
+	 * never went left, i.e. no key is large enough. The shift is done on a
+	 * long, as it is 32 for a full tree of 30 levels searched all right.
+	 */
+	private static int nodeOf(int k) {
+		return (int) ((long) k >>> (Integer.numberOfTrailingZeros(~k) + 1));
+	}
+
+	private int rankOf(int k) {
+		int node = nodeOf(k);
+		return node == 0 ? length : ranks[node];
+	}
+
+	/**
+	 * Fills the subtree of node k with the sorted keys from offset on, in
+	 * order, and returns the offset after it.
+	 *
+	 * All levels but the last are full, so the missing nodes are all on the
+	 * last level. They are padded with Long.MAX_VALUE, which is not less than
+	 * any key, and the rank of the key that follows them in order, so a
+	 * search that ends on one still returns the right rank.
+	 */
+	private int fill(int k, int offset) {
+		if (k > length) {
+			if (k < tree.length) {
+				tree[k] = Long.MAX_VALUE;
+				ranks[k] = offset;
+			}
+			return offset;
+		}
+		offset = fill(2 * k, offset);
+		tree[k] = sorted[sortedStart + offset];
+		ranks[k] = offset;
+		return fill(2 * k + 1, offset + 1);
+	}
+
+	private static int subtreeSize(int k, int length) {
+		int size = 0;
+		for (long lo = k, hi = k; lo <= length; lo = 2 * lo, hi = 2 * hi + 1) {
+			size += (int) (Math.min(hi, length) - lo + 1);
+		}
+		return size;
+	}
+
+	/**
+	 * The top levels are filled here, down to a level with about four
+	 * subtrees per chunk; the subtrees below are filled in parallel.
+	 */
+	private void buildParallel(GameExecutor executor) {
+		int splitLevel = 0;
+		while (1 << splitLevel < 4 * numChunks && splitLevel + 1 < depth - 1) {
+			splitLevel++;
+		}
+		int first = 1 << splitLevel;
+		subtreeRoots = new int[first];
+		subtreeOffsets = new int[first];
+		numSubtrees = 0;
+		fillTop(1, 0, first);
+
+		executor.run(buildTree);
+	}
+
+	private int fillTop(int k, int offset, int first) {
+		if (k > length) {
+			return offset;
+		}
+		if (k >= first) {
+			subtreeRoots[numSubtrees] = k;
+			subtreeOffsets[numSubtrees] = offset;
+			numSubtrees++;
+			return offset + subtreeSize(k, length);
+		}
+		offset = fillTop(2 * k, offset, first);
+		tree[k] = sorted[sortedStart + offset];
+		ranks[k] = offset;
+		return fillTop(2 * k + 1, offset + 1, first);
+	}
+
+	private void buildChunk(int chunkID) {
+		int from = (int) ((long) numSubtrees * chunkID / numChunks);
+		int to = (int) ((long) numSubtrees * (chunkID + 1) / numChunks);
+		for (int i = from; i < to; i++) {
+			fill(subtreeRoots[i], subtreeOffsets[i]);
+		}
+	}
+
+	private void lookupChunk(int chunkID) {
+		int from = (int) ((long) keysLength * chunkID / numChunks);
+		int to = (int) ((long) keysLength * (chunkID + 1) / numChunks);
+		lowerBounds(keys, keysStart + from, results, from, to - from);
+	}
+
+	private class BuildTask extends SplitTask {
+
+		public BuildTask() {
+			super(0, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			buildChunk(subtask);
+		}
+
+		@Override
+		public void finish() {
+		}
+	}
+
+	private class LookupTask extends SplitTask {
+
+		public LookupTask() {
+			super(0, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			lookupChunk(subtask);
+		}
+
+		@Override
+		public void finish() {
+		}
+	}
+}
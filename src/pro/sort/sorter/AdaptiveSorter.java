@@ -0,0 +1,358 @@
+package pro.sort.sorter;
+
+import java.util.Comparator;
+
+import net.mokyu.threading.GameExecutor;
+import net.mokyu.threading.SplitTask;
+import net.mokyu.threading.TaskTree;
+import net.mokyu.threading.TaskTreeBuilder;
+import pro.sort.method.ISorterMethod;
+import pro.sort.method.MergeMethod;
+import pro.sort.method.RadixMethod;
+import pro.sort.method.ScratchPool;
+import pro.sort.method.SortContext;
+import pro.sort.method.SortKernel;
+import pro.sort.method.SpecializingMethod;
+import pro.sort.method.ThreeWayMethod;
+
+/**
+ * Sorter that looks at the input before choosing how to sort it.
+ *
+ * A profile is taken from a few evenly spread windows: the fraction of
+ * neighbours that are out of order (which estimates the number of runs) and
+ * the fraction of inverted pairs within a window, plus the share of duplicates
+ * in an evenly spread sample. From that, and the size, one of the Choices is
+ * made:
+ *
+ * - ALREADY_SORTED if no window has a descent and a full scan agrees,
+ * - INSERTION for tiny ranges,
+ * - MERGE (natural merge sort) for nearly sorted or reversed input,
+ * - THREE_WAY quicksort when most keys are duplicates,
+ * - QUICKSORT (comparator specialized) otherwise,
+ * - RADIX for primitive arrays.
+ *
+ * Ranges of at least PARALLEL_THRESHOLD elements are sorted in parallel: the
+ * chunks with the chosen method, followed by a co-ranked parallel merge, or
+ * with the ParallelRadixSorter for primitives. The profile and the choice of
+ * the last call can be queried.
+ */
+public class AdaptiveSorter<T> {
+
+	public enum Choice {
+		ALREADY_SORTED, INSERTION, MERGE, QUICKSORT, THREE_WAY, RADIX
+	}
+
+	/**
+	 * Sampled statistics of an input range.
+	 */
+	public static class Profile {
+
+		private final int length;
+		private final double descentRatio;
+		private final double inversionRatio;
+		private final double duplicateRatio;
+
+		private Profile(int length, double descentRatio, double inversionRatio, double duplicateRatio) {
+			this.length = length;
+			this.descentRatio = descentRatio;
+			this.inversionRatio = inversionRatio;
+			this.duplicateRatio = duplicateRatio;
+		}
+
+		public int getLength() {
+			return length;
+		}
+
+		/**
+		 * Fraction of sampled neighbours that are out of order: about 0 for
+		 * sorted, 0.5 for random and 1 for reversed input.
+		 */
+		public double getDescentRatio() {
+			return descentRatio;
+		}
+
+		/**
+		 * Fraction of inverted pairs within the sampled windows.
+		 */
+		public double getInversionRatio() {
+			return inversionRatio;
+		}
+
+		/**
+		 * 1 - distinct / sampled keys. Not measured for primitive arrays.
+		 */
+		public double getDuplicateRatio() {
+			return duplicateRatio;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("length %d, descents %.3f, inversions %.3f, duplicates %.3f", length, descentRatio,
+					inversionRatio, duplicateRatio);
+		}
+	}
+
+	private static final int INSERTION_LIMIT = 32;
+	private static final int WINDOW = 32;
+	private static final int MAX_WINDOWS = 16;
+	private static final int DUPLICATE_SAMPLE = 256;
+	private static final int PARALLEL_THRESHOLD = 1 << 15;
+
+	private static final double PRESORTED = 0.05;
+	private static final double MANY_DUPLICATES = 0.75;
+
+	private final int numChunks;
+	private final ISorterMethod mergeMethod = new MergeMethod();
+	private final ISorterMethod quickMethod = new SpecializingMethod();
+	private final ISorterMethod threeWayMethod = new ThreeWayMethod();
+	private final ParallelMerger<T> merger;
+	private final ParallelRadixSorter radixSorter;
+	private final TaskTree chunkTree;
+	private SortContext context = new SortContext(new ScratchPool());
+
+	private T[] array;
+	private int sortStart, sortEnd;
+	private Comparator<T> comparator;
+	private ISorterMethod chunkMethod;
+
+	private Choice lastChoice;
+	private boolean lastParallel;
+	private Profile lastProfile;
+
+	public AdaptiveSorter(int numChunks) {
+		if (numChunks < 1) {
+			throw new IllegalArgumentException("Minimum number of chunks is 1");
+		}
+		this.numChunks = numChunks;
+		this.merger = new ParallelMerger<>(numChunks);
+		this.radixSorter = new ParallelRadixSorter(numChunks);
+		this.radixSorter.setScratchPool(context.getScratchPool());
+
+		TaskTreeBuilder builder = new TaskTreeBuilder();
+		builder.addTask(new SortChunksTask());
+		chunkTree = builder.build();
+	}
+
+	public Choice getLastChoice() {
+		return lastChoice;
+	}
+
+	public boolean wasLastParallel() {
+		return lastParallel;
+	}
+
+	public Profile getLastProfile() {
+		return lastProfile;
+	}
+
+	public void sort(T[] array, int start, int end, Comparator<T> comparator, GameExecutor executor) {
+		int length = end - start;
+		lastParallel = false;
+		if (length <= INSERTION_LIMIT) {
+			lastProfile = new Profile(length, 0, 0, 0);
+			lastChoice = Choice.INSERTION;
+			// MergeMethod is a plain insertion sort up to its minimum run length.
+			mergeMethod.sort(array, start, end, comparator, 0, context);
+			return;
+		}
+
+		Profile profile = profile(start, end, (i, j) -> comparator.compare(array[i], array[j]));
+		double duplicates = duplicateRatio(array, start, end, comparator);
+		lastProfile = profile = new Profile(length, profile.descentRatio, profile.inversionRatio, duplicates);
+
+		ISorterMethod method;
+		if (profile.descentRatio == 0 && isSorted(start, end, (i, j) -> comparator.compare(array[i], array[j]))) {
+			lastChoice = Choice.ALREADY_SORTED;
+			return;
+		} else if (isPresorted(profile)) {
+			lastChoice = Choice.MERGE;
+			method = mergeMethod;
+		} else if (duplicates >= MANY_DUPLICATES) {
+			lastChoice = Choice.THREE_WAY;
+			method = threeWayMethod;
+		} else {
+			lastChoice = Choice.QUICKSORT;
+			method = quickMethod.specialize(comparator);
+		}
+
+		if (length < PARALLEL_THRESHOLD || numChunks == 1) {
+			method.sort(array, start, end, comparator, 0, context);
+			return;
+		}
+
+		// Sort the chunks in parallel, then merge them into a buffer.
+		lastParallel = true;
+		this.array = array;
+		this.sortStart = start;
+		this.sortEnd = end;
+		this.comparator = comparator;
+		this.chunkMethod = method;
+		executor.run(chunkTree);
+
+		@SuppressWarnings("unchecked")
+		T[][] sources = (T[][]) new Object[numChunks][];
+		int[] starts = new int[numChunks];
+		int[] ends = new int[numChunks];
+		for (int i = 0; i < numChunks; i++) {
+			sources[i] = array;
+			starts[i] = chunkStart(i);
+			ends[i] = chunkStart(i + 1);
+		}
+		ScratchPool pool = context.getScratchPool();
+		Object[] buffer = pool.borrowObjects(length);
+		@SuppressWarnings("unchecked")
+		T[] destination = (T[]) buffer;
+		merger.merge(sources, starts, ends, destination, 0, comparator, executor);
+		System.arraycopy(buffer, 0, array, start, length);
+		pool.release(buffer);
+
+		this.array = null;
+		this.comparator = null;
+		this.chunkMethod = null;
+	}
+
+	public void sort(int[] array, int start, int end, GameExecutor executor) {
+		if (choosePrimitive(start, end, (i, j) -> Integer.compare(array[i], array[j]))) {
+			if (lastParallel) {
+				radixSorter.sort(array, start, end, executor);
+			} else {
+				new RadixMethod(context.getScratchPool()).sort(array, start, end);
+			}
+		}
+	}
+
+	public void sort(long[] array, int start, int end, GameExecutor executor) {
+		if (choosePrimitive(start, end, (i, j) -> Long.compare(array[i], array[j]))) {
+			if (lastParallel) {
+				radixSorter.sort(array, start, end, executor);
+			} else {
+				new RadixMethod(context.getScratchPool()).sort(array, start, end);
+			}
+		}
+	}
+
+	/**
+	 * Sorts floats like Arrays.sort(float[]): -0.0 before 0.0 and NaN last.
+	 */
+	public void sort(float[] array, int start, int end, GameExecutor executor) {
+		if (choosePrimitive(start, end, (i, j) -> Float.compare(array[i], array[j]))) {
+			if (lastParallel) {
+				radixSorter.sort(array, start, end, executor);
+			} else {
+				new RadixMethod(context.getScratchPool()).sort(array, start, end);
+			}
+		}
+	}
+
+	/**
+	 * Profiles a primitive range and records the choice. Returns false if
+	 * there is nothing to do.
+	 */
+	private boolean choosePrimitive(int start, int end, IndexComparator order) {
+		int length = end - start;
+		lastParallel = false;
+		if (length <= INSERTION_LIMIT) {
+			lastProfile = new Profile(length, 0, 0, 0);
+			lastChoice = Choice.INSERTION;
+			return true;
+		}
+		lastProfile = profile(start, end, order);
+		if (lastProfile.descentRatio == 0 && isSorted(start, end, order)) {
+			lastChoice = Choice.ALREADY_SORTED;
+			return false;
+		}
+		lastChoice = Choice.RADIX;
+		lastParallel = length >= PARALLEL_THRESHOLD && numChunks > 1;
+		return true;
+	}
+
+	private static boolean isPresorted(Profile profile) {
+		return profile.descentRatio <= PRESORTED || profile.descentRatio >= 1 - PRESORTED
+				|| profile.inversionRatio <= PRESORTED;
+	}
+
+	/**
+	 * Compares the elements at two indices.
+	 */
+	private interface IndexComparator {
+		int compare(int i, int j);
+	}
+
+	/**
+	 * Counts descents and inversions in up to MAX_WINDOWS evenly spread
+	 * windows of WINDOW elements, about one window per 1024 elements.
+	 */
+	private static Profile profile(int start, int end, IndexComparator order) {
+		int length = end - start;
+		int window = Math.min(WINDOW, length);
+		int numWindows = Math.max(1, Math.min(MAX_WINDOWS, length / 1024));
+		long descents = 0, inversions = 0;
+		for (int w = 0; w < numWindows; w++) {
+			int from = start + (int) ((long) (length - window) * w / Math.max(1, numWindows - 1));
+			for (int i = from; i < from + window - 1; i++) {
+				if (order.compare(i, i + 1) > 0) {
+					descents++;
+				}
+				for (int j = i + 1; j < from + window; j++) {
+					if (order.compare(i, j) > 0) {
+						inversions++;
+					}
+				}
+			}
+		}
+		double pairs = (double) numWindows * (window - 1);
+		double allPairs = (double) numWindows * window * (window - 1) / 2;
+		return new Profile(length, descents / pairs, inversions / allPairs, 0);
+	}
+
+	private static boolean isSorted(int start, int end, IndexComparator order) {
+		for (int i = start + 1; i < end; i++) {
+			if (order.compare(i - 1, i) > 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static <T> double duplicateRatio(T[] array, int start, int end, Comparator<T> comparator) {
+		int length = end - start;
+		int size = Math.min(length, DUPLICATE_SAMPLE);
+		@SuppressWarnings("unchecked")
+		T[] sample = (T[]) new Object[size];
+		for (int i = 0; i < size; i++) {
+			sample[i] = array[start + (int) ((long) length * i / size)];
+		}
+		new SortKernel().sort(sample, 0, size, comparator);
+		int distinct = 1;
+		for (int i = 1; i < size; i++) {
+			if (comparator.compare(sample[i - 1], sample[i]) != 0) {
+				distinct++;
+			}
+		}
+		return 1 - (double) distinct / size;
+	}
+
+	private int chunkStart(int chunkID) {
+		return sortStart + (int) ((long) (sortEnd - sortStart) * chunkID / numChunks);
+	}
+
+	private void sortChunk(int chunkID) {
+		chunkMethod.sort(array, chunkStart(chunkID), chunkStart(chunkID + 1), comparator, 0, context);
+	}
+
+	private class SortChunksTask extends SplitTask {
+
+		public SortChunksTask() {
+			super(0, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			sortChunk(subtask);
+		}
+
+		@Override
+		public void finish() {
+		}
+	}
+}
@@ -0,0 +1,442 @@
+package pro.sort.sorter;
+
+import java.lang.reflect.Array;
+import java.util.function.IntToLongFunction;
+import java.util.function.ToLongFunction;
+
+import net.mokyu.threading.GameExecutor;
+import net.mokyu.threading.SplitTask;
+import net.mokyu.threading.TaskTree;
+import net.mokyu.threading.TaskTreeBuilder;
+import pro.sort.method.IPrimitiveSorterMethod;
+import pro.sort.method.PrimitiveKeys;
+
+/**
+ * Computes sorting permutations instead of sorting in place, and applies a
+ * permutation to any number of parallel arrays (columns).
+ *
+ * argsort(keys, start, end) returns an int[] of length end - start holding
+ * the indices of [start, end) in sorted key order; ties keep their original
+ * order. apply(permutation, start, columns) rearranges [start, start +
+ * permutation.length) of every column so that element i becomes the element
+ * that was at permutation[i].
+ *
+ * Each key is read once and packed together with its index into a long (key
+ * in the upper 32 bits, index in the lower 32 bits), and the packed array is
+ * sorted with a ParallelPrimitiveSorter. Keys spanning more than 2^32 values
+ * are abbreviated to their top 32 significant bits, and runs of equal
+ * abbreviations are refined by the full key afterwards.
+ */
+public class ArgSorter {
+
+	private static final int REFINE_INSERTION_LIMIT = 32;
+
+	private int numChunks;
+	private ParallelPrimitiveSorter keySorter;
+
+	private TaskTree decorateTree;
+	private TaskTree undecorateTree;
+	private TaskTree applyTree;
+	private SplitTask copyTask, gatherTask;
+
+	// State of the current argsort() call
+	private IntToLongFunction keyAt;
+	private int sortStart, length;
+	private long[] keys;
+	private long[] packed;
+	private int[] permutation;
+	private long[] chunkMin, chunkMax;
+	private long min;
+	private int shift;
+
+	// State of the current apply() call
+	private Object[] columns;
+	private Object[] copies;
+
+	public ArgSorter(int numChunks, IPrimitiveSorterMethod keySorter) {
+		if (numChunks < 2) {
+			throw new IllegalArgumentException("Minimum number of chunks is 2");
+		}
+		this.numChunks = numChunks;
+		this.keySorter = new ParallelPrimitiveSorter(numChunks, keySorter);
+		this.chunkMin = new long[numChunks];
+		this.chunkMax = new long[numChunks];
+
+		TaskTreeBuilder builder = new TaskTreeBuilder();
+		SplitTask extractTask = new ExtractTask();
+		SplitTask packTask = new PackTask();
+		packTask.addRequiredTask(extractTask);
+		builder.addTask(extractTask);
+		builder.addTask(packTask);
+		decorateTree = builder.build();
+
+		SplitTask refineTask = new RefineTask();
+		SplitTask unpackTask = new UnpackTask();
+		unpackTask.addRequiredTask(refineTask);
+		builder.addTask(refineTask);
+		builder.addTask(unpackTask);
+		undecorateTree = builder.build();
+
+		copyTask = new CopyTask();
+		gatherTask = new GatherTask();
+		gatherTask.addRequiredTask(copyTask);
+		builder.addTask(copyTask);
+		builder.addTask(gatherTask);
+		applyTree = builder.build();
+	}
+
+	public int[] argsort(int[] keys, int start, int end, GameExecutor executor) {
+		return argsort(i -> keys[start + i], start, end, executor);
+	}
+
+	public int[] argsort(long[] keys, int start, int end, GameExecutor executor) {
+		return argsort(i -> keys[start + i], start, end, executor);
+	}
+
+	public int[] argsort(float[] keys, int start, int end, GameExecutor executor) {
+		return argsort(i -> PrimitiveKeys.floatToSortable(keys[start + i]), start, end, executor);
+	}
+
+	public int[] argsort(double[] keys, int start, int end, GameExecutor executor) {
+		return argsort(i -> PrimitiveKeys.doubleToSortable(keys[start + i]), start, end, executor);
+	}
+
+	/**
+	 * Argsort of an object array by a key extracted once per element.
+	 */
+	public <T> int[] argsort(T[] array, int start, int end, ToLongFunction<? super T> key, GameExecutor executor) {
+		return argsort(i -> key.applyAsLong(array[start + i]), start, end, executor);
+	}
+
+	private int[] argsort(IntToLongFunction keyAt, int start, int end, GameExecutor executor) {
+		int length = end - start;
+		if (length < 0) {
+			throw new IllegalArgumentException("start > end: " + start + " > " + end);
+		}
+
+		this.keyAt = keyAt;
+		this.sortStart = start;
+		this.length = length;
+		this.keys = new long[length];
+		this.packed = new long[length];
+		this.permutation = new int[length];
+
+		if (length > 0) {
+			executor.run(decorateTree);
+			keySorter.sort(packed, 0, length, executor);
+			executor.run(undecorateTree);
+		}
+
+		int[] result = permutation;
+		this.keyAt = null;
+		this.keys = null;
+		this.packed = null;
+		this.permutation = null;
+		return result;
+	}
+
+	/**
+	 * Rearranges every column so that, for each i, column[start + i] becomes
+	 * the old value of column[permutation[i]]. Columns may be arrays of any
+	 * primitive type or object arrays, and are processed in parallel.
+	 */
+	public void apply(int[] permutation, int start, GameExecutor executor, Object... columns) {
+		if (columns.length == 0 || permutation.length == 0) {
+			return;
+		}
+		this.permutation = permutation;
+		this.sortStart = start;
+		this.length = permutation.length;
+		this.columns = columns;
+		this.copies = new Object[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			Class<?> type = columns[i].getClass();
+			if (!type.isArray()) {
+				throw new IllegalArgumentException("Not an array: " + type.getName());
+			}
+			copies[i] = Array.newInstance(type.getComponentType(), length);
+		}
+
+		copyTask.setSubtasks(columns.length * numChunks);
+		gatherTask.setSubtasks(columns.length * numChunks);
+		executor.run(applyTree);
+
+		this.permutation = null;
+		this.columns = null;
+		this.copies = null;
+	}
+
+	private int chunkStart(int chunkID) {
+		return (int) ((long) length * chunkID / numChunks);
+	}
+
+	private void extract(int chunkID) {
+		int from = chunkStart(chunkID), to = chunkStart(chunkID + 1);
+		long lo = Long.MAX_VALUE, hi = Long.MIN_VALUE;
+		for (int i = from; i < to; i++) {
+			long k = keyAt.applyAsLong(i);
+			keys[i] = k;
+			lo = Math.min(lo, k);
+			hi = Math.max(hi, k);
+		}
+		chunkMin[chunkID] = lo;
+		chunkMax[chunkID] = hi;
+	}
+
+	private void computeShift() {
+		long lo = Long.MAX_VALUE, hi = Long.MIN_VALUE;
+		for (int i = 0; i < numChunks; i++) {
+			lo = Math.min(lo, chunkMin[i]);
+			hi = Math.max(hi, chunkMax[i]);
+		}
+		// hi - lo is the (unsigned) range of the keys.
+		int bits = 64 - Long.numberOfLeadingZeros(hi - lo);
+		min = lo;
+		shift = Math.max(0, bits - 32);
+	}
+
+	private long abbreviate(long key) {
+		return ((key - min) >>> shift) - 0x80000000L;
+	}
+
+	private void pack(int chunkID) {
+		int from = chunkStart(chunkID), to = chunkStart(chunkID + 1);
+		for (int i = from; i < to; i++) {
+			packed[i] = (abbreviate(keys[i]) << 32) | i;
+		}
+	}
+
+	/**
+	 * Sorts the runs of equal abbreviated keys by their full key. Each chunk
+	 * handles the runs that start inside it, even if they extend past its end.
+	 */
+	private void refine(int chunkID) {
+		if (shift == 0) {
+			return;
+		}
+		int from = chunkStart(chunkID), to = chunkStart(chunkID + 1);
+		int i = from;
+		while (i > 0 && i < to && (packed[i] >>> 32) == (packed[i - 1] >>> 32)) {
+			i++;
+		}
+		while (i < to) {
+			int runEnd = i + 1;
+			while (runEnd < length && (packed[runEnd] >>> 32) == (packed[i] >>> 32)) {
+				runEnd++;
+			}
+			if (runEnd - i > 1) {
+				refineRun(i, runEnd);
+			}
+			i = runEnd;
+		}
+	}
+
+	private void refineRun(int from, int to) {
+		if (to - from <= REFINE_INSERTION_LIMIT) {
+			for (int i = from + 1; i < to; i++) {
+				long current = packed[i];
+				long key = keys[(int) current];
+				int j = i - 1;
+				while (j >= from && key < keys[(int) packed[j]]) {
+					packed[j + 1] = packed[j];
+					j--;
+				}
+				packed[j + 1] = current;
+			}
+			return;
+		}
+		long[] buffer = new long[to - from];
+		mergeSort(from, to, buffer);
+	}
+
+	private void mergeSort(int from, int to, long[] buffer) {
+		if (to - from <= REFINE_INSERTION_LIMIT) {
+			refineRun(from, to);
+			return;
+		}
+		int mid = (from + to) >>> 1;
+		mergeSort(from, mid, buffer);
+		mergeSort(mid, to, buffer);
+		if (keys[(int) packed[mid - 1]] <= keys[(int) packed[mid]]) {
+			return;
+		}
+		System.arraycopy(packed, from, buffer, 0, mid - from);
+		int i = 0, iEnd = mid - from, j = mid, d = from;
+		while (i < iEnd && j < to) {
+			if (keys[(int) packed[j]] < keys[(int) buffer[i]]) {
+				packed[d++] = packed[j++];
+			} else {
+				packed[d++] = buffer[i++];
+			}
+		}
+		System.arraycopy(buffer, i, packed, d, iEnd - i);
+	}
+
+	private void unpack(int chunkID) {
+		int from = chunkStart(chunkID), to = chunkStart(chunkID + 1);
+		for (int i = from; i < to; i++) {
+			permutation[i] = sortStart + (int) packed[i];
+		}
+	}
+
+	private void copyColumn(int subtask) {
+		int columnID = subtask / numChunks;
+		int chunkID = subtask % numChunks;
+		int from = chunkStart(chunkID), to = chunkStart(chunkID + 1);
+		System.arraycopy(columns[columnID], sortStart + from, copies[columnID], from, to - from);
+	}
+
+	private void gatherColumn(int subtask) {
+		int columnID = subtask / numChunks;
+		int chunkID = subtask % numChunks;
+		Object column = columns[columnID];
+		Object copy = copies[columnID];
+		int from = chunkStart(chunkID), to = chunkStart(chunkID + 1);
+		int base = sortStart;
+		int[] p = permutation;
+
+		if (column instanceof Object[]) {
+			Object[] dst = (Object[]) column, src = (Object[]) copy;
+			for (int i = from; i < to; i++) {
+				dst[base + i] = src[p[i] - base];
+			}
+		} else if (column instanceof int[]) {
+			int[] dst = (int[]) column, src = (int[]) copy;
+			for (int i = from; i < to; i++) {
+				dst[base + i] = src[p[i] - base];
+			}
+		} else if (column instanceof long[]) {
+			long[] dst = (long[]) column, src = (long[]) copy;
+			for (int i = from; i < to; i++) {
+				dst[base + i] = src[p[i] - base];
+			}
+		} else if (column instanceof float[]) {
+			float[] dst = (float[]) column, src = (float[]) copy;
+			for (int i = from; i < to; i++) {
+				dst[base + i] = src[p[i] - base];
+			}
+		} else if (column instanceof double[]) {
+			double[] dst = (double[]) column, src = (double[]) copy;
+			for (int i = from; i < to; i++) {
+				dst[base + i] = src[p[i] - base];
+			}
+		} else if (column instanceof short[]) {
+			short[] dst = (short[]) column, src = (short[]) copy;
+			for (int i = from; i < to; i++) {
+				dst[base + i] = src[p[i] - base];
+			}
+		} else if (column instanceof char[]) {
+			char[] dst = (char[]) column, src = (char[]) copy;
+			for (int i = from; i < to; i++) {
+				dst[base + i] = src[p[i] - base];
+			}
+		} else if (column instanceof byte[]) {
+			byte[] dst = (byte[]) column, src = (byte[]) copy;
+			for (int i = from; i < to; i++) {
+				dst[base + i] = src[p[i] - base];
+			}
+		} else {
+			boolean[] dst = (boolean[]) column, src = (boolean[]) copy;
+			for (int i = from; i < to; i++) {
+				dst[base + i] = src[p[i] - base];
+			}
+		}
+	}
+
+	private class ExtractTask extends SplitTask {
+
+		public ExtractTask() {
+			super(0, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			extract(subtask);
+		}
+
+		@Override
+		public void finish() {
+			computeShift();
+		}
+	}
+
+	private class PackTask extends SplitTask {
+
+		public PackTask() {
+			super(1, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			pack(subtask);
+		}
+
+		@Override
+		public void finish() {
+		}
+	}
+
+	private class RefineTask extends SplitTask {
+
+		public RefineTask() {
+			super(0, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			refine(subtask);
+		}
+
+		@Override
+		public void finish() {
+		}
+	}
+
+	private class UnpackTask extends SplitTask {
+
+		public UnpackTask() {
+			super(1, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			unpack(subtask);
+		}
+
+		@Override
+		public void finish() {
+		}
+	}
+
+	private class CopyTask extends SplitTask {
+
+		public CopyTask() {
+			super(0, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			copyColumn(subtask);
+		}
+
+		@Override
+		public void finish() {
+		}
+	}
+
+	private class GatherTask extends SplitTask {
+
+		public GatherTask() {
+			super(1, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			gatherColumn(subtask);
+		}
+
+		@Override
+		public void finish() {
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package pro.sort.sorter;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator over an array range, used as a LoserTree source.
+ */
+class ArrayCursor<T> implements Iterator<T> {
+
+	private final T[] array;
+	private int index;
+	private final int end;
+
+	ArrayCursor(T[] array, int start, int end) {
+		this.array = array;
+		this.index = start;
+		this.end = end;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return index < end;
+	}
+
+	@Override
+	public T next() {
+		if (index >= end) {
+			throw new NoSuchElementException();
+		}
+		return array[index++];
+	}
+
+	/**
+	 * Copies the remaining elements to destination and exhausts the cursor.
+	 */
+	void copyTo(Object[] destination, int destinationStart) {
+		System.arraycopy(array, index, destination, destinationStart, end - index);
+		index = end;
+	}
+}
@@ -0,0 +1,219 @@
+package pro.sort.sorter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import net.mokyu.threading.GameExecutor;
+import net.mokyu.threading.SplitTask;
+import net.mokyu.threading.TaskTree;
+import net.mokyu.threading.TaskTreeBuilder;
+import pro.sort.method.ISorterMethod;
+import pro.sort.method.ScratchPool;
+import pro.sort.method.SortContext;
+
+/**
+ * Sorts many small, independent array ranges with a single run of the
+ * executor. Sorting each one with its own ParallelSorter costs more in
+ * dispatch than in sorting when they hold a few thousand elements or less.
+ *
+ * The segments are packed into at most numBins subtasks of about equal cost,
+ * estimated as n log2 n, with the longest processing time first rule: the
+ * segments are taken from most to least expensive and each goes to the bin
+ * with the least work so far. Every subtask then sorts its segments one
+ * after another with the sort method. No segment is split, so one huge
+ * segment still takes as long as sorting it on one thread.
+ *
+ * Segments may share arrays as long as their ranges do not overlap.
+ */
+public class BatchSorter<T> {
+
+	/**
+	 * A range of an array and the comparator to sort it with.
+	 */
+	public static class Segment<T> {
+
+		private final T[] array;
+		private final int start, end;
+		private final Comparator<T> comparator;
+
+		public Segment(T[] array, int start, int end, Comparator<T> comparator) {
+			if (start < 0 || end > array.length || start > end) {
+				throw new IllegalArgumentException(
+						"Invalid range [" + start + ", " + end + ") of an array of length " + array.length);
+			}
+			this.array = array;
+			this.start = start;
+			this.end = end;
+			this.comparator = comparator;
+		}
+
+		public T[] getArray() {
+			return array;
+		}
+
+		public int getStart() {
+			return start;
+		}
+
+		public int getEnd() {
+			return end;
+		}
+
+		public Comparator<T> getComparator() {
+			return comparator;
+		}
+	}
+
+	private final int numBins;
+	private final ISorterMethod sorter;
+	private final SortBinsTask sortBinsTask;
+	private final TaskTree taskTree;
+	private SortContext context = new SortContext(new ScratchPool());
+
+	// Segments added with add() for the next call to sort(executor).
+	private final List<Segment<T>> pending = new ArrayList<>();
+
+	// Bins of the current call: the segments of bin b are
+	// segments[order[binStart[b]]] ... segments[order[binStart[b + 1] - 1]].
+	private List<? extends Segment<T>> segments;
+	private ISorterMethod[] methods;
+	private int[] order;
+	private int[] binStart;
+
+	public BatchSorter(int numBins, ISorterMethod sorter) {
+		if (numBins < 1) {
+			throw new IllegalArgumentException("Minimum number of bins is 1");
+		}
+		this.numBins = numBins;
+		this.sorter = sorter;
+		this.sortBinsTask = new SortBinsTask();
+
+		TaskTreeBuilder builder = new TaskTreeBuilder();
+		builder.addTask(sortBinsTask);
+		taskTree = builder.build();
+	}
+
+	public void setScratchPool(ScratchPool scratchPool) {
+		this.context = new SortContext(scratchPool);
+	}
+
+	public ScratchPool getScratchPool() {
+		return context.getScratchPool();
+	}
+
+	/**
+	 * Queues a range for the next call to sort(executor).
+	 */
+	public void add(T[] array, int start, int end, Comparator<T> comparator) {
+		pending.add(new Segment<>(array, start, end, comparator));
+	}
+
+	public int getNumPending() {
+		return pending.size();
+	}
+
+	/**
+	 * Sorts all queued ranges and clears the queue.
+	 */
+	public void sort(GameExecutor executor) {
+		try {
+			sort(pending, executor);
+		} finally {
+			pending.clear();
+		}
+	}
+
+	/**
+	 * Sorts every segment of the list in one run of the executor.
+	 */
+	public void sort(List<? extends Segment<T>> segments, GameExecutor executor) {
+		int numSegments = segments.size();
+		if (numSegments == 0) {
+			return;
+		}
+		this.segments = segments;
+		this.methods = new ISorterMethod[numSegments];
+		long[] costs = new long[numSegments];
+		Integer[] byCost = new Integer[numSegments];
+		for (int i = 0; i < numSegments; i++) {
+			Segment<T> segment = segments.get(i);
+			methods[i] = sorter.specialize(segment.comparator);
+			costs[i] = cost(segment.end - segment.start);
+			byCost[i] = i;
+		}
+		Arrays.sort(byCost, (a, b) -> Long.compare(costs[b], costs[a]));
+
+		// Longest processing time first. Bins are few, so the least loaded
+		// one is found with a scan.
+		int usedBins = Math.min(numBins, numSegments);
+		long[] load = new long[usedBins];
+		int[] bin = new int[numSegments];
+		int[] binSize = new int[usedBins];
+		for (int i = 0; i < numSegments; i++) {
+			int segment = byCost[i];
+			int lightest = 0;
+			for (int b = 1; b < usedBins; b++) {
+				if (load[b] < load[lightest]) {
+					lightest = b;
+				}
+			}
+			load[lightest] += costs[segment];
+			bin[segment] = lightest;
+			binSize[lightest]++;
+		}
+
+		binStart = new int[usedBins + 1];
+		for (int b = 0; b < usedBins; b++) {
+			binStart[b + 1] = binStart[b] + binSize[b];
+		}
+		order = new int[numSegments];
+		int[] next = Arrays.copyOf(binStart, usedBins);
+		for (int i = 0; i < numSegments; i++) {
+			order[next[bin[i]]++] = i;
+		}
+
+		sortBinsTask.setSubtasks(usedBins);
+		try {
+			executor.run(taskTree);
+		} finally {
+			this.segments = null;
+			this.methods = null;
+			this.order = null;
+			this.binStart = null;
+		}
+	}
+
+	/**
+	 * Estimated comparisons for sorting n elements: n log2 n, and at least n
+	 * so that tiny segments are not free.
+	 */
+	private static long cost(int n) {
+		return (long) n * Math.max(1, 32 - Integer.numberOfLeadingZeros(n));
+	}
+
+	private void sortBin(int binID) {
+		for (int i = binStart[binID]; i < binStart[binID + 1]; i++) {
+			int segmentID = order[i];
+			Segment<T> segment = segments.get(segmentID);
+			methods[segmentID].sort(segment.array, segment.start, segment.end, segment.comparator, 0, context);
+		}
+	}
+
+	private class SortBinsTask extends SplitTask {
+
+		public SortBinsTask() {
+			super(0, 0, numBins);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			sortBin(subtask);
+		}
+
+		@Override
+		public void finish() {
+		}
+	}
+}
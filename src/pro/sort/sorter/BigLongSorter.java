@@ -0,0 +1,292 @@
+package pro.sort.sorter;
+
+import net.mokyu.threading.GameExecutor;
+import net.mokyu.threading.SplitTask;
+import net.mokyu.threading.TaskTree;
+import net.mokyu.threading.TaskTreeBuilder;
+import pro.sort.big.BigLongArray;
+import pro.sort.method.IPrimitiveSorterMethod;
+
+/**
+ * Parallel sorter for BigLongArrays, for ranges longer than 2^31 elements.
+ *
+ * The range is cut into pieces that each lie within one segment, at least
+ * numChunks of them, and every piece is sorted in its segment by the
+ * IPrimitiveSorterMethod. The sorted pieces are merged in a single k-way pass
+ * into a buffer of the same size: each chunk of the output finds its start in
+ * every piece by co-ranking and merges independently. The buffer is then
+ * copied back in parallel.
+ */
+public class BigLongSorter {
+
+	private int numChunks;
+	private IPrimitiveSorterMethod sorter;
+	private TaskTree taskTree;
+	private SplitTask sortTask;
+
+	private BigLongArray array;
+	private BigLongArray buffer;
+	private long sortStart, sortEnd;
+	private long[] pieceStarts; // numPieces + 1 entries
+	private int numPieces;
+
+	public BigLongSorter(int numChunks, IPrimitiveSorterMethod sorter) {
+		if (numChunks < 1) {
+			throw new IllegalArgumentException("Minimum number of chunks is 1");
+		}
+		this.numChunks = numChunks;
+		this.sorter = sorter;
+
+		TaskTreeBuilder builder = new TaskTreeBuilder();
+		sortTask = new SortPiecesTask();
+		SplitTask mergeTask = new MergeTask();
+		SplitTask copyBackTask = new CopyBackTask();
+		mergeTask.addRequiredTask(sortTask);
+		copyBackTask.addRequiredTask(mergeTask);
+		builder.addTask(sortTask);
+		builder.addTask(mergeTask);
+		builder.addTask(copyBackTask);
+		taskTree = builder.build();
+	}
+
+	public void sort(BigLongArray array, long start, long end, GameExecutor executor) {
+		if (start < 0 || end > array.length() || start > end) {
+			throw new IllegalArgumentException("Invalid range [" + start + ", " + end + ")");
+		}
+		this.array = array;
+		this.sortStart = start;
+		this.sortEnd = end;
+		cutPieces();
+
+		if (numPieces == 1) {
+			sortPiece(0);
+		} else if (numPieces > 1) {
+			buffer = new BigLongArray(end - start, array.getSegmentShift());
+			sortTask.setSubtasks(numPieces);
+			executor.run(taskTree);
+			buffer = null;
+		}
+
+		this.array = null;
+		this.pieceStarts = null;
+	}
+
+	/**
+	 * Splits every segment's part of the range into pieces of at most
+	 * ceil(length / numChunks) elements.
+	 */
+	private void cutPieces() {
+		long length = sortEnd - sortStart;
+		if (length < 2) {
+			numPieces = 0;
+			return;
+		}
+		long target = (length + numChunks - 1) / numChunks;
+		long segmentSize = 1L << array.getSegmentShift();
+		int capacity = numChunks + array.getNumSegments() + 1;
+		pieceStarts = new long[capacity + 1];
+		numPieces = 0;
+
+		long from = sortStart;
+		while (from < sortEnd) {
+			long segmentEnd = Math.min(sortEnd, (from & -segmentSize) + segmentSize);
+			long span = segmentEnd - from;
+			int parts = (int) ((span + target - 1) / target);
+			for (int p = 0; p < parts; p++) {
+				pieceStarts[numPieces++] = from + span * p / parts;
+			}
+			from = segmentEnd;
+		}
+		pieceStarts[numPieces] = sortEnd;
+	}
+
+	private void sortPiece(int piece) {
+		long from = pieceStarts[piece];
+		int shift = array.getSegmentShift();
+		long[] segment = array.getSegment((int) (from >>> shift));
+		int offset = (int) (from - ((from >>> shift) << shift));
+		sorter.sort(segment, offset, offset + (int) (pieceStarts[piece + 1] - from));
+	}
+
+	private long outputStart(int chunkID) {
+		return (sortEnd - sortStart) * chunkID / numChunks;
+	}
+
+	/**
+	 * Merges the output ranks of one chunk from all pieces into the buffer
+	 * with a loser tree: tree[0] is the winner, tree[1..k-1] the losers of
+	 * the internal nodes and leaf i is node k + i.
+	 */
+	private void mergeChunk(int chunkID) {
+		long from = outputStart(chunkID), to = outputStart(chunkID + 1);
+		if (from == to) {
+			return;
+		}
+		int k = numPieces;
+		long[] heads = split(from);
+		long[] ends = split(to);
+		long[] values = new long[k];
+		for (int i = 0; i < k; i++) {
+			if (heads[i] < ends[i]) {
+				values[i] = array.get(heads[i]);
+			}
+		}
+
+		int[] tree = new int[k];
+		int[] winners = new int[2 * k];
+		for (int i = 0; i < k; i++) {
+			winners[k + i] = i;
+		}
+		for (int node = k - 1; node >= 1; node--) {
+			int a = winners[2 * node], b = winners[2 * node + 1];
+			if (beats(a, b, heads, ends, values)) {
+				winners[node] = a;
+				tree[node] = b;
+			} else {
+				winners[node] = b;
+				tree[node] = a;
+			}
+		}
+		tree[0] = winners[1];
+
+		for (long d = from; d < to; d++) {
+			int winner = tree[0];
+			buffer.set(d, values[winner]);
+			if (++heads[winner] < ends[winner]) {
+				values[winner] = array.get(heads[winner]);
+			}
+			for (int node = (winner + k) >> 1; node >= 1; node >>= 1) {
+				if (beats(tree[node], winner, heads, ends, values)) {
+					int loser = winner;
+					winner = tree[node];
+					tree[node] = loser;
+				}
+			}
+			tree[0] = winner;
+		}
+	}
+
+	private static boolean beats(int a, int b, long[] heads, long[] ends, long[] values) {
+		if (heads[a] >= ends[a]) {
+			return false;
+		}
+		if (heads[b] >= ends[b]) {
+			return true;
+		}
+		return values[a] < values[b] || (values[a] == values[b] && a < b);
+	}
+
+	/**
+	 * Returns, for every piece, the index of its first element that does not
+	 * come before output rank 'rank', equal values coming from earlier pieces
+	 * first. The value at that rank is found by binary search over the value
+	 * range, which costs 64 * k binary searches however many pieces there
+	 * are.
+	 */
+	private long[] split(long rank) {
+		int k = numPieces;
+		long[] splits = new long[k];
+		if (rank >= sortEnd - sortStart) {
+			System.arraycopy(pieceStarts, 1, splits, 0, k);
+			return splits;
+		}
+
+		// Smallest value with more than rank elements less than or equal to it.
+		long lo = Long.MIN_VALUE, hi = Long.MAX_VALUE;
+		while (lo < hi) {
+			long mid = (lo >> 1) + (hi >> 1) + (lo & hi & 1);
+			long count = 0;
+			for (int i = 0; i < k; i++) {
+				count += bound(i, mid, true) - pieceStarts[i];
+			}
+			if (count > rank) {
+				hi = mid;
+			} else {
+				lo = mid + 1;
+			}
+		}
+
+		long remaining = rank;
+		for (int i = 0; i < k; i++) {
+			splits[i] = bound(i, lo, false);
+			remaining -= splits[i] - pieceStarts[i];
+		}
+		for (int i = 0; i < k && remaining > 0; i++) {
+			long equal = Math.min(remaining, bound(i, lo, true) - splits[i]);
+			splits[i] += equal;
+			remaining -= equal;
+		}
+		return splits;
+	}
+
+	/**
+	 * First element of the piece greater than (upper) or not less than
+	 * (lower) value.
+	 */
+	private long bound(int piece, long value, boolean upper) {
+		long lo = pieceStarts[piece], hi = pieceStarts[piece + 1];
+		while (lo < hi) {
+			long mid = (lo + hi) >>> 1;
+			long v = array.get(mid);
+			if (v < value || (upper && v == value)) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	private void copyBack(int chunkID) {
+		long from = outputStart(chunkID), to = outputStart(chunkID + 1);
+		BigLongArray.copy(buffer, from, array, sortStart + from, to - from);
+	}
+
+	private class SortPiecesTask extends SplitTask {
+
+		public SortPiecesTask() {
+			super(0, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			sortPiece(subtask);
+		}
+
+		@Override
+		public void finish() {
+		}
+	}
+
+	private class MergeTask extends SplitTask {
+
+		public MergeTask() {
+			super(1, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			mergeChunk(subtask);
+		}
+
+		@Override
+		public void finish() {
+		}
+	}
+
+	private class CopyBackTask extends SplitTask {
+
+		public CopyBackTask() {
+			super(2, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			copyBack(subtask);
+		}
+
+		@Override
+		public void finish() {
+		}
+	}
+}
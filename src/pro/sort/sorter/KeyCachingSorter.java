@@ -0,0 +1,45 @@
+package pro.sort.sorter;
+
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+import net.mokyu.threading.GameExecutor;
+import pro.sort.method.IPrimitiveSorterMethod;
+import pro.sort.method.PrimitiveKeys;
+
+/**
+ * Decorate-sort-undecorate sorter for object arrays. The key of every element
+ * is extracted exactly once and sorted together with the element's index in
+ * a compact primitive array (see ArgSorter). The object array is then
+ * permuted in one pass. The sort is stable.
+ */
+public class KeyCachingSorter<T> {
+
+	private ArgSorter argSorter;
+
+	public KeyCachingSorter(int numChunks, IPrimitiveSorterMethod keySorter) {
+		this.argSorter = new ArgSorter(numChunks, keySorter);
+	}
+
+	public void sortByIntKey(T[] array, int start, int end, ToIntFunction<? super T> key, GameExecutor executor) {
+		sort(array, start, end, e -> key.applyAsInt(e), executor);
+	}
+
+	public void sortByLongKey(T[] array, int start, int end, ToLongFunction<? super T> key, GameExecutor executor) {
+		sort(array, start, end, key, executor);
+	}
+
+	public void sortByDoubleKey(T[] array, int start, int end, ToDoubleFunction<? super T> key,
+			GameExecutor executor) {
+		sort(array, start, end, e -> PrimitiveKeys.doubleToSortable(key.applyAsDouble(e)), executor);
+	}
+
+	private void sort(T[] array, int start, int end, ToLongFunction<? super T> key, GameExecutor executor) {
+		if (end - start < 2) {
+			return;
+		}
+		int[] permutation = argSorter.argsort(array, start, end, key, executor);
+		argSorter.apply(permutation, start, executor, (Object) array);
+	}
+}
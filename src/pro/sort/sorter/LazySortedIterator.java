@@ -0,0 +1,207 @@
+package pro.sort.sorter;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import net.mokyu.threading.GameExecutor;
+import net.mokyu.threading.SplitTask;
+import net.mokyu.threading.TaskTree;
+import net.mokyu.threading.TaskTreeBuilder;
+import pro.sort.method.ISorterMethod;
+
+/**
+ * Iterates over a range in sorted order while sorting it only as far as the
+ * elements are consumed (incremental quicksort). The range is rearranged in
+ * place; when the iteration ends early the part after the last returned
+ * element is partitioned but not sorted.
+ *
+ * Elements are produced a page at a time. A page is cut off the front of the
+ * unsorted part by repeated partitioning, which costs O(n) for the first page
+ * and less for every following one, and then sorted with the ISorterMethod.
+ * While a page is sorted, the next one is partitioned off in parallel on the
+ * executor, so it is ready when the consumer gets there.
+ */
+public class LazySortedIterator<T> implements Iterator<T> {
+
+	private static final int INSERTION_LIMIT = 16;
+
+	private T[] array;
+	private int end;
+	private Comparator<T> comparator;
+	private ISorterMethod sorter;
+	private int pageSize;
+	private GameExecutor executor;
+	private TaskTree taskTree;
+
+	private int position; // next element to return
+	private int sortedEnd; // [position, sortedEnd) is sorted
+	private int pageEnd;
+
+	// Partition boundaries above sortedEnd, decreasing, the top is the
+	// nearest. Everything before a boundary is <= everything after it.
+	private int[] stack;
+	private int stackSize;
+
+	/**
+	 * @param executor
+	 *            executor that sorts a page while partitioning the next, or
+	 *            null to do all work in the calling thread
+	 */
+	public LazySortedIterator(T[] array, int start, int end, Comparator<T> comparator, ISorterMethod sorter,
+			int pageSize, GameExecutor executor) {
+		if (pageSize < 1) {
+			throw new IllegalArgumentException("Minimum page size is 1");
+		}
+		this.array = array;
+		this.end = end;
+		this.comparator = comparator;
+		this.sorter = sorter.specialize(comparator);
+		this.pageSize = pageSize;
+		this.executor = executor;
+		this.position = start;
+		this.sortedEnd = start;
+
+		this.stack = new int[16];
+		push(end);
+
+		if (executor != null) {
+			TaskTreeBuilder builder = new TaskTreeBuilder();
+			builder.addTask(new PageTask());
+			taskTree = builder.build();
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		return position < end;
+	}
+
+	@Override
+	public T next() {
+		if (position >= end) {
+			throw new NoSuchElementException();
+		}
+		if (position == sortedEnd) {
+			nextPage();
+		}
+		return array[position++];
+	}
+
+	/**
+	 * Index of the element the next call to next() returns.
+	 */
+	public int getPosition() {
+		return position;
+	}
+
+	private void nextPage() {
+		isolate(position);
+		pageEnd = pop();
+		if (executor != null && pageEnd < end) {
+			executor.run(taskTree);
+		} else {
+			sortPage();
+			if (pageEnd < end) {
+				isolate(pageEnd);
+			}
+		}
+		sortedEnd = pageEnd;
+	}
+
+	private void sortPage() {
+		sorter.sort(array, position, pageEnd, comparator);
+	}
+
+	/**
+	 * Partitions the range between from and the nearest boundary until that
+	 * boundary is at most a page away from from.
+	 */
+	private void isolate(int from) {
+		while (stack[stackSize - 1] - from > pageSize) {
+			int hi = stack[stackSize - 1];
+			if (hi - from <= INSERTION_LIMIT) {
+				return;
+			}
+
+			int mid = (from + hi) >>> 1;
+			T pivot = median(array[from], array[mid], array[hi - 1]);
+
+			// [from, lt) < pivot, [lt, gt] == pivot, (gt, hi) > pivot
+			int lt = from, gt = hi - 1, i = from;
+			while (i <= gt) {
+				int c = comparator.compare(array[i], pivot);
+				if (c < 0) {
+					swap(lt++, i++);
+				} else if (c > 0) {
+					swap(i, gt--);
+				} else {
+					i++;
+				}
+			}
+
+			if (gt + 1 < hi) {
+				push(gt + 1);
+			}
+			if (lt == from) {
+				// The front is a run of elements equal to the pivot.
+				return;
+			}
+			push(lt);
+		}
+	}
+
+	private T median(T a, T b, T c) {
+		if (comparator.compare(a, b) > 0) {
+			T temp = a;
+			a = b;
+			b = temp;
+		}
+		if (comparator.compare(b, c) <= 0) {
+			return b;
+		}
+		return comparator.compare(a, c) > 0 ? a : c;
+	}
+
+	private void swap(int i, int j) {
+		T temp = array[i];
+		array[i] = array[j];
+		array[j] = temp;
+	}
+
+	private void push(int boundary) {
+		if (stackSize == stack.length) {
+			stack = Arrays.copyOf(stack, stackSize * 2);
+		}
+		stack[stackSize++] = boundary;
+	}
+
+	private int pop() {
+		return stack[--stackSize];
+	}
+
+	/**
+	 * Sorts the current page and partitions off the next one. The two work on
+	 * disjoint parts of the array and only the second touches the stack.
+	 */
+	private class PageTask extends SplitTask {
+
+		public PageTask() {
+			super(0, 0, 2);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			if (subtask == 0) {
+				sortPage();
+			} else {
+				isolate(pageEnd);
+			}
+		}
+
+		@Override
+		public void finish() {
+		}
+	}
+}
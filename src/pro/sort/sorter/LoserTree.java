@@ -0,0 +1,117 @@
+package pro.sort.sorter;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Merges any number of sorted iterators into one sorted iterator with a
+ * tournament (loser) tree. Every internal node remembers the source that lost
+ * the match played there, so after taking the overall winner only the path
+ * from its leaf to the root is replayed: log2(k) comparisons per element.
+ * Equal elements come out in source order, so the merge is stable.
+ */
+public class LoserTree<T> implements Iterator<T> {
+
+	private Iterator<? extends T>[] sources;
+	private Comparator<T> comparator;
+	private int k;
+
+	private Object[] heads;
+	private boolean[] live;
+
+	// tree[0] is the current winner, tree[1..k-1] the losers of the internal
+	// nodes. Leaf i is node k + i and the parent of node n is n / 2.
+	private int[] tree;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public LoserTree(List<? extends Iterator<? extends T>> sources, Comparator<T> comparator) {
+		this.k = sources.size();
+		this.sources = sources.toArray(new Iterator[k]);
+		this.comparator = comparator;
+		this.heads = new Object[k];
+		this.live = new boolean[k];
+		this.tree = new int[Math.max(k, 1)];
+
+		for (int i = 0; i < k; i++) {
+			advance(i);
+		}
+		if (k > 1) {
+			int[] winners = new int[2 * k];
+			for (int i = 0; i < k; i++) {
+				winners[k + i] = i;
+			}
+			for (int node = k - 1; node >= 1; node--) {
+				int a = winners[2 * node], b = winners[2 * node + 1];
+				if (beats(a, b)) {
+					winners[node] = a;
+					tree[node] = b;
+				} else {
+					winners[node] = b;
+					tree[node] = a;
+				}
+			}
+			tree[0] = winners[1];
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		return k > 0 && live[tree[0]];
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		int winner = tree[0];
+		T result = (T) heads[winner];
+		advance(winner);
+
+		for (int node = (winner + k) >> 1; node >= 1; node >>= 1) {
+			if (beats(tree[node], winner)) {
+				int loser = winner;
+				winner = tree[node];
+				tree[node] = loser;
+			}
+		}
+		tree[0] = winner;
+		return result;
+	}
+
+	/**
+	 * Index of the source the next element comes from.
+	 */
+	public int nextSource() {
+		return tree[0];
+	}
+
+	private void advance(int source) {
+		if (sources[source].hasNext()) {
+			heads[source] = sources[source].next();
+			live[source] = true;
+		} else {
+			heads[source] = null;
+			live[source] = false;
+		}
+	}
+
+	/**
+	 * Whether the head of source a comes before the head of source b.
+	 * Exhausted sources lose every match.
+	 */
+	@SuppressWarnings("unchecked")
+	private boolean beats(int a, int b) {
+		if (!live[a]) {
+			return false;
+		}
+		if (!live[b]) {
+			return true;
+		}
+		int c = comparator.compare((T) heads[a], (T) heads[b]);
+		return c < 0 || (c == 0 && a < b);
+	}
+}
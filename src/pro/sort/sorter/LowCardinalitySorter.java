@@ -0,0 +1,529 @@
+package pro.sort.sorter;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import net.mokyu.threading.GameExecutor;
+import net.mokyu.threading.SplitTask;
+import net.mokyu.threading.TaskTree;
+import net.mokyu.threading.TaskTreeBuilder;
+import pro.sort.method.BitonicMethod;
+import pro.sort.method.SortKernel;
+import pro.sort.method.ThreeWayMethod;
+
+/**
+ * Sorter for input with few distinct keys (status codes, render layers...).
+ *
+ * A sample of the input is sorted to estimate the number of distinct keys.
+ * If it is small, every chunk collects its distinct keys and their counts in
+ * parallel, the per-chunk tables are combined into exact output positions
+ * and the elements are written straight to their final place: a stable
+ * histogram sort for objects and a counting sort for ints. If the input turns
+ * out to have more than maxDistinct keys after all, or the sample does not
+ * look duplicate heavy, a ParallelSorter with three-way partitioning (or a
+ * ParallelPrimitiveSorter for ints) is used instead.
+ */
+public class LowCardinalitySorter<T> {
+
+	private static final int SAMPLE_SIZE = 4096;
+
+	private int numChunks;
+	private int maxDistinct;
+
+	private TaskTree objectTree;
+	private TaskTree intTree;
+	private ParallelSorter<T> fallbackSorter;
+	private ParallelPrimitiveSorter primitiveFallbackSorter;
+
+	private int sortStart, sortEnd;
+	private volatile boolean overflow;
+
+	// Per chunk distinct keys, sorted, and their counts
+	private Object[][] localKeys;
+	private int[][] localIntKeys;
+	private int[][] localCounts;
+	private int[] localSizes;
+
+	// State of the current object sort
+	private T[] array;
+	private Comparator<T> comparator;
+	private Object[] keys;
+	private int numKeys;
+	private int[][] offsets;
+	private Object[] buffer;
+
+	// State of the current int sort
+	private int[] intArray;
+	private int[] intKeys;
+	private int[] keyEnds;
+
+	public LowCardinalitySorter(int numChunks, int maxDistinct) {
+		if (numChunks < 2) {
+			throw new IllegalArgumentException("Minimum number of chunks is 2");
+		}
+		if (maxDistinct < 1) {
+			throw new IllegalArgumentException("maxDistinct has to be at least 1");
+		}
+		this.numChunks = numChunks;
+		this.maxDistinct = maxDistinct;
+		this.fallbackSorter = new ParallelSorter<>(numChunks, new ThreeWayMethod());
+		this.primitiveFallbackSorter = new ParallelPrimitiveSorter(numChunks, new BitonicMethod());
+
+		localKeys = new Object[numChunks][];
+		localIntKeys = new int[numChunks][];
+		localCounts = new int[numChunks][];
+		localSizes = new int[numChunks];
+		offsets = new int[numChunks][];
+
+		TaskTreeBuilder builder = new TaskTreeBuilder();
+		SplitTask collectTask = new CollectTask();
+		SplitTask scatterTask = new ScatterTask();
+		SplitTask copyBackTask = new CopyBackTask();
+		scatterTask.addRequiredTask(collectTask);
+		copyBackTask.addRequiredTask(scatterTask);
+		builder.addTask(collectTask);
+		builder.addTask(scatterTask);
+		builder.addTask(copyBackTask);
+		objectTree = builder.build();
+
+		SplitTask collectIntsTask = new CollectIntsTask();
+		SplitTask fillTask = new FillTask();
+		fillTask.addRequiredTask(collectIntsTask);
+		builder.addTask(collectIntsTask);
+		builder.addTask(fillTask);
+		intTree = builder.build();
+	}
+
+	public void sort(T[] array, int start, int end, Comparator<T> comparator, GameExecutor executor) {
+		int length = end - start;
+		if (length < numChunks * 2) {
+			new ThreeWayMethod().sort(array, start, end, comparator);
+			return;
+		}
+
+		if (looksLowCardinality(array, start, end, comparator)) {
+			this.array = array;
+			this.sortStart = start;
+			this.sortEnd = end;
+			this.comparator = comparator;
+			this.overflow = false;
+			this.buffer = new Object[length];
+
+			executor.run(objectTree);
+
+			boolean done = !overflow;
+			this.array = null;
+			this.comparator = null;
+			this.keys = null;
+			this.buffer = null;
+			Arrays.fill(localKeys, null);
+			if (done) {
+				return;
+			}
+		}
+		fallbackSorter.sort(array, start, end, comparator, executor);
+	}
+
+	public void sort(int[] array, int start, int end, GameExecutor executor) {
+		int length = end - start;
+		if (length < 2) {
+			return;
+		}
+
+		if (looksLowCardinality(array, start, end)) {
+			this.intArray = array;
+			this.sortStart = start;
+			this.sortEnd = end;
+			this.overflow = false;
+
+			executor.run(intTree);
+
+			boolean done = !overflow;
+			this.intArray = null;
+			this.intKeys = null;
+			this.keyEnds = null;
+			if (done) {
+				return;
+			}
+		}
+		primitiveFallbackSorter.sort(array, start, end, executor);
+	}
+
+	@SuppressWarnings("unchecked")
+	private boolean looksLowCardinality(T[] array, int start, int end, Comparator<T> comparator) {
+		int length = end - start;
+		int sampleSize = Math.min(length, SAMPLE_SIZE);
+		T[] sample = (T[]) new Object[sampleSize];
+		for (int i = 0; i < sampleSize; i++) {
+			sample[i] = array[start + (int) ((long) length * i / sampleSize)];
+		}
+		new SortKernel().sort(sample, 0, sampleSize, comparator);
+		int distinct = 1;
+		for (int i = 1; i < sampleSize; i++) {
+			if (comparator.compare(sample[i - 1], sample[i]) != 0) {
+				distinct++;
+			}
+		}
+		return isLowCardinality(distinct, sampleSize, length);
+	}
+
+	private boolean looksLowCardinality(int[] array, int start, int end) {
+		int length = end - start;
+		int sampleSize = Math.min(length, SAMPLE_SIZE);
+		int[] sample = new int[sampleSize];
+		for (int i = 0; i < sampleSize; i++) {
+			sample[i] = array[start + (int) ((long) length * i / sampleSize)];
+		}
+		Arrays.sort(sample);
+		int distinct = 1;
+		for (int i = 1; i < sampleSize; i++) {
+			if (sample[i - 1] != sample[i]) {
+				distinct++;
+			}
+		}
+		return isLowCardinality(distinct, sampleSize, length);
+	}
+
+	/**
+	 * A complete sample is exact. Otherwise require every sampled key to
+	 * repeat a few times on average, so that there is little chance of the
+	 * input hiding many more keys than the sample shows.
+	 */
+	private boolean isLowCardinality(int distinct, int sampleSize, int length) {
+		if (distinct > maxDistinct) {
+			return false;
+		}
+		return sampleSize == length || distinct * 4 <= sampleSize;
+	}
+
+	private int chunkStart(int chunkID) {
+		return sortStart + (int) ((long) (sortEnd - sortStart) * chunkID / numChunks);
+	}
+
+	/**
+	 * Binary search for key among the first size keys. Returns the index of
+	 * the key, or -(insertion point) - 1 if it is not there.
+	 */
+	@SuppressWarnings("unchecked")
+	private int search(Object[] keys, int size, T key) {
+		int lo = 0, hi = size - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int c = comparator.compare((T) keys[mid], key);
+			if (c < 0) {
+				lo = mid + 1;
+			} else if (c > 0) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(lo + 1);
+	}
+
+	private void collect(int chunkID) {
+		int from = chunkStart(chunkID), end = chunkStart(chunkID + 1);
+		// A chunk has at most as many distinct keys as elements.
+		int tableSize = Math.min(maxDistinct, end - from);
+		Object[] keys = new Object[tableSize];
+		int[] counts = new int[tableSize];
+		int size = 0;
+
+		for (int i = from; i < end; i++) {
+			T element = array[i];
+			int k = search(keys, size, element);
+			if (k >= 0) {
+				counts[k]++;
+				continue;
+			}
+			if (size == maxDistinct || overflow) {
+				overflow = true;
+				return;
+			}
+			k = -(k + 1);
+			System.arraycopy(keys, k, keys, k + 1, size - k);
+			System.arraycopy(counts, k, counts, k + 1, size - k);
+			keys[k] = element;
+			counts[k] = 1;
+			size++;
+		}
+
+		localKeys[chunkID] = keys;
+		localCounts[chunkID] = counts;
+		localSizes[chunkID] = size;
+	}
+
+	/**
+	 * Combines the per chunk tables into one sorted key table and computes
+	 * where every chunk writes the elements of every key.
+	 */
+	@SuppressWarnings("unchecked")
+	private void computeOffsets() {
+		if (overflow) {
+			return;
+		}
+
+		int total = 0;
+		for (int c = 0; c < numChunks; c++) {
+			total += localSizes[c];
+		}
+		Object[] all = new Object[total];
+		for (int c = 0, n = 0; c < numChunks; c++) {
+			System.arraycopy(localKeys[c], 0, all, n, localSizes[c]);
+			n += localSizes[c];
+		}
+		new SortKernel().sort((T[]) all, 0, total, comparator);
+		int distinct = 0;
+		for (int i = 0; i < total; i++) {
+			if (distinct == 0 || comparator.compare((T) all[distinct - 1], (T) all[i]) != 0) {
+				all[distinct++] = all[i];
+			}
+		}
+		if (distinct > maxDistinct) {
+			overflow = true;
+			return;
+		}
+		keys = all;
+		numKeys = distinct;
+
+		int[][] chunkCounts = new int[numChunks][distinct];
+		for (int c = 0; c < numChunks; c++) {
+			for (int j = 0; j < localSizes[c]; j++) {
+				chunkCounts[c][search(keys, numKeys, (T) localKeys[c][j])] = localCounts[c][j];
+			}
+		}
+
+		// Stable: for every key, chunk 0's elements go first.
+		int position = 0;
+		for (int k = 0; k < distinct; k++) {
+			for (int c = 0; c < numChunks; c++) {
+				int count = chunkCounts[c][k];
+				chunkCounts[c][k] = position;
+				position += count;
+			}
+		}
+		for (int c = 0; c < numChunks; c++) {
+			offsets[c] = chunkCounts[c];
+		}
+	}
+
+	private void scatter(int chunkID) {
+		if (overflow) {
+			return;
+		}
+		int[] next = offsets[chunkID];
+		for (int i = chunkStart(chunkID), end = chunkStart(chunkID + 1); i < end; i++) {
+			T element = array[i];
+			buffer[next[search(keys, numKeys, element)]++] = element;
+		}
+	}
+
+	private void copyBack(int chunkID) {
+		if (overflow) {
+			return;
+		}
+		int from = chunkStart(chunkID), to = chunkStart(chunkID + 1);
+		System.arraycopy(buffer, from - sortStart, array, from, to - from);
+	}
+
+	/**
+	 * Counts the values of one chunk in an open addressing hash table and
+	 * stores them as a sorted local histogram.
+	 *
+	 * The table is sized for at most a load of one half: four times the
+	 * number of keys the chunk can hold, rounded down to a power of two, but
+	 * no more than 2^30 slots. A chunk with more keys than half the table
+	 * overflows like one with more than maxDistinct keys.
+	 */
+	private void collectInts(int chunkID) {
+		int from = chunkStart(chunkID), end = chunkStart(chunkID + 1);
+		long maxKeys = Math.max(1, Math.min(maxDistinct, end - from));
+		int capacity = (int) Math.min(Long.highestOneBit(maxKeys) << 2, 1 << 30);
+		int limit = Math.min(maxDistinct, capacity >>> 1);
+		int mask = capacity - 1;
+		int shift = 32 - Integer.numberOfTrailingZeros(capacity);
+		int[] table = new int[capacity];
+		int[] counts = new int[capacity];
+		int size = 0;
+
+		for (int i = from; i < end; i++) {
+			int value = intArray[i];
+			int slot = (value * 0x9E3779B9) >>> shift;
+			while (counts[slot] != 0 && table[slot] != value) {
+				slot = (slot + 1) & mask;
+			}
+			if (counts[slot] == 0) {
+				if (size == limit || overflow) {
+					overflow = true;
+					return;
+				}
+				table[slot] = value;
+				size++;
+			}
+			counts[slot]++;
+		}
+
+		int[] keys = new int[size];
+		for (int slot = 0, n = 0; slot < capacity; slot++) {
+			if (counts[slot] != 0) {
+				keys[n++] = table[slot];
+			}
+		}
+		Arrays.sort(keys);
+		int[] keyCounts = new int[size];
+		for (int slot = 0; slot < capacity; slot++) {
+			if (counts[slot] != 0) {
+				keyCounts[Arrays.binarySearch(keys, table[slot])] = counts[slot];
+			}
+		}
+
+		localIntKeys[chunkID] = keys;
+		localCounts[chunkID] = keyCounts;
+		localSizes[chunkID] = size;
+	}
+
+	/**
+	 * Combines the per chunk histograms. keyEnds[k] is the end (relative to
+	 * sortStart) of the run of intKeys[k] in the sorted output.
+	 */
+	private void computeRuns() {
+		if (overflow) {
+			return;
+		}
+
+		int total = 0;
+		for (int c = 0; c < numChunks; c++) {
+			total += localSizes[c];
+		}
+		int[] all = new int[total];
+		for (int c = 0, n = 0; c < numChunks; c++) {
+			System.arraycopy(localIntKeys[c], 0, all, n, localSizes[c]);
+			n += localSizes[c];
+		}
+		Arrays.sort(all);
+		int distinct = 0;
+		for (int i = 0; i < total; i++) {
+			if (distinct == 0 || all[distinct - 1] != all[i]) {
+				all[distinct++] = all[i];
+			}
+		}
+		if (distinct > maxDistinct) {
+			overflow = true;
+			return;
+		}
+
+		int[] runs = new int[distinct];
+		for (int c = 0; c < numChunks; c++) {
+			for (int j = 0; j < localSizes[c]; j++) {
+				runs[Arrays.binarySearch(all, 0, distinct, localIntKeys[c][j])] += localCounts[c][j];
+			}
+		}
+		for (int k = 1; k < distinct; k++) {
+			runs[k] += runs[k - 1];
+		}
+		intKeys = Arrays.copyOf(all, distinct);
+		keyEnds = runs;
+	}
+
+	/**
+	 * Writes one chunk of the sorted output from the combined histogram.
+	 */
+	private void fill(int chunkID) {
+		if (overflow) {
+			return;
+		}
+		int from = chunkStart(chunkID) - sortStart, to = chunkStart(chunkID + 1) - sortStart;
+		// First key whose run ends after from. The ends are strictly increasing.
+		int k = Arrays.binarySearch(keyEnds, from + 1);
+		k = k >= 0 ? k : -(k + 1);
+		int position = from;
+		while (position < to) {
+			int runEnd = Math.min(keyEnds[k], to);
+			Arrays.fill(intArray, sortStart + position, sortStart + runEnd, intKeys[k]);
+			position = runEnd;
+			k++;
+		}
+	}
+
+	private class CollectTask extends SplitTask {
+
+		public CollectTask() {
+			super(0, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			collect(subtask);
+		}
+
+		@Override
+		public void finish() {
+			computeOffsets();
+		}
+	}
+
+	private class ScatterTask extends SplitTask {
+
+		public ScatterTask() {
+			super(1, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			scatter(subtask);
+		}
+
+		@Override
+		public void finish() {
+		}
+	}
+
+	private class CopyBackTask extends SplitTask {
+
+		public CopyBackTask() {
+			super(2, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			copyBack(subtask);
+		}
+
+		@Override
+		public void finish() {
+		}
+	}
+
+	private class CollectIntsTask extends SplitTask {
+
+		public CollectIntsTask() {
+			super(0, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			collectInts(subtask);
+		}
+
+		@Override
+		public void finish() {
+			computeRuns();
+		}
+	}
+
+	private class FillTask extends SplitTask {
+
+		public FillTask() {
+			super(1, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			fill(subtask);
+		}
+
+		@Override
+		public void finish() {
+		}
+	}
+}
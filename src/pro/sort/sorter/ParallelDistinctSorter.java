@@ -0,0 +1,236 @@
+package pro.sort.sorter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import net.mokyu.threading.GameExecutor;
+import net.mokyu.threading.SplitTask;
+import net.mokyu.threading.TaskTree;
+import net.mokyu.threading.TaskTreeBuilder;
+import pro.sort.method.ISorterMethod;
+import pro.sort.method.ScratchPool;
+import pro.sort.method.SortContext;
+
+/**
+ * Sorts a range and removes duplicates (elements that compare equal) in the
+ * same pass, returning the number of distinct elements, which end up sorted
+ * at the start of the range.
+ *
+ * Every chunk is sorted and deduplicated in place, so the later phases only
+ * move survivors. The deduplicated runs are then partitioned by value, with
+ * splitters sampled from the runs, so that equal elements of different
+ * chunks always meet in the same partition. Each partition merges its part
+ * of all runs with a LoserTree into a scratch buffer, dropping duplicates on
+ * the way, and a prefix sum over the partition sizes tells each partition
+ * where to copy its survivors back. The slots after the last survivor are
+ * cleared.
+ *
+ * Of equal elements one is kept; with a stable sort method it is the first.
+ */
+public class ParallelDistinctSorter<T> {
+
+	private final int numChunks;
+	private final ISorterMethod sorter;
+	private final TaskTree taskTree;
+	private SortContext context = new SortContext(new ScratchPool());
+
+	// State of the current call.
+	private T[] array;
+	private int sortStart, sortEnd;
+	private Comparator<T> comparator;
+	private ISorterMethod activeSorter;
+	private int[] runEnds;
+	private int[][] bounds; // bounds[c][p]: start of partition p in run c
+	private Object[][] partitions;
+	private int[] partitionLengths, partitionOffsets;
+
+	public ParallelDistinctSorter(int numChunks, ISorterMethod sorter) {
+		if (numChunks < 1) {
+			throw new IllegalArgumentException("Minimum number of chunks is 1");
+		}
+		this.numChunks = numChunks;
+		this.sorter = sorter;
+
+		TaskTreeBuilder builder = new TaskTreeBuilder();
+		SplitTask sortTask = new SortChunksTask();
+		SplitTask mergeTask = new MergePartitionsTask();
+		SplitTask compactTask = new CompactTask();
+		mergeTask.addRequiredTask(sortTask);
+		compactTask.addRequiredTask(mergeTask);
+		builder.addTask(sortTask);
+		builder.addTask(mergeTask);
+		builder.addTask(compactTask);
+		taskTree = builder.build();
+	}
+
+	public void setScratchPool(ScratchPool scratchPool) {
+		this.context = new SortContext(scratchPool);
+	}
+
+	public ScratchPool getScratchPool() {
+		return context.getScratchPool();
+	}
+
+	/**
+	 * Sorts [start, end), removes duplicates and returns the number of
+	 * distinct elements, which are in [start, start + result) afterwards.
+	 * [start + result, end) is cleared to null.
+	 */
+	public int sortDistinct(T[] array, int start, int end, Comparator<T> comparator, GameExecutor executor) {
+		this.array = array;
+		this.sortStart = start;
+		this.sortEnd = end;
+		this.comparator = comparator;
+		this.activeSorter = sorter.specialize(comparator);
+		this.runEnds = new int[numChunks];
+		this.bounds = new int[numChunks][numChunks + 1];
+		this.partitions = new Object[numChunks][];
+		this.partitionLengths = new int[numChunks];
+		this.partitionOffsets = new int[numChunks + 1];
+		try {
+			executor.run(taskTree);
+			int distinct = partitionOffsets[numChunks];
+			Arrays.fill(array, start + distinct, end, null);
+			return distinct;
+		} finally {
+			ScratchPool pool = context.getScratchPool();
+			for (Object[] partition : partitions) {
+				if (partition != null) {
+					pool.release(partition);
+				}
+			}
+			this.array = null;
+			this.comparator = null;
+			this.activeSorter = null;
+			this.partitions = null;
+		}
+	}
+
+	private int chunkStart(int chunkID) {
+		return sortStart + (int) ((long) (sortEnd - sortStart) * chunkID / numChunks);
+	}
+
+	private void sortChunk(int chunkID) {
+		int from = chunkStart(chunkID), to = chunkStart(chunkID + 1);
+		activeSorter.sort(array, from, to, comparator, 0, context);
+		int last = from;
+		for (int i = from + 1; i < to; i++) {
+			if (comparator.compare(array[last], array[i]) != 0) {
+				array[++last] = array[i];
+			}
+		}
+		runEnds[chunkID] = to > from ? last + 1 : from;
+	}
+
+	/**
+	 * Splits the runs into numChunks value ranges, see
+	 * {@link Splitters#partitionRuns(Object[][], int[], int[], Comparator, int[][])}.
+	 */
+	@SuppressWarnings("unchecked")
+	private void partition() {
+		T[][] runs = (T[][]) new Object[numChunks][];
+		int[] starts = new int[numChunks];
+		for (int c = 0; c < numChunks; c++) {
+			runs[c] = array;
+			starts[c] = chunkStart(c);
+		}
+		Splitters.partitionRuns(runs, starts, runEnds, comparator, bounds);
+	}
+
+	/**
+	 * Merges partition p of all runs into a scratch buffer, skipping elements
+	 * equal to the last one written.
+	 */
+	private void mergePartition(int p) {
+		List<ArrayCursor<T>> cursors = new ArrayList<>(numChunks);
+		int size = 0;
+		for (int c = 0; c < numChunks; c++) {
+			int from = bounds[c][p], to = bounds[c][p + 1];
+			if (from < to) {
+				cursors.add(new ArrayCursor<>(array, from, to));
+				size += to - from;
+			}
+		}
+		Object[] buffer = context.getScratchPool().borrowObjects(size);
+		partitions[p] = buffer;
+		int out = 0;
+		if (cursors.size() == 1) {
+			ArrayCursor<T> cursor = cursors.get(0);
+			cursor.copyTo(buffer, 0);
+			out = size;
+		} else if (cursors.size() > 1) {
+			LoserTree<T> tree = new LoserTree<>(cursors, comparator);
+			T last = null;
+			while (tree.hasNext()) {
+				T element = tree.next();
+				if (out == 0 || comparator.compare(last, element) != 0) {
+					buffer[out++] = element;
+					last = element;
+				}
+			}
+		}
+		partitionLengths[p] = out;
+	}
+
+	private void computeOffsets() {
+		for (int p = 0; p < numChunks; p++) {
+			partitionOffsets[p + 1] = partitionOffsets[p] + partitionLengths[p];
+		}
+	}
+
+	private void compact(int p) {
+		System.arraycopy(partitions[p], 0, array, sortStart + partitionOffsets[p], partitionLengths[p]);
+	}
+
+	private class SortChunksTask extends SplitTask {
+
+		public SortChunksTask() {
+			super(0, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			sortChunk(subtask);
+		}
+
+		@Override
+		public void finish() {
+			partition();
+		}
+	}
+
+	private class MergePartitionsTask extends SplitTask {
+
+		public MergePartitionsTask() {
+			super(1, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			mergePartition(subtask);
+		}
+
+		@Override
+		public void finish() {
+			computeOffsets();
+		}
+	}
+
+	private class CompactTask extends SplitTask {
+
+		public CompactTask() {
+			super(2, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			compact(subtask);
+		}
+
+		@Override
+		public void finish() {
+		}
+	}
+}
@@ -0,0 +1,235 @@
+package pro.sort.sorter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import net.mokyu.threading.GameExecutor;
+import net.mokyu.threading.SplitTask;
+import net.mokyu.threading.TaskTree;
+import net.mokyu.threading.TaskTreeBuilder;
+
+/**
+ * Merges k sorted arrays (or array ranges) into one destination in parallel.
+ *
+ * The output is cut into numChunks equal ranges. For the first rank of each
+ * range the split position in every source is found exactly by co-ranking:
+ * the element of that rank is searched for with binary searches, and the
+ * splits are the number of elements of each source that come before it.
+ * Every chunk then merges its pieces of the sources with a LoserTree into
+ * its own part of the destination, without touching the other chunks. Equal
+ * elements keep source order, so the merge is stable.
+ */
+public class ParallelMerger<T> {
+
+	private int numChunks;
+	private TaskTree taskTree;
+
+	private T[][] sources;
+	private int[] starts, ends;
+	private T[] destination;
+	private int destinationStart;
+	private int total;
+	private Comparator<T> comparator;
+
+	public ParallelMerger(int numChunks) {
+		if (numChunks < 1) {
+			throw new IllegalArgumentException("Minimum number of chunks is 1");
+		}
+		this.numChunks = numChunks;
+
+		TaskTreeBuilder builder = new TaskTreeBuilder();
+		builder.addTask(new MergeTask());
+		taskTree = builder.build();
+	}
+
+	/**
+	 * Merges the complete sorted arrays into destination, starting at
+	 * destinationStart. The destination must not overlap any source.
+	 */
+	public void merge(T[][] sources, T[] destination, int destinationStart, Comparator<T> comparator,
+			GameExecutor executor) {
+		int[] starts = new int[sources.length];
+		int[] ends = new int[sources.length];
+		for (int i = 0; i < sources.length; i++) {
+			ends[i] = sources[i].length;
+		}
+		merge(sources, starts, ends, destination, destinationStart, comparator, executor);
+	}
+
+	/**
+	 * Merges the sorted ranges [starts[i], ends[i]) of sources[i] into
+	 * destination, starting at destinationStart. Several ranges may come from
+	 * the same array, but the destination must not overlap any of them.
+	 */
+	public void merge(T[][] sources, int[] starts, int[] ends, T[] destination, int destinationStart,
+			Comparator<T> comparator, GameExecutor executor) {
+		if (starts.length != sources.length || ends.length != sources.length) {
+			throw new IllegalArgumentException("Need a start and end for every source");
+		}
+		long total = 0;
+		for (int i = 0; i < sources.length; i++) {
+			total += ends[i] - starts[i];
+		}
+		if (destinationStart + total > destination.length) {
+			throw new IllegalArgumentException("Destination too small for " + total + " elements");
+		}
+
+		this.sources = sources;
+		this.starts = starts;
+		this.ends = ends;
+		this.destination = destination;
+		this.destinationStart = destinationStart;
+		this.total = (int) total;
+		this.comparator = comparator;
+
+		if (total < numChunks * 2L || sources.length < 2) {
+			mergeRange(0, this.total);
+		} else {
+			executor.run(taskTree);
+		}
+
+		this.sources = null;
+		this.destination = null;
+		this.comparator = null;
+	}
+
+	private void mergeChunk(int chunkID) {
+		int from = (int) ((long) total * chunkID / numChunks);
+		int to = (int) ((long) total * (chunkID + 1) / numChunks);
+		mergeRange(from, to);
+	}
+
+	/**
+	 * Writes the output ranks [from, to) to the destination.
+	 */
+	private void mergeRange(int from, int to) {
+		if (from == to) {
+			return;
+		}
+		int k = sources.length;
+		int[] lo = split(from);
+		int[] hi = split(to);
+
+		int d = destinationStart + from;
+		List<ArrayCursor<T>> cursors = new ArrayList<>(k);
+		for (int i = 0; i < k; i++) {
+			if (lo[i] < hi[i]) {
+				cursors.add(new ArrayCursor<T>(sources[i], lo[i], hi[i]));
+			}
+		}
+		if (cursors.size() == 1) {
+			ArrayCursor<T> cursor = cursors.get(0);
+			cursor.copyTo(destination, d);
+			return;
+		}
+		LoserTree<T> tree = new LoserTree<>(cursors, comparator);
+		while (tree.hasNext()) {
+			destination[d++] = tree.next();
+		}
+	}
+
+	/**
+	 * Returns, for every source, the absolute index of the first of its
+	 * elements that does not come before output rank 'rank'.
+	 */
+	private int[] split(int rank) {
+		int k = sources.length;
+		int[] splits = new int[k];
+		if (rank >= total) {
+			System.arraycopy(ends, 0, splits, 0, k);
+			return splits;
+		}
+
+		// The element of the given rank is in exactly one source. Within a
+		// source, the rank of its elements grows with the index, so a binary
+		// search finds the candidate with the largest rank <= rank.
+		for (int j = 0; j < k; j++) {
+			int lo = starts[j], hi = ends[j] - 1;
+			while (lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				long r = rankOf(j, mid);
+				if (r == rank) {
+					T element = sources[j][mid];
+					for (int i = 0; i < k; i++) {
+						if (i < j) {
+							splits[i] = upperBound(i, element);
+						} else if (i == j) {
+							splits[i] = mid;
+						} else {
+							splits[i] = lowerBound(i, element);
+						}
+					}
+					return splits;
+				} else if (r < rank) {
+					lo = mid + 1;
+				} else {
+					hi = mid - 1;
+				}
+			}
+		}
+		throw new IllegalArgumentException("Sources are not sorted");
+	}
+
+	/**
+	 * Output rank of sources[j][index]: the number of elements, over all
+	 * sources, that are smaller, or equal and in an earlier source, or equal
+	 * and before it in the same source.
+	 */
+	private long rankOf(int j, int index) {
+		T element = sources[j][index];
+		long rank = index - starts[j];
+		for (int i = 0; i < sources.length; i++) {
+			if (i < j) {
+				rank += upperBound(i, element) - starts[i];
+			} else if (i > j) {
+				rank += lowerBound(i, element) - starts[i];
+			}
+		}
+		return rank;
+	}
+
+	private int lowerBound(int source, T element) {
+		T[] array = sources[source];
+		int lo = starts[source], hi = ends[source];
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (comparator.compare(array[mid], element) < 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	private int upperBound(int source, T element) {
+		T[] array = sources[source];
+		int lo = starts[source], hi = ends[source];
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (comparator.compare(array[mid], element) <= 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	private class MergeTask extends SplitTask {
+
+		public MergeTask() {
+			super(0, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			mergeChunk(subtask);
+		}
+
+		@Override
+		public void finish() {
+		}
+	}
+}
@@ -0,0 +1,259 @@
+package pro.sort.sorter;
+
+import net.mokyu.threading.GameExecutor;
+import net.mokyu.threading.SplitTask;
+import net.mokyu.threading.TaskTree;
+import net.mokyu.threading.TaskTreeBuilder;
+import pro.sort.method.IPrimitiveSorterMethod;
+import pro.sort.method.PrimitiveKeys;
+
+/**
+ * Primitive version of ParallelSorter. Uses the same two phase scheme (sort
+ * chunks, then sort the overlaps between chunks) but works directly on int[],
+ * long[] and float[] arrays with an IPrimitiveSorterMethod.
+ */
+public class ParallelPrimitiveSorter {
+
+	private enum KeyType {
+		INT, LONG, FLOAT
+	}
+
+	private int numChunks;
+	private int numOverlaps;
+
+	private TaskTree taskTree;
+
+	private Chunk[] chunks;
+	private Overlap[] overlaps;
+
+	private KeyType type;
+	private int[] intArray;
+	private long[] longArray;
+	private float[] floatArray;
+	private int sortStart, sortEnd;
+
+	private IPrimitiveSorterMethod sorter;
+
+	public ParallelPrimitiveSorter(int numChunks, IPrimitiveSorterMethod sorter) {
+		if (numChunks < 2) {
+			throw new IllegalArgumentException("Minimum number of chunks is 2");
+		}
+		this.sorter = sorter;
+		this.numChunks = numChunks;
+		this.numOverlaps = numChunks - 1;
+
+		chunks = new Chunk[numChunks];
+		for (int i = 0; i < numChunks; i++) {
+			chunks[i] = new Chunk();
+		}
+
+		overlaps = new Overlap[numOverlaps];
+		for (int i = 0; i < numOverlaps; i++) {
+			overlaps[i] = new Overlap();
+		}
+
+		buildTaskTree();
+	}
+
+	private void buildTaskTree() {
+		TaskTreeBuilder builder = new TaskTreeBuilder();
+
+		SplitTask sortChunksTask = new SortChunksTask(numChunks);
+		SplitTask sortOverlapsTask = new SortOverlapsTask(numOverlaps);
+
+		sortOverlapsTask.addRequiredTask(sortChunksTask);
+
+		builder.addTask(sortChunksTask);
+		builder.addTask(sortOverlapsTask);
+		taskTree = builder.build();
+	}
+
+	public void sort(int[] array, int start, int end, GameExecutor executor) {
+		this.type = KeyType.INT;
+		this.intArray = array;
+		run(start, end, executor);
+		this.intArray = null;
+	}
+
+	public void sort(long[] array, int start, int end, GameExecutor executor) {
+		this.type = KeyType.LONG;
+		this.longArray = array;
+		run(start, end, executor);
+		this.longArray = null;
+	}
+
+	public void sort(float[] array, int start, int end, GameExecutor executor) {
+		this.type = KeyType.FLOAT;
+		this.floatArray = array;
+		run(start, end, executor);
+		this.floatArray = null;
+	}
+
+	private void run(int start, int end, GameExecutor executor) {
+		this.sortStart = start;
+		this.sortEnd = end;
+
+		int length = end - start;
+		if (length < numChunks * 2) {
+			// Too small to split, sort it in the calling thread.
+			sortRange(start, end, 0);
+			return;
+		}
+
+		for (int i = 0; i < numChunks; i++) {
+			Chunk c = chunks[i];
+			c.start = start + (length / numChunks) * i;
+			c.end = start + (length / numChunks) * (i + 1);
+		}
+		chunks[numChunks - 1].end = end;
+
+		executor.run(taskTree);
+	}
+
+	/**
+	 * Returns the element at index as a signed long that orders like the
+	 * element itself.
+	 */
+	private long key(int index) {
+		switch (type) {
+		case INT:
+			return intArray[index];
+		case LONG:
+			return longArray[index];
+		default:
+			return PrimitiveKeys.floatToSortable(floatArray[index]);
+		}
+	}
+
+	private void sortRange(int start, int end, int skip) {
+		switch (type) {
+		case INT:
+			sorter.sort(intArray, start, end, skip);
+			break;
+		case LONG:
+			sorter.sort(longArray, start, end, skip);
+			break;
+		default:
+			sorter.sort(floatArray, start, end, skip);
+			break;
+		}
+	}
+
+	private void sortChunk(int chunkID) {
+		Chunk c = chunks[chunkID];
+		sortRange(c.start, c.end, 0);
+		c.first = key(c.start);
+		c.last = key(c.end - 1);
+	}
+
+	private void updateOverlaps() {
+		int overlapCount = 0;
+
+		for (int i = 0; i < numChunks;) {
+
+			long highest = chunks[i].last;
+			int overlapIndex = i;
+
+			for (int j = i + 1; j < numChunks; j++) {
+				if (highest > chunks[j].first) {
+					for (; overlapIndex < j; overlapIndex++) {
+						highest = Math.max(highest, chunks[overlapIndex].last);
+					}
+				}
+			}
+
+			if (overlapIndex == i) {
+				i++;
+				continue;
+			}
+
+			Overlap overlap = overlaps[overlapCount++];
+			overlap.enabled = true;
+			overlap.firstChunkID = i;
+			overlap.lastChunkID = overlapIndex;
+
+			i = overlapIndex;
+		}
+
+		for (int i = overlapCount; i < numOverlaps; i++) {
+			overlaps[i].enabled = false;
+		}
+	}
+
+	private void sortOverlap(int overlapID) {
+
+		Overlap overlap = overlaps[overlapID];
+		if (!overlap.enabled) {
+			return;
+		}
+
+		int firstChunkID = overlap.firstChunkID;
+		int lastChunkID = overlap.lastChunkID;
+		Chunk firstChunk = chunks[firstChunkID];
+		Chunk lastChunk = chunks[lastChunkID];
+
+		long highest = firstChunk.last;
+		long lowest = firstChunk.last;
+		for (int j = firstChunkID + 1; j <= lastChunkID; j++) {
+			Chunk c = chunks[j];
+			if (j < lastChunkID) {
+				highest = Math.max(highest, c.last);
+			}
+			lowest = Math.min(lowest, c.first);
+		}
+
+		int start = firstChunk.end - 1;
+		int end = lastChunk.start;
+		while (start > sortStart && key(start) > lowest) {
+			start--;
+		}
+		while (end < sortEnd && key(end) < highest) {
+			end++;
+		}
+
+		sortRange(start, end, firstChunk.end - 1 - start);
+	}
+
+	private static class Chunk {
+		private int start, end;
+		private long first, last;
+	}
+
+	private static class Overlap {
+		private boolean enabled;
+		private int firstChunkID, lastChunkID;
+	}
+
+	private class SortChunksTask extends SplitTask {
+
+		public SortChunksTask(int numChunks) {
+			super(0, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			sortChunk(subtask);
+		}
+
+		@Override
+		public void finish() {
+			updateOverlaps();
+		}
+	}
+
+	private class SortOverlapsTask extends SplitTask {
+
+		public SortOverlapsTask(int numOverlaps) {
+			super(1, 0, numOverlaps);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			sortOverlap(subtask);
+		}
+
+		@Override
+		public void finish() {
+		}
+	}
+}
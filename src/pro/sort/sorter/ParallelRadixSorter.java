@@ -0,0 +1,297 @@
+package pro.sort.sorter;
+
+import java.util.Arrays;
+
+import net.mokyu.threading.GameExecutor;
+import net.mokyu.threading.SplitTask;
+import net.mokyu.threading.TaskTree;
+import net.mokyu.threading.TaskTreeBuilder;
+import pro.sort.method.PrimitiveKeys;
+import pro.sort.method.RadixMethod;
+import pro.sort.method.ScratchPool;
+
+/**
+ * Parallel least significant digit radix sort for int, long and float
+ * arrays, with 8 bit digits.
+ *
+ * Every digit pass is a pair of tasks: all chunks count their digits in
+ * parallel, the counts are turned into per chunk write offsets (which keeps
+ * the sort stable), and all chunks scatter their keys into the other array
+ * in parallel. Passes where all keys share a digit are skipped. The keys move
+ * back and forth between the array and a buffer from the scratch pool.
+ */
+public class ParallelRadixSorter {
+
+	private static final int RADIX = 256;
+
+	private int numChunks;
+	private TaskTree intTree, longTree, upperTree;
+	private ScratchPool pool = new ScratchPool();
+
+	private boolean longKeys;
+	private int[] intArray, intBuffer;
+	private long[] longArray, longBuffer;
+	private int sortStart, length;
+
+	private boolean inBuffer;
+	private boolean passSkipped;
+	private int[][] counts;
+
+	public ParallelRadixSorter(int numChunks) {
+		if (numChunks < 1) {
+			throw new IllegalArgumentException("Minimum number of chunks is 1");
+		}
+		this.numChunks = numChunks;
+		this.counts = new int[numChunks][RADIX];
+		this.intTree = buildTaskTree(0, 4);
+		this.longTree = buildTaskTree(0, 8);
+		this.upperTree = buildTaskTree(4, 8);
+	}
+
+	private TaskTree buildTaskTree(int firstPass, int numPasses) {
+		TaskTreeBuilder builder = new TaskTreeBuilder();
+		SplitTask previous = null;
+		for (int pass = firstPass; pass < numPasses; pass++) {
+			SplitTask countTask = new CountTask(pass);
+			SplitTask scatterTask = new ScatterTask(pass);
+			if (previous != null) {
+				countTask.addRequiredTask(previous);
+			}
+			scatterTask.addRequiredTask(countTask);
+			builder.addTask(countTask);
+			builder.addTask(scatterTask);
+			previous = scatterTask;
+		}
+		SplitTask copyBackTask = new CopyBackTask(2 * numPasses);
+		copyBackTask.addRequiredTask(previous);
+		builder.addTask(copyBackTask);
+		return builder.build();
+	}
+
+	public void setScratchPool(ScratchPool pool) {
+		this.pool = pool;
+	}
+
+	public ScratchPool getScratchPool() {
+		return pool;
+	}
+
+	public void sort(int[] array, int start, int end, GameExecutor executor) {
+		int length = end - start;
+		if (length < numChunks * 1024) {
+			new RadixMethod(pool).sort(array, start, end);
+			return;
+		}
+		this.longKeys = false;
+		this.intArray = array;
+		this.intBuffer = pool.borrowInts(length);
+		this.sortStart = start;
+		this.length = length;
+		this.inBuffer = false;
+
+		executor.run(intTree);
+
+		pool.release(intBuffer);
+		this.intArray = null;
+		this.intBuffer = null;
+	}
+
+	public void sort(long[] array, int start, int end, GameExecutor executor) {
+		int length = end - start;
+		if (length < numChunks * 1024) {
+			new RadixMethod(pool).sort(array, start, end);
+			return;
+		}
+		sort(array, start, end, longTree, executor);
+	}
+
+	/**
+	 * Sorts by the signed upper 32 bits only; keys with equal upper halves
+	 * keep their order. Meant for keys packed with an index in the lower
+	 * half, which then need half the passes.
+	 */
+	public void sortByUpperHalf(long[] array, int start, int end, GameExecutor executor) {
+		sort(array, start, end, upperTree, executor);
+	}
+
+	private void sort(long[] array, int start, int end, TaskTree tree, GameExecutor executor) {
+		int length = end - start;
+		this.longKeys = true;
+		this.longArray = array;
+		this.longBuffer = pool.borrowLongs(length);
+		this.sortStart = start;
+		this.length = length;
+		this.inBuffer = false;
+
+		executor.run(tree);
+
+		pool.release(longBuffer);
+		this.longArray = null;
+		this.longBuffer = null;
+	}
+
+	/**
+	 * Sorts floats like Arrays.sort(float[]): -0.0 before 0.0 and NaN last.
+	 */
+	public void sort(float[] array, int start, int end, GameExecutor executor) {
+		int length = end - start;
+		int[] keys = pool.borrowInts(length);
+		for (int i = 0; i < length; i++) {
+			keys[i] = PrimitiveKeys.floatToSortable(array[start + i]);
+		}
+		sort(keys, 0, length, executor);
+		for (int i = 0; i < length; i++) {
+			array[start + i] = PrimitiveKeys.sortableToFloat(keys[i]);
+		}
+		pool.release(keys);
+	}
+
+	private int chunkStart(int chunkID) {
+		return (int) ((long) length * chunkID / numChunks);
+	}
+
+	private static int digit(long key, int pass, boolean last) {
+		return ((int) (key >>> (pass * 8)) & 0xFF) ^ (last ? 0x80 : 0);
+	}
+
+	private void count(int pass, int chunkID) {
+		int[] count = counts[chunkID];
+		Arrays.fill(count, 0);
+		int from = chunkStart(chunkID), to = chunkStart(chunkID + 1);
+		if (longKeys) {
+			long[] src = inBuffer ? longBuffer : longArray;
+			int offset = inBuffer ? 0 : sortStart;
+			boolean last = pass == 7;
+			for (int i = from; i < to; i++) {
+				count[digit(src[offset + i], pass, last)]++;
+			}
+		} else {
+			int[] src = inBuffer ? intBuffer : intArray;
+			int offset = inBuffer ? 0 : sortStart;
+			boolean last = pass == 3;
+			for (int i = from; i < to; i++) {
+				count[digit(src[offset + i], pass, last)]++;
+			}
+		}
+	}
+
+	/**
+	 * Turns the counts into write offsets: digit major, chunk minor.
+	 */
+	private void computeOffsets() {
+		int position = 0;
+		passSkipped = false;
+		for (int d = 0; d < RADIX; d++) {
+			int total = 0;
+			for (int c = 0; c < numChunks; c++) {
+				int count = counts[c][d];
+				counts[c][d] = position + total;
+				total += count;
+			}
+			if (total == length) {
+				passSkipped = true;
+				return;
+			}
+			position += total;
+		}
+	}
+
+	private void scatter(int pass, int chunkID) {
+		if (passSkipped) {
+			return;
+		}
+		int[] next = counts[chunkID];
+		int from = chunkStart(chunkID), to = chunkStart(chunkID + 1);
+		if (longKeys) {
+			long[] src = inBuffer ? longBuffer : longArray;
+			long[] dst = inBuffer ? longArray : longBuffer;
+			int srcOffset = inBuffer ? 0 : sortStart;
+			int dstOffset = inBuffer ? sortStart : 0;
+			boolean last = pass == 7;
+			for (int i = from; i < to; i++) {
+				long key = src[srcOffset + i];
+				dst[dstOffset + next[digit(key, pass, last)]++] = key;
+			}
+		} else {
+			int[] src = inBuffer ? intBuffer : intArray;
+			int[] dst = inBuffer ? intArray : intBuffer;
+			int srcOffset = inBuffer ? 0 : sortStart;
+			int dstOffset = inBuffer ? sortStart : 0;
+			boolean last = pass == 3;
+			for (int i = from; i < to; i++) {
+				int key = src[srcOffset + i];
+				dst[dstOffset + next[digit(key, pass, last)]++] = key;
+			}
+		}
+	}
+
+	private void copyBack(int chunkID) {
+		if (!inBuffer) {
+			return;
+		}
+		int from = chunkStart(chunkID), to = chunkStart(chunkID + 1);
+		if (longKeys) {
+			System.arraycopy(longBuffer, from, longArray, sortStart + from, to - from);
+		} else {
+			System.arraycopy(intBuffer, from, intArray, sortStart + from, to - from);
+		}
+	}
+
+	private class CountTask extends SplitTask {
+
+		private int pass;
+
+		public CountTask(int pass) {
+			super(2 * pass, 0, numChunks);
+			this.pass = pass;
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			count(pass, subtask);
+		}
+
+		@Override
+		public void finish() {
+			computeOffsets();
+		}
+	}
+
+	private class ScatterTask extends SplitTask {
+
+		private int pass;
+
+		public ScatterTask(int pass) {
+			super(2 * pass + 1, 0, numChunks);
+			this.pass = pass;
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			scatter(pass, subtask);
+		}
+
+		@Override
+		public void finish() {
+			if (!passSkipped) {
+				inBuffer = !inBuffer;
+			}
+		}
+	}
+
+	private class CopyBackTask extends SplitTask {
+
+		public CopyBackTask(int id) {
+			super(id, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			copyBack(subtask);
+		}
+
+		@Override
+		public void finish() {
+		}
+	}
+}
@@ -0,0 +1,550 @@
+package pro.sort.sorter;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import net.mokyu.threading.GameExecutor;
+import net.mokyu.threading.SplitTask;
+import net.mokyu.threading.TaskTree;
+import net.mokyu.threading.TaskTreeBuilder;
+import pro.sort.method.PrimitiveKeys;
+import pro.sort.method.SortKernel;
+
+/**
+ * Places several order statistics at once (a multi nth_element), e.g. for
+ * computing percentiles without sorting.
+ *
+ * select(array, start, end, ranks) rearranges [start, end) so that for every
+ * rank r, array[start + r] is the element that a full sort would put there,
+ * every element before it is less than or equal to it and every element after
+ * it is greater than or equal to it.
+ *
+ * A sorted random sample gives two splitters around each requested rank. All
+ * chunks then count, in parallel, how many elements fall between each pair of
+ * splitters and scatter the elements into those buckets. Only the buckets
+ * containing a requested rank, which are small, are processed further with a
+ * sequential multi-quickselect. Bad splitters only cost time, never
+ * correctness.
+ */
+public class ParallelSelector<T> {
+
+	private static final int INSERTION_LIMIT = 16;
+	private static final int MIN_SAMPLE_SIZE = 1024;
+	private static final int SAMPLE_PER_RANK = 256;
+
+	private enum Mode {
+		OBJECT, LONG, DOUBLE
+	}
+
+	private int numChunks;
+	private TaskTree taskTree;
+
+	private Mode mode;
+	private int selectStart, selectEnd;
+	private int[] ranks; // sorted, unique, relative to selectStart
+
+	private T[] array;
+	private Comparator<T> comparator;
+	private Object[] splitters;
+	private Object[] buffer;
+
+	private long[] longArray;
+	private double[] doubleArray;
+	private long[] longSplitters;
+	private long[] longBuffer;
+
+	private int numSplitters;
+	private int[][] offsets; // [chunk][bucket]
+	private int[] bucketStart; // [bucket], numBuckets + 1 entries
+	private int[] targetBuckets;
+	private int numTargets;
+
+	public ParallelSelector(int numChunks) {
+		if (numChunks < 1) {
+			throw new IllegalArgumentException("Minimum number of chunks is 1");
+		}
+		this.numChunks = numChunks;
+		this.offsets = new int[numChunks][];
+
+		TaskTreeBuilder builder = new TaskTreeBuilder();
+		SplitTask countTask = new CountTask();
+		SplitTask scatterTask = new ScatterTask();
+		SplitTask selectTask = new SelectTask();
+		SplitTask copyBackTask = new CopyBackTask();
+		scatterTask.addRequiredTask(countTask);
+		selectTask.addRequiredTask(scatterTask);
+		copyBackTask.addRequiredTask(selectTask);
+		builder.addTask(countTask);
+		builder.addTask(scatterTask);
+		builder.addTask(selectTask);
+		builder.addTask(copyBackTask);
+		taskTree = builder.build();
+	}
+
+	public void select(T[] array, int start, int end, int[] ranks, Comparator<T> comparator,
+			GameExecutor executor) {
+		if (!prepare(start, end, ranks)) {
+			return;
+		}
+		this.mode = Mode.OBJECT;
+		this.array = array;
+		this.comparator = comparator;
+
+		if (end - start < MIN_SAMPLE_SIZE) {
+			multiSelect(array, start, end, start, 0, this.ranks.length, comparator, depthLimit(end - start));
+		} else {
+			chooseSplitters();
+			this.buffer = new Object[end - start];
+			executor.run(taskTree);
+		}
+
+		this.array = null;
+		this.comparator = null;
+		this.splitters = null;
+		this.buffer = null;
+	}
+
+	public void select(long[] array, int start, int end, int[] ranks, GameExecutor executor) {
+		if (!prepare(start, end, ranks)) {
+			return;
+		}
+		this.mode = Mode.LONG;
+		this.longArray = array;
+
+		if (end - start < MIN_SAMPLE_SIZE) {
+			multiSelect(array, start, end, start, 0, this.ranks.length, depthLimit(end - start));
+		} else {
+			chooseSplitters();
+			this.longBuffer = new long[end - start];
+			executor.run(taskTree);
+		}
+
+		this.longArray = null;
+		this.longSplitters = null;
+		this.longBuffer = null;
+	}
+
+	/**
+	 * Double version of select(). Orders like Arrays.sort(double[]): -0.0
+	 * before 0.0 and NaN last.
+	 */
+	public void select(double[] array, int start, int end, int[] ranks, GameExecutor executor) {
+		if (!prepare(start, end, ranks)) {
+			return;
+		}
+		this.mode = Mode.DOUBLE;
+		this.doubleArray = array;
+
+		if (end - start < MIN_SAMPLE_SIZE) {
+			// Too small to split, select on the keys in the calling thread.
+			long[] keys = new long[end - start];
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = PrimitiveKeys.doubleToSortable(array[start + i]);
+			}
+			multiSelect(keys, 0, keys.length, 0, 0, this.ranks.length, depthLimit(keys.length));
+			for (int i = 0; i < keys.length; i++) {
+				array[start + i] = PrimitiveKeys.sortableToDouble(keys[i]);
+			}
+		} else {
+			chooseSplitters();
+			this.longBuffer = new long[end - start];
+			executor.run(taskTree);
+		}
+
+		this.doubleArray = null;
+		this.longSplitters = null;
+		this.longBuffer = null;
+	}
+
+	/**
+	 * Computes the given quantiles (0 <= q <= 1) of [start, end) with the
+	 * nearest rank method: quantile q is the element at sorted position
+	 * ceil(q * n) - 1, clamped to [0, n - 1]. The range is rearranged as by
+	 * select().
+	 */
+	public double[] quantiles(double[] array, int start, int end, double[] quantiles, GameExecutor executor) {
+		int length = end - start;
+		if (length == 0) {
+			throw new IllegalArgumentException("Can not compute quantiles of an empty range");
+		}
+		int[] positions = new int[quantiles.length];
+		for (int i = 0; i < quantiles.length; i++) {
+			double q = quantiles[i];
+			if (!(q >= 0 && q <= 1)) {
+				throw new IllegalArgumentException("Quantile out of range [0, 1]: " + q);
+			}
+			positions[i] = (int) Math.max(0, Math.min(length - 1, (long) Math.ceil(q * length) - 1));
+		}
+		select(array, start, end, positions, executor);
+
+		double[] result = new double[quantiles.length];
+		for (int i = 0; i < quantiles.length; i++) {
+			result[i] = array[start + positions[i]];
+		}
+		return result;
+	}
+
+	/**
+	 * Stores the range and a sorted, duplicate free copy of the ranks.
+	 * Returns false if there is nothing to do.
+	 */
+	private boolean prepare(int start, int end, int[] ranks) {
+		int length = end - start;
+		int[] sorted = ranks.clone();
+		Arrays.sort(sorted);
+		int unique = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (sorted[i] < 0 || sorted[i] >= length) {
+				throw new IllegalArgumentException("Rank " + sorted[i] + " outside range of length " + length);
+			}
+			if (unique == 0 || sorted[unique - 1] != sorted[i]) {
+				sorted[unique++] = sorted[i];
+			}
+		}
+		this.ranks = Arrays.copyOf(sorted, unique);
+		this.selectStart = start;
+		this.selectEnd = end;
+		return unique > 0 && length > 1;
+	}
+
+	private static int depthLimit(int length) {
+		return 2 * (32 - Integer.numberOfLeadingZeros(length + 1));
+	}
+
+	private long key(int index) {
+		return mode == Mode.DOUBLE ? PrimitiveKeys.doubleToSortable(doubleArray[index]) : longArray[index];
+	}
+
+	/**
+	 * Takes evenly spread elements from the range as a sample, sorts it and
+	 * picks a splitter a margin below and above every requested rank.
+	 */
+	@SuppressWarnings("unchecked")
+	private void chooseSplitters() {
+		int length = selectEnd - selectStart;
+		int sampleSize = Math.min(length, Math.max(MIN_SAMPLE_SIZE, SAMPLE_PER_RANK * ranks.length));
+		int margin = Math.max(4, (int) Math.sqrt(sampleSize));
+
+		int[] positions = new int[2 * ranks.length];
+		int numPositions = 0;
+		for (int r : ranks) {
+			int center = (int) ((long) r * sampleSize / length);
+			if (center - margin >= 0) {
+				positions[numPositions++] = center - margin;
+			}
+			if (center + margin < sampleSize) {
+				positions[numPositions++] = center + margin;
+			}
+		}
+
+		if (mode == Mode.OBJECT) {
+			T[] sample = Splitters.sample(array, selectStart, selectEnd, sampleSize, comparator);
+			splitters = new Object[numPositions];
+			numSplitters = 0;
+			for (int i = 0; i < numPositions; i++) {
+				T s = sample[positions[i]];
+				if (numSplitters == 0 || comparator.compare((T) splitters[numSplitters - 1], s) < 0) {
+					splitters[numSplitters++] = s;
+				}
+			}
+		} else {
+			long[] sample = Splitters.sample(this::key, selectStart, selectEnd, sampleSize);
+			longSplitters = new long[numPositions];
+			numSplitters = 0;
+			for (int i = 0; i < numPositions; i++) {
+				long s = sample[positions[i]];
+				if (numSplitters == 0 || longSplitters[numSplitters - 1] < s) {
+					longSplitters[numSplitters++] = s;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Bucket of an element: the number of splitters strictly less than it.
+	 */
+	@SuppressWarnings("unchecked")
+	private int bucket(T element) {
+		return Splitters.lowerBound((T[]) splitters, 0, numSplitters, element, comparator);
+	}
+
+	private int bucket(long key) {
+		return Splitters.lowerBound(longSplitters, 0, numSplitters, key);
+	}
+
+	private int chunkStart(int chunkID) {
+		return selectStart + (int) ((long) (selectEnd - selectStart) * chunkID / numChunks);
+	}
+
+	private void countChunk(int chunkID) {
+		int[] counts = new int[numSplitters + 1];
+		int from = chunkStart(chunkID), to = chunkStart(chunkID + 1);
+		if (mode == Mode.OBJECT) {
+			for (int i = from; i < to; i++) {
+				counts[bucket(array[i])]++;
+			}
+		} else {
+			for (int i = from; i < to; i++) {
+				counts[bucket(key(i))]++;
+			}
+		}
+		offsets[chunkID] = counts;
+	}
+
+	/**
+	 * Turns the per chunk counts into write positions and finds the buckets
+	 * that contain requested ranks.
+	 */
+	private void computeOffsets() {
+		int numBuckets = numSplitters + 1;
+		bucketStart = new int[numBuckets + 1];
+		int position = 0;
+		for (int b = 0; b < numBuckets; b++) {
+			bucketStart[b] = position;
+			for (int c = 0; c < numChunks; c++) {
+				int count = offsets[c][b];
+				offsets[c][b] = position;
+				position += count;
+			}
+		}
+		bucketStart[numBuckets] = position;
+
+		targetBuckets = new int[ranks.length];
+		numTargets = 0;
+		int b = 0;
+		for (int r : ranks) {
+			while (bucketStart[b + 1] <= r) {
+				b++;
+			}
+			if (numTargets == 0 || targetBuckets[numTargets - 1] != b) {
+				targetBuckets[numTargets++] = b;
+			}
+		}
+	}
+
+	private void scatterChunk(int chunkID) {
+		int[] next = offsets[chunkID];
+		int from = chunkStart(chunkID), to = chunkStart(chunkID + 1);
+		if (mode == Mode.OBJECT) {
+			for (int i = from; i < to; i++) {
+				T element = array[i];
+				buffer[next[bucket(element)]++] = element;
+			}
+		} else {
+			for (int i = from; i < to; i++) {
+				long k = key(i);
+				longBuffer[next[bucket(k)]++] = k;
+			}
+		}
+	}
+
+	/**
+	 * Runs multi-quickselect on every numChunks:th target bucket, starting at
+	 * the subtask's index.
+	 */
+	@SuppressWarnings("unchecked")
+	private void selectBuckets(int subtask) {
+		for (int t = subtask; t < numTargets; t += numChunks) {
+			int b = targetBuckets[t];
+			int lo = bucketStart[b], hi = bucketStart[b + 1];
+			int firstRank = lowerBound(ranks, lo), lastRank = lowerBound(ranks, hi);
+			if (mode == Mode.OBJECT) {
+				multiSelect((T[]) buffer, lo, hi, 0, firstRank, lastRank, comparator, depthLimit(hi - lo));
+			} else {
+				multiSelect(longBuffer, lo, hi, 0, firstRank, lastRank, depthLimit(hi - lo));
+			}
+		}
+	}
+
+	private void copyBack(int chunkID) {
+		int from = chunkStart(chunkID), to = chunkStart(chunkID + 1);
+		switch (mode) {
+		case OBJECT:
+			System.arraycopy(buffer, from - selectStart, array, from, to - from);
+			break;
+		case LONG:
+			System.arraycopy(longBuffer, from - selectStart, longArray, from, to - from);
+			break;
+		default:
+			for (int i = from; i < to; i++) {
+				doubleArray[i] = PrimitiveKeys.sortableToDouble(longBuffer[i - selectStart]);
+			}
+			break;
+		}
+	}
+
+	private static int lowerBound(int[] values, int key) {
+		int lo = 0, hi = values.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (values[mid] < key) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Sequential multi-quickselect of [lo, hi) for ranks[firstRank,
+	 * lastRank), which all lie inside the range. Rank r is at index base + r.
+	 */
+	private <E> void multiSelect(E[] a, int lo, int hi, int base, int firstRank, int lastRank,
+			Comparator<E> comparator, int depthLimit) {
+		while (firstRank < lastRank) {
+			if (hi - lo <= INSERTION_LIMIT || depthLimit-- == 0) {
+				new SortKernel().sort(a, lo, hi, comparator);
+				return;
+			}
+
+			int mid = (lo + hi) >>> 1;
+			E pivot = median(a[lo], a[mid], a[hi - 1], comparator);
+			int lt = lo, gt = hi - 1, i = lo;
+			while (i <= gt) {
+				int c = comparator.compare(a[i], pivot);
+				if (c < 0) {
+					swap(a, lt++, i++);
+				} else if (c > 0) {
+					swap(a, i, gt--);
+				} else {
+					i++;
+				}
+			}
+
+			// Ranks in [lt, gt] are done. Recurse left, loop right.
+			int leftEnd = firstRank;
+			while (leftEnd < lastRank && base + ranks[leftEnd] < lt) {
+				leftEnd++;
+			}
+			int rightStart = leftEnd;
+			while (rightStart < lastRank && base + ranks[rightStart] <= gt) {
+				rightStart++;
+			}
+			multiSelect(a, lo, lt, base, firstRank, leftEnd, comparator, depthLimit);
+			lo = gt + 1;
+			firstRank = rightStart;
+		}
+	}
+
+	private void multiSelect(long[] a, int lo, int hi, int base, int firstRank, int lastRank, int depthLimit) {
+		while (firstRank < lastRank) {
+			if (hi - lo <= INSERTION_LIMIT || depthLimit-- == 0) {
+				Arrays.sort(a, lo, hi);
+				return;
+			}
+
+			int mid = (lo + hi) >>> 1;
+			long x = a[lo], y = a[mid], z = a[hi - 1];
+			long pivot = Math.max(Math.min(x, y), Math.min(Math.max(x, y), z));
+			int lt = lo, gt = hi - 1, i = lo;
+			while (i <= gt) {
+				long v = a[i];
+				if (v < pivot) {
+					a[i++] = a[lt];
+					a[lt++] = v;
+				} else if (v > pivot) {
+					a[i] = a[gt];
+					a[gt--] = v;
+				} else {
+					i++;
+				}
+			}
+
+			int leftEnd = firstRank;
+			while (leftEnd < lastRank && base + ranks[leftEnd] < lt) {
+				leftEnd++;
+			}
+			int rightStart = leftEnd;
+			while (rightStart < lastRank && base + ranks[rightStart] <= gt) {
+				rightStart++;
+			}
+			multiSelect(a, lo, lt, base, firstRank, leftEnd, depthLimit);
+			lo = gt + 1;
+			firstRank = rightStart;
+		}
+	}
+
+	private static <E> E median(E a, E b, E c, Comparator<E> comparator) {
+		if (comparator.compare(a, b) > 0) {
+			E temp = a;
+			a = b;
+			b = temp;
+		}
+		if (comparator.compare(b, c) <= 0) {
+			return b;
+		}
+		return comparator.compare(a, c) > 0 ? a : c;
+	}
+
+	private static void swap(Object[] array, int i, int j) {
+		Object temp = array[i];
+		array[i] = array[j];
+		array[j] = temp;
+	}
+
+	private class CountTask extends SplitTask {
+
+		public CountTask() {
+			super(0, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			countChunk(subtask);
+		}
+
+		@Override
+		public void finish() {
+			computeOffsets();
+		}
+	}
+
+	private class ScatterTask extends SplitTask {
+
+		public ScatterTask() {
+			super(1, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			scatterChunk(subtask);
+		}
+
+		@Override
+		public void finish() {
+		}
+	}
+
+	private class SelectTask extends SplitTask {
+
+		public SelectTask() {
+			super(2, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			selectBuckets(subtask);
+		}
+
+		@Override
+		public void finish() {
+		}
+	}
+
+	private class CopyBackTask extends SplitTask {
+
+		public CopyBackTask() {
+			super(3, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			copyBack(subtask);
+		}
+
+		@Override
+		public void finish() {
+		}
+	}
+}
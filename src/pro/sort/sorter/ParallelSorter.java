@@ -1,12 +1,19 @@
 package pro.sort.sorter;
 
 import java.util.Comparator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.RandomAccess;
 
+import net.mokyu.threading.CancellationToken;
 import net.mokyu.threading.GameExecutor;
 import net.mokyu.threading.SplitTask;
 import net.mokyu.threading.TaskTree;
 import net.mokyu.threading.TaskTreeBuilder;
 import pro.sort.method.ISorterMethod;
+import pro.sort.method.ScratchPool;
+import pro.sort.method.SortContext;
+import pro.sort.tuning.TuningProfile;
 
 public class ParallelSorter<T> {
 
@@ -23,6 +30,17 @@ public class ParallelSorter<T> {
 	private Comparator<T> comparator;
 
 	private ISorterMethod sorter;
+	private ISorterMethod activeSorter; // sorter specialized for comparator
+
+	// Scratch buffers for the sort method, reused across calls.
+	private SortContext context = new SortContext(new ScratchPool());
+
+	// Temporal coherence mode: chunks that are still sorted since the last
+	// call are detected with a linear scan and not sorted again.
+	private boolean coherent;
+
+	// Ranges shorter than this are sorted by the calling thread.
+	private int sequentialCutoff;
 
 	@SuppressWarnings("unchecked")
 	public ParallelSorter(int numChunks, ISorterMethod sorter) {
@@ -48,6 +66,72 @@ public class ParallelSorter<T> {
 		buildTaskTree();
 	}
 
+	/**
+	 * Creates a sorter with the chunk count and sequential cutoff of a
+	 * calibrated TuningProfile.
+	 */
+	public ParallelSorter(TuningProfile profile, ISorterMethod sorter) {
+		this(profile.getNumChunks(), sorter);
+		this.sequentialCutoff = profile.getSequentialCutoff();
+	}
+
+	/**
+	 * Sets the length below which a range is sorted with the sort method on
+	 * the calling thread instead of in chunks. 0 by default.
+	 */
+	public void setSequentialCutoff(int sequentialCutoff) {
+		if (sequentialCutoff < 0) {
+			throw new IllegalArgumentException("Negative sequential cutoff: " + sequentialCutoff);
+		}
+		this.sequentialCutoff = sequentialCutoff;
+	}
+
+	public int getSequentialCutoff() {
+		return sequentialCutoff;
+	}
+
+	/**
+	 * Enables or disables temporal coherence mode. Meant for arrays that are
+	 * re-sorted over and over (e.g. every frame) while changing very little
+	 * between calls. In this mode every chunk is first checked with a linear
+	 * scan and only sorted if it is out of order. Overlaps are detected as
+	 * usual, so an array that is still sorted has none and costs a single
+	 * parallel pass.
+	 */
+	public void setCoherent(boolean coherent) {
+		this.coherent = coherent;
+	}
+
+	public boolean isCoherent() {
+		return coherent;
+	}
+
+	/**
+	 * Sets the pool the sort method borrows scratch buffers from. Sorters
+	 * can share one pool.
+	 */
+	public void setScratchPool(ScratchPool scratchPool) {
+		this.context = new SortContext(scratchPool);
+	}
+
+	public ScratchPool getScratchPool() {
+		return context.getScratchPool();
+	}
+
+	/**
+	 * Returns how many chunks were found to be already sorted, and therefore
+	 * skipped, by the last call to sort(). Always 0 outside coherence mode.
+	 */
+	public int getSkippedChunks() {
+		int skipped = 0;
+		for (int i = 0; i < numChunks; i++) {
+			if (chunks[i].skipped) {
+				skipped++;
+			}
+		}
+		return skipped;
+	}
+
 	private void buildTaskTree() {
 		TaskTreeBuilder builder = new TaskTreeBuilder();
 
@@ -66,12 +150,49 @@ public class ParallelSorter<T> {
 	}
 
 	public void sort(T[] array, int start, int end, Comparator<T> comparator, GameExecutor executor) {
+		sort(array, start, end, comparator, executor, null);
+	}
+
+	/**
+	 * Sorts [start, end) unless the token is cancelled first, e.g. because
+	 * the deadline of the request it belongs to has passed. Chunks and
+	 * overlaps that have not started by then are dropped, and the sort
+	 * method stops at its next check, so the workers are free again soon
+	 * after the cancellation.
+	 * 
+	 * Returns true if the range is sorted. If false is returned, the range
+	 * holds the same elements, but in no particular order.
+	 */
+	public boolean sort(T[] array, int start, int end, Comparator<T> comparator, GameExecutor executor,
+			CancellationToken token) {
+		SortContext baseContext = context;
+		if (token != null) {
+			context = new SortContext(baseContext.getScratchPool(), token);
+		}
+		try {
+			// Every chunk needs at least one element.
+			if (end - start < sequentialCutoff || end - start < numChunks) {
+				sorter.specialize(comparator).sort(array, start, end, comparator, 0, context);
+				for (int i = 0; i < numChunks; i++) {
+					chunks[i].skipped = false;
+				}
+				return !context.isCancelled();
+			}
+			return sortChunks(array, start, end, comparator, executor, token);
+		} finally {
+			context = baseContext;
+		}
+	}
+
+	private boolean sortChunks(T[] array, int start, int end, Comparator<T> comparator, GameExecutor executor,
+			CancellationToken token) {
 
 		// Store important variables
 		this.array = array;
 		this.sortStart = start;
 		this.sortEnd = end;
 		this.comparator = comparator;
+		this.activeSorter = sorter.specialize(comparator);
 
 		// Initialize chunk objects with the bounds of each chunk.
 		int length = end - start;
@@ -80,8 +201,8 @@ public class ParallelSorter<T> {
 			c.start = start + (length / numChunks) * i;
 			c.end = start + (length / numChunks) * (i + 1);
 		}
-		chunks[numChunks - 1].end = end; // Ensure we don't miss the last few
-											// elements due to rounding
+		chunks[numChunks - 1].end = end; // Ensure we don't miss the last
+											// few elements due to rounding
 
 		/*
 		 * Run the precomputed task tree for the sorting algorithm. This is the
@@ -91,7 +212,13 @@ public class ParallelSorter<T> {
 		 * for(int i = 0; i < numOverlaps; i++){ sortOverlaps(i); }
 		 * 
 		 */
-		executor.run(taskTree);
+		boolean complete;
+		if (token == null) {
+			executor.run(taskTree);
+			complete = true;
+		} else {
+			complete = executor.run(taskTree, token) && !context.isCancelled();
+		}
 
 		// DEBUGGING: Make sure the array is properly sorted
 		/*
@@ -100,15 +227,70 @@ public class ParallelSorter<T> {
 		 * "error at index " + i + ": " + array[i-1] + " vs " + array[i]);
 		 * break; } }
 		 */
+		return complete;
+	}
+
+	/**
+	 * Sorts a list. The elements are copied into an array borrowed from the
+	 * scratch pool, sorted there and written back with list.set(), so the
+	 * list must support set but not add or remove. Lists without random
+	 * access are read and written back with a single iterator each.
+	 */
+	@SuppressWarnings("unchecked")
+	public void sort(List<T> list, Comparator<T> comparator, GameExecutor executor) {
+		int size = list.size();
+		ScratchPool pool = context.getScratchPool();
+		Object[] buffer = pool.borrowObjects(size);
+		try {
+			if (list instanceof RandomAccess) {
+				for (int i = 0; i < size; i++) {
+					buffer[i] = list.get(i);
+				}
+			} else {
+				int i = 0;
+				for (T element : list) {
+					buffer[i++] = element;
+				}
+			}
+
+			sort((T[]) buffer, 0, size, comparator, executor);
+
+			if (list instanceof RandomAccess) {
+				for (int i = 0; i < size; i++) {
+					list.set(i, (T) buffer[i]);
+				}
+			} else {
+				ListIterator<T> iterator = list.listIterator();
+				for (int i = 0; i < size; i++) {
+					iterator.next();
+					iterator.set((T) buffer[i]);
+				}
+			}
+		} finally {
+			this.array = null;
+			pool.release(buffer);
+		}
 	}
 
 	private void sortChunk(int chunkID) {
 		Chunk<T> c = chunks[chunkID];
-		sorter.sort(array, c.start, c.end, comparator);
+		c.skipped = coherent && isSorted(c.start, c.end);
+		if (!c.skipped) {
+			activeSorter.sort(array, c.start, c.end, comparator, 0, context);
+		}
 		c.first = array[c.start];
 		c.last = array[c.end - 1];
 	}
 
+	private boolean isSorted(int start, int end) {
+		for (int i = start + 1; i < end; i++) {
+			if (comparator.compare(array[i - 1], array[i]) > 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	private void updateOverlaps() {
 		// int totalOverlappingElements = 0; //Debugging value
 
@@ -209,12 +391,13 @@ public class ParallelSorter<T> {
 		// allows us to simply skip sorting those elements but still allow
 		// the insertion sort to shuffle in elements into that part of the
 		// array.
-		sorter.sort(array, start, end, comparator, firstChunk.end - 1 - start);
+		activeSorter.sort(array, start, end, comparator, firstChunk.end - 1 - start, context);
 	}
 
 	private static class Chunk<T> {
 		private int start, end;
 		private T first, last;
+		private boolean skipped;
 	}
 
 	private static class Overlap {
@@ -0,0 +1,322 @@
+package pro.sort.sorter;
+
+import net.mokyu.threading.GameExecutor;
+import net.mokyu.threading.SplitTask;
+import net.mokyu.threading.TaskTree;
+import net.mokyu.threading.TaskTreeBuilder;
+
+/**
+ * Parallel sorter specialized for strings, ordering them like
+ * String.compareTo.
+ *
+ * Each chunk is sorted with multikey quicksort, which looks at every
+ * character of a common prefix only once instead of once per comparison, and
+ * records the longest common prefix (LCP) of every pair of neighbours. The
+ * sorted chunks are then merged pairwise, level by level, with an LCP merge:
+ * when two candidates share a different amount of prefix with the last output
+ * string, the order follows from the LCPs alone and no characters have to be
+ * compared. Every merge of a level runs as its own subtask.
+ */
+public class ParallelStringSorter {
+
+	private static final int INSERTION_LIMIT = 16;
+
+	private int numChunks;
+	private int numLevels;
+	private TaskTree taskTree;
+
+	private String[] array;
+	private int sortStart, sortEnd;
+
+	// lcp[i] is the LCP of the string at i and the one before it in the same
+	// run. The buffers alternate with the array as merge source/destination.
+	private int[] lcp;
+	private String[] stringBuffer;
+	private int[] lcpBuffer;
+
+	public ParallelStringSorter(int numChunks) {
+		if (numChunks < 2) {
+			throw new IllegalArgumentException("Minimum number of chunks is 2");
+		}
+		this.numChunks = numChunks;
+		this.numLevels = 32 - Integer.numberOfLeadingZeros(numChunks - 1);
+
+		TaskTreeBuilder builder = new TaskTreeBuilder();
+		SplitTask previous = new SortChunksTask();
+		builder.addTask(previous);
+		for (int level = 1; level <= numLevels; level++) {
+			SplitTask mergeTask = new MergeTask(level);
+			mergeTask.addRequiredTask(previous);
+			builder.addTask(mergeTask);
+			previous = mergeTask;
+		}
+		if ((numLevels & 1) == 1) {
+			// Odd number of merge levels leaves the result in the buffer.
+			SplitTask copyTask = new CopyBackTask(numLevels + 1);
+			copyTask.addRequiredTask(previous);
+			builder.addTask(copyTask);
+		}
+		taskTree = builder.build();
+	}
+
+	public void sort(String[] array, int start, int end, GameExecutor executor) {
+		int length = end - start;
+		if (length < numChunks * 2) {
+			multikeySort(array, start, end, 0);
+			return;
+		}
+
+		this.array = array;
+		this.sortStart = start;
+		this.sortEnd = end;
+		this.lcp = new int[length];
+		this.stringBuffer = new String[length];
+		this.lcpBuffer = new int[length];
+
+		executor.run(taskTree);
+
+		this.array = null;
+		this.lcp = null;
+		this.stringBuffer = null;
+		this.lcpBuffer = null;
+	}
+
+	/**
+	 * Start of a chunk, relative to sortStart.
+	 */
+	private int chunkStart(int chunkID) {
+		return (int) ((long) (sortEnd - sortStart) * Math.min(chunkID, numChunks) / numChunks);
+	}
+
+	private void sortChunk(int chunkID) {
+		int from = sortStart + chunkStart(chunkID);
+		int to = sortStart + chunkStart(chunkID + 1);
+		multikeySort(array, from, to, 0);
+
+		int[] lcp = this.lcp;
+		lcp[from - sortStart] = 0;
+		for (int i = from + 1; i < to; i++) {
+			lcp[i - sortStart] = commonPrefix(array[i - 1], array[i], 0);
+		}
+	}
+
+	/**
+	 * Merges the runs 2 * pair and 2 * pair + 1 of the previous level. Odd
+	 * levels read from the array and write to the buffers, even levels the
+	 * other way around.
+	 */
+	private void mergePair(int level, int pair) {
+		int runChunks = 1 << (level - 1);
+		int lo = chunkStart(2 * pair * runChunks);
+		int mid = chunkStart((2 * pair + 1) * runChunks);
+		int hi = chunkStart((2 * pair + 2) * runChunks);
+
+		String[] src, dst;
+		int[] srcLcp, dstLcp;
+		int srcOffset, dstOffset;
+		if ((level & 1) == 1) {
+			src = array;
+			srcOffset = sortStart;
+			srcLcp = lcp;
+			dst = stringBuffer;
+			dstOffset = 0;
+			dstLcp = lcpBuffer;
+		} else {
+			src = stringBuffer;
+			srcOffset = 0;
+			srcLcp = lcpBuffer;
+			dst = array;
+			dstOffset = sortStart;
+			dstLcp = lcp;
+		}
+
+		if (mid >= hi) {
+			// Lone run at the end of the level.
+			System.arraycopy(src, srcOffset + lo, dst, dstOffset + lo, hi - lo);
+			System.arraycopy(srcLcp, lo, dstLcp, lo, hi - lo);
+			return;
+		}
+
+		int i = lo, j = mid, d = lo;
+		int lcpA = 0, lcpB = 0; // LCP of A[i] resp. B[j] with the last output
+		while (i < mid && j < hi) {
+			if (lcpA > lcpB) {
+				dst[dstOffset + d] = src[srcOffset + i];
+				dstLcp[d++] = lcpA;
+				if (++i < mid) {
+					lcpA = srcLcp[i];
+				}
+			} else if (lcpA < lcpB) {
+				dst[dstOffset + d] = src[srcOffset + j];
+				dstLcp[d++] = lcpB;
+				if (++j < hi) {
+					lcpB = srcLcp[j];
+				}
+			} else {
+				String a = src[srcOffset + i], b = src[srcOffset + j];
+				int h = lcpA;
+				int l = commonPrefix(a, b, h);
+				if (charAt(a, l) <= charAt(b, l)) {
+					dst[dstOffset + d] = a;
+					dstLcp[d++] = h;
+					lcpB = l;
+					if (++i < mid) {
+						lcpA = srcLcp[i];
+					}
+				} else {
+					dst[dstOffset + d] = b;
+					dstLcp[d++] = h;
+					lcpA = l;
+					if (++j < hi) {
+						lcpB = srcLcp[j];
+					}
+				}
+			}
+		}
+		if (i < mid) {
+			System.arraycopy(src, srcOffset + i, dst, dstOffset + d, mid - i);
+			System.arraycopy(srcLcp, i, dstLcp, d, mid - i);
+			dstLcp[d] = lcpA;
+		} else {
+			System.arraycopy(src, srcOffset + j, dst, dstOffset + d, hi - j);
+			System.arraycopy(srcLcp, j, dstLcp, d, hi - j);
+			dstLcp[d] = lcpB;
+		}
+		dstLcp[lo] = 0;
+	}
+
+	private void copyBack(int chunkID) {
+		int from = chunkStart(chunkID), to = chunkStart(chunkID + 1);
+		System.arraycopy(stringBuffer, from, array, sortStart + from, to - from);
+	}
+
+	/**
+	 * Returns the character at index, or -1 past the end of the string so
+	 * that shorter strings sort before their extensions.
+	 */
+	private static int charAt(String s, int index) {
+		return index < s.length() ? s.charAt(index) : -1;
+	}
+
+	/**
+	 * Returns the length of the common prefix of a and b, given that they are
+	 * known to share the first 'from' characters.
+	 */
+	private static int commonPrefix(String a, String b, int from) {
+		int limit = Math.min(a.length(), b.length());
+		int i = from;
+		while (i < limit && a.charAt(i) == b.charAt(i)) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Multikey quicksort (Bentley & Sedgewick) of [lo, hi), where all strings
+	 * share the first depth characters.
+	 */
+	private static void multikeySort(String[] array, int lo, int hi, int depth) {
+		while (hi - lo > INSERTION_LIMIT) {
+			int mid = (lo + hi) >>> 1;
+			int a = charAt(array[lo], depth), b = charAt(array[mid], depth), c = charAt(array[hi - 1], depth);
+			int pivot = Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+
+			int lt = lo, gt = hi - 1, i = lo;
+			while (i <= gt) {
+				int ch = charAt(array[i], depth);
+				if (ch < pivot) {
+					swap(array, lt++, i++);
+				} else if (ch > pivot) {
+					swap(array, i, gt--);
+				} else {
+					i++;
+				}
+			}
+
+			multikeySort(array, lo, lt, depth);
+			multikeySort(array, gt + 1, hi, depth);
+			if (pivot < 0) {
+				// The middle part consists of identical strings.
+				return;
+			}
+			lo = lt;
+			hi = gt + 1;
+			depth++;
+		}
+		insertionSort(array, lo, hi, depth);
+	}
+
+	private static void insertionSort(String[] array, int lo, int hi, int depth) {
+		for (int i = lo + 1; i < hi; i++) {
+			String current = array[i];
+			int j = i - 1;
+			while (j >= lo && less(current, array[j], depth)) {
+				array[j + 1] = array[j];
+				j--;
+			}
+			array[j + 1] = current;
+		}
+	}
+
+	private static boolean less(String a, String b, int depth) {
+		int l = commonPrefix(a, b, depth);
+		return charAt(a, l) < charAt(b, l);
+	}
+
+	private static void swap(String[] array, int i, int j) {
+		String temp = array[i];
+		array[i] = array[j];
+		array[j] = temp;
+	}
+
+	private class SortChunksTask extends SplitTask {
+
+		public SortChunksTask() {
+			super(0, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			sortChunk(subtask);
+		}
+
+		@Override
+		public void finish() {
+		}
+	}
+
+	private class MergeTask extends SplitTask {
+
+		private int level;
+
+		public MergeTask(int level) {
+			super(level, 0, (numChunks + (1 << level) - 1) >> level);
+			this.level = level;
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			mergePair(level, subtask);
+		}
+
+		@Override
+		public void finish() {
+		}
+	}
+
+	private class CopyBackTask extends SplitTask {
+
+		public CopyBackTask(int id) {
+			super(id, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			copyBack(subtask);
+		}
+
+		@Override
+		public void finish() {
+		}
+	}
+}
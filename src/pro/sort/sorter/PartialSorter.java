@@ -0,0 +1,262 @@
+package pro.sort.sorter;
+
+import java.lang.reflect.Array;
+import java.util.Comparator;
+
+import net.mokyu.threading.GameExecutor;
+import net.mokyu.threading.SplitTask;
+import net.mokyu.threading.TaskTree;
+import net.mokyu.threading.TaskTreeBuilder;
+
+/**
+ * Top-K selection and partial sorting. Only the k smallest elements (by the
+ * comparator; pass comparator.reversed() for the largest) are put in order,
+ * the rest of the array is not sorted.
+ *
+ * Every chunk keeps a bounded max-heap of the indices of its k smallest
+ * elements, so most elements are rejected after one comparison with the top
+ * of the heap. The chunk candidates are then sorted and the first k kept.
+ * Equal elements keep their original order.
+ */
+public class PartialSorter<T> {
+
+	private int numChunks;
+	private TaskTree taskTree;
+
+	private T[] array;
+	private int sortStart, sortEnd;
+	private Comparator<T> comparator;
+	private int k;
+
+	private int[][] heaps;
+	private int[] heapSizes;
+	private int[] selected;
+
+	public PartialSorter(int numChunks) {
+		if (numChunks < 1) {
+			throw new IllegalArgumentException("Minimum number of chunks is 1");
+		}
+		this.numChunks = numChunks;
+		this.heaps = new int[numChunks][];
+		this.heapSizes = new int[numChunks];
+
+		TaskTreeBuilder builder = new TaskTreeBuilder();
+		builder.addTask(new SelectTask());
+		taskTree = builder.build();
+	}
+
+	/**
+	 * Returns the k smallest elements of [start, end) in sorted order, or all
+	 * of them if there are less than k. The array is not modified.
+	 */
+	@SuppressWarnings("unchecked")
+	public T[] topK(T[] array, int start, int end, int k, Comparator<T> comparator, GameExecutor executor) {
+		int[] indices = select(array, start, end, k, comparator, executor);
+		T[] result = (T[]) Array.newInstance(array.getClass().getComponentType(), indices.length);
+		for (int i = 0; i < indices.length; i++) {
+			result[i] = array[indices[i]];
+		}
+		return result;
+	}
+
+	/**
+	 * Rearranges [start, end) so that [start, start + k) holds its k smallest
+	 * elements in sorted order. The order of the remaining elements is
+	 * unspecified.
+	 */
+	@SuppressWarnings("unchecked")
+	public void partialSort(T[] array, int start, int k, int end, Comparator<T> comparator,
+			GameExecutor executor) {
+		int[] indices = select(array, start, end, k, comparator, executor);
+		k = indices.length;
+		int middle = start + k;
+
+		T[] chosen = (T[]) new Object[k];
+		boolean[] inFront = new boolean[k];
+		int[] freed = new int[k];
+		int numFreed = 0;
+		for (int i = 0; i < k; i++) {
+			int index = indices[i];
+			chosen[i] = array[index];
+			if (index < middle) {
+				inFront[index - start] = true;
+			} else {
+				freed[numFreed++] = index;
+			}
+		}
+
+		// Front slots that were not selected move to the slots the selected
+		// elements came from.
+		for (int i = 0, f = 0; i < k; i++) {
+			if (!inFront[i]) {
+				array[freed[f++]] = array[start + i];
+			}
+		}
+		System.arraycopy(chosen, 0, array, start, k);
+	}
+
+	/**
+	 * Returns the indices of the k smallest elements in sorted order.
+	 */
+	private int[] select(T[] array, int start, int end, int k, Comparator<T> comparator, GameExecutor executor) {
+		if (k < 0) {
+			throw new IllegalArgumentException("k can not be negative: " + k);
+		}
+		k = Math.min(k, end - start);
+		if (k == 0) {
+			return new int[0];
+		}
+
+		this.array = array;
+		this.sortStart = start;
+		this.sortEnd = end;
+		this.comparator = comparator;
+		this.k = k;
+
+		int[] result;
+		if (k * 4L >= end - start) {
+			// Close to a full sort anyway.
+			result = new int[end - start];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = start + i;
+			}
+			sortIndices(result, 0, result.length, new int[result.length]);
+			if (result.length > k) {
+				int[] first = new int[k];
+				System.arraycopy(result, 0, first, 0, k);
+				result = first;
+			}
+		} else {
+			executor.run(taskTree);
+			result = selected;
+		}
+
+		this.array = null;
+		this.comparator = null;
+		this.selected = null;
+		for (int i = 0; i < numChunks; i++) {
+			heaps[i] = null;
+		}
+		return result;
+	}
+
+	private int chunkStart(int chunkID) {
+		return sortStart + (int) ((long) (sortEnd - sortStart) * chunkID / numChunks);
+	}
+
+	/**
+	 * Total order used for selection: by value, then by index.
+	 */
+	private boolean less(int i, int j) {
+		int c = comparator.compare(array[i], array[j]);
+		return c < 0 || (c == 0 && i < j);
+	}
+
+	private void selectChunk(int chunkID) {
+		int[] heap = new int[k];
+		int size = 0;
+		for (int i = chunkStart(chunkID), end = chunkStart(chunkID + 1); i < end; i++) {
+			if (size < k) {
+				// Sift up
+				int child = size++;
+				while (child > 0) {
+					int parent = (child - 1) >> 1;
+					if (!less(heap[parent], i)) {
+						break;
+					}
+					heap[child] = heap[parent];
+					child = parent;
+				}
+				heap[child] = i;
+			} else if (less(i, heap[0])) {
+				siftDown(heap, size, i);
+			}
+		}
+		heaps[chunkID] = heap;
+		heapSizes[chunkID] = size;
+	}
+
+	/**
+	 * Replaces the top of the max-heap with index and restores the heap.
+	 */
+	private void siftDown(int[] heap, int size, int index) {
+		int parent = 0;
+		while (true) {
+			int child = 2 * parent + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && less(heap[child], heap[child + 1])) {
+				child++;
+			}
+			if (!less(index, heap[child])) {
+				break;
+			}
+			heap[parent] = heap[child];
+			parent = child;
+		}
+		heap[parent] = index;
+	}
+
+	private void mergeCandidates() {
+		int total = 0;
+		for (int i = 0; i < numChunks; i++) {
+			total += heapSizes[i];
+		}
+		int[] candidates = new int[total];
+		for (int i = 0, n = 0; i < numChunks; i++) {
+			System.arraycopy(heaps[i], 0, candidates, n, heapSizes[i]);
+			n += heapSizes[i];
+		}
+		sortIndices(candidates, 0, total, new int[total]);
+		selected = new int[k];
+		System.arraycopy(candidates, 0, selected, 0, k);
+	}
+
+	/**
+	 * Merge sort of an index array by the selection order.
+	 */
+	private void sortIndices(int[] indices, int start, int end, int[] buffer) {
+		if (end - start < 16) {
+			for (int i = start + 1; i < end; i++) {
+				int current = indices[i];
+				int j = i - 1;
+				while (j >= start && less(current, indices[j])) {
+					indices[j + 1] = indices[j];
+					j--;
+				}
+				indices[j + 1] = current;
+			}
+			return;
+		}
+		int mid = (start + end) >>> 1;
+		sortIndices(indices, start, mid, buffer);
+		sortIndices(indices, mid, end, buffer);
+		if (!less(indices[mid], indices[mid - 1])) {
+			return;
+		}
+		System.arraycopy(indices, start, buffer, start, mid - start);
+		int i = start, j = mid, d = start;
+		while (i < mid && j < end) {
+			indices[d++] = less(indices[j], buffer[i]) ? indices[j++] : buffer[i++];
+		}
+		System.arraycopy(buffer, i, indices, d, mid - i);
+	}
+
+	private class SelectTask extends SplitTask {
+
+		public SelectTask() {
+			super(0, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			selectChunk(subtask);
+		}
+
+		@Override
+		public void finish() {
+			mergeCandidates();
+		}
+	}
+}
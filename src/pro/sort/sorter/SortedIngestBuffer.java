@@ -0,0 +1,291 @@
+package pro.sort.sorter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import net.mokyu.threading.GameExecutor;
+import net.mokyu.threading.SplitTask;
+import net.mokyu.threading.TaskTree;
+import net.mokyu.threading.TaskTreeBuilder;
+import pro.sort.method.ISorterMethod;
+
+/**
+ * Collects elements from many producer threads and serves them back in sorted
+ * order at any time (a small log-structured merge design).
+ *
+ * Every producer thread appends to its own buffer. flush() sorts all filled
+ * buffers in parallel, one subtask each, and adds them as immutable sorted
+ * runs. Runs are merged size-tiered: a run of up to bufferCapacity elements
+ * is in tier 0, and every further tier holds runs up to TIER_WIDTH times
+ * longer. Whenever a tier has TIER_WIDTH runs, flush() merges them with a
+ * ParallelMerger into one run of the next tier, so every element is
+ * rewritten once per tier, a logarithmic number of times, and there are at
+ * most TIER_WIDTH - 1 runs per tier. compact() merges all runs into one. A
+ * Snapshot holds on to the runs that existed when it was taken and merges
+ * them on the fly for range scans, so readers never block producers or each
+ * other.
+ *
+ * add() may be called from any thread. flush() and compact() use the executor
+ * and are serialized with each other; call them from one maintenance thread
+ * to keep that work off the producers. Snapshots only see flushed elements.
+ */
+public class SortedIngestBuffer<T> {
+
+	private static final int TIER_WIDTH = 4;
+
+	private final Comparator<T> comparator;
+	private final ISorterMethod sorter;
+	private final int bufferCapacity;
+	private final ParallelMerger<T> merger;
+
+	private final ThreadLocal<AppendBuffer> localBuffer;
+	private final List<AppendBuffer> appendBuffers = new CopyOnWriteArrayList<>();
+	private final ConcurrentLinkedQueue<Object[]> filledBuffers = new ConcurrentLinkedQueue<>();
+
+	// Sorted runs, oldest first. Replaced, never modified.
+	private volatile Object[][] runs = new Object[0][];
+
+	private final FlushTask flushTask;
+	private final TaskTree flushTree;
+	private Object[][] flushing;
+
+	public SortedIngestBuffer(Comparator<T> comparator, ISorterMethod sorter, int bufferCapacity, int numChunks) {
+		if (bufferCapacity < 1) {
+			throw new IllegalArgumentException("Minimum buffer capacity is 1");
+		}
+		this.comparator = comparator;
+		this.sorter = sorter.specialize(comparator);
+		this.bufferCapacity = bufferCapacity;
+		this.merger = new ParallelMerger<>(numChunks);
+		this.localBuffer = ThreadLocal.withInitial(() -> {
+			AppendBuffer buffer = new AppendBuffer();
+			appendBuffers.add(buffer);
+			return buffer;
+		});
+
+		TaskTreeBuilder builder = new TaskTreeBuilder();
+		flushTask = new FlushTask();
+		builder.addTask(flushTask);
+		flushTree = builder.build();
+	}
+
+	public void add(T element) {
+		AppendBuffer buffer = localBuffer.get();
+		synchronized (buffer) {
+			buffer.elements[buffer.size++] = element;
+			if (buffer.size == bufferCapacity) {
+				filledBuffers.add(buffer.elements);
+				buffer.elements = new Object[bufferCapacity];
+				buffer.size = 0;
+			}
+		}
+	}
+
+	/**
+	 * Sorts everything added so far into runs, making it visible to new
+	 * snapshots.
+	 */
+	public synchronized void flush(GameExecutor executor) {
+		List<Object[]> batches = new ArrayList<>();
+		Object[] filled;
+		while ((filled = filledBuffers.poll()) != null) {
+			batches.add(filled);
+		}
+		for (AppendBuffer buffer : appendBuffers) {
+			// Checked before draining: once its thread has terminated, nothing
+			// can be added to the buffer any more, so it is dropped once empty.
+			boolean orphaned = !buffer.owner.isAlive();
+			synchronized (buffer) {
+				if (buffer.size > 0) {
+					batches.add(Arrays.copyOf(buffer.elements, buffer.size));
+					Arrays.fill(buffer.elements, 0, buffer.size, null);
+					buffer.size = 0;
+				}
+			}
+			if (orphaned) {
+				appendBuffers.remove(buffer);
+			}
+		}
+		if (batches.isEmpty()) {
+			return;
+		}
+
+		flushing = batches.toArray(new Object[batches.size()][]);
+		flushTask.setSubtasks(flushing.length);
+		executor.run(flushTree);
+
+		Object[][] current = runs;
+		Object[][] updated = Arrays.copyOf(current, current.length + flushing.length);
+		System.arraycopy(flushing, 0, updated, current.length, flushing.length);
+		runs = updated;
+		flushing = null;
+
+		mergeTiers(executor);
+	}
+
+	/**
+	 * Merges the runs of the lowest full tier into one run, until no tier is
+	 * full.
+	 */
+	private void mergeTiers(GameExecutor executor) {
+		while (true) {
+			Object[][] current = runs;
+			int[] tiers = new int[current.length];
+			int fullTier = -1;
+			for (int i = 0; i < current.length; i++) {
+				tiers[i] = tierOf(current[i].length);
+			}
+			for (int i = 0; i < current.length; i++) {
+				int count = 0;
+				for (int j = 0; j < current.length; j++) {
+					if (tiers[j] == tiers[i]) {
+						count++;
+					}
+				}
+				if (count >= TIER_WIDTH && (fullTier < 0 || tiers[i] < fullTier)) {
+					fullTier = tiers[i];
+				}
+			}
+			if (fullTier < 0) {
+				return;
+			}
+
+			List<Object[]> group = new ArrayList<>();
+			List<Object[]> rest = new ArrayList<>();
+			for (int i = 0; i < current.length; i++) {
+				(tiers[i] == fullTier ? group : rest).add(current[i]);
+			}
+			// The merged run replaces the group, after the older, larger runs.
+			rest.add(merge(group.toArray(new Object[group.size()][]), executor));
+			runs = rest.toArray(new Object[rest.size()][]);
+		}
+	}
+
+	private int tierOf(int length) {
+		int tier = 0;
+		for (long limit = bufferCapacity; length > limit; limit *= TIER_WIDTH) {
+			tier++;
+		}
+		return tier;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Object[] merge(Object[][] group, GameExecutor executor) {
+		int total = 0;
+		for (Object[] run : group) {
+			total += run.length;
+		}
+		Object[] merged = new Object[total];
+		merger.merge((T[][]) group, (T[]) merged, 0, comparator, executor);
+		return merged;
+	}
+
+	/**
+	 * Merges all runs into a single run.
+	 */
+	public synchronized void compact(GameExecutor executor) {
+		Object[][] current = runs;
+		if (current.length < 2) {
+			return;
+		}
+		runs = new Object[][] { merge(current, executor) };
+	}
+
+	public Snapshot<T> snapshot() {
+		return new Snapshot<>(runs, comparator);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void sortBatch(int batch) {
+		T[] elements = (T[]) flushing[batch];
+		sorter.sort(elements, 0, elements.length, comparator);
+	}
+
+	/**
+	 * Read-only sorted view of the runs at the time it was taken.
+	 */
+	public static class Snapshot<T> implements Iterable<T> {
+
+		private final Object[][] runs;
+		private final Comparator<T> comparator;
+		private final long size;
+
+		private Snapshot(Object[][] runs, Comparator<T> comparator) {
+			this.runs = runs;
+			this.comparator = comparator;
+			long size = 0;
+			for (Object[] run : runs) {
+				size += run.length;
+			}
+			this.size = size;
+		}
+
+		public long size() {
+			return size;
+		}
+
+		@Override
+		public Iterator<T> iterator() {
+			return scan(null, null);
+		}
+
+		/**
+		 * Returns the elements e with from <= e < to in sorted order. A null
+		 * bound is unbounded.
+		 */
+		@SuppressWarnings("unchecked")
+		public Iterator<T> scan(T from, T to) {
+			List<ArrayCursor<T>> cursors = new ArrayList<>(runs.length);
+			for (Object[] run : runs) {
+				T[] elements = (T[]) run;
+				int start = from == null ? 0 : lowerBound(elements, from);
+				int end = to == null ? elements.length : lowerBound(elements, to);
+				if (start < end) {
+					cursors.add(new ArrayCursor<T>(elements, start, end));
+				}
+			}
+			return new LoserTree<>(cursors, comparator);
+		}
+
+		private int lowerBound(T[] elements, T key) {
+			int lo = 0, hi = elements.length;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (comparator.compare(elements[mid], key) < 0) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			return lo;
+		}
+	}
+
+	private class AppendBuffer {
+
+		private final Thread owner = Thread.currentThread();
+		private Object[] elements = new Object[bufferCapacity];
+		private int size;
+	}
+
+	private class FlushTask extends SplitTask {
+
+		public FlushTask() {
+			super(0, 0, 1);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			sortBatch(subtask);
+		}
+
+		@Override
+		public void finish() {
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package pro.sort.sorter;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.IntToLongFunction;
+
+import pro.sort.method.SortKernel;
+
+/**
+ * Sampling and splitter helpers shared by the sorters that cut their input
+ * into value ranges: evenly spread sorted samples, lower bounds, and the
+ * partitioning of several sorted runs into value ranges that every run is
+ * split at in the same place.
+ */
+public final class Splitters {
+
+	private static final int SAMPLES_PER_RUN = 64;
+
+	private Splitters() {
+	}
+
+	/**
+	 * Returns a sorted sample of sampleSize elements evenly spread over
+	 * [start, end).
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T[] sample(T[] array, int start, int end, int sampleSize, Comparator<T> comparator) {
+		int length = end - start;
+		T[] sample = (T[]) new Object[sampleSize];
+		for (int i = 0; i < sampleSize; i++) {
+			sample[i] = array[start + (int) ((long) length * i / sampleSize)];
+		}
+		new SortKernel().sort(sample, 0, sampleSize, comparator);
+		return sample;
+	}
+
+	/**
+	 * Returns a sorted sample of the keys of sampleSize indices evenly
+	 * spread over [start, end).
+	 */
+	public static long[] sample(IntToLongFunction key, int start, int end, int sampleSize) {
+		int length = end - start;
+		long[] sample = new long[sampleSize];
+		for (int i = 0; i < sampleSize; i++) {
+			sample[i] = key.applyAsLong(start + (int) ((long) length * i / sampleSize));
+		}
+		Arrays.sort(sample);
+		return sample;
+	}
+
+	/**
+	 * Returns the first index in the sorted range [lo, hi) whose element is
+	 * not less than key.
+	 */
+	public static <T> int lowerBound(T[] array, int lo, int hi, T key, Comparator<T> comparator) {
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (comparator.compare(array[mid], key) < 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	public static int lowerBound(long[] array, int lo, int hi, long key) {
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (array[mid] < key) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Splits the sorted runs runs[c][starts[c], ends[c]) into
+	 * bounds[0].length - 1 value ranges: bounds[c][p] is the start of range
+	 * p in run c, bounds[c][0] == starts[c] and the last bound is ends[c].
+	 *
+	 * The splitters are picked from an evenly spaced sample of all runs and
+	 * every run is cut at the lower bound of each, so equal elements of
+	 * different runs always end up in the same range. The runs may share an
+	 * array.
+	 */
+	public static <T> void partitionRuns(T[][] runs, int[] starts, int[] ends, Comparator<T> comparator,
+			int[][] bounds) {
+		int numRuns = runs.length, numRanges = bounds[0].length - 1;
+		int stride = stride(starts, ends, numRanges);
+		@SuppressWarnings("unchecked")
+		T[] sample = (T[]) new Object[sampleCapacity(starts, ends, stride)];
+		int sampleSize = 0;
+		for (int c = 0; c < numRuns; c++) {
+			for (int i = starts[c] + stride / 2; i < ends[c]; i += stride) {
+				sample[sampleSize++] = runs[c][i];
+			}
+		}
+		Arrays.sort(sample, 0, sampleSize, comparator);
+
+		for (int c = 0; c < numRuns; c++) {
+			bounds[c][0] = starts[c];
+			bounds[c][numRanges] = ends[c];
+		}
+		for (int p = 1; p < numRanges; p++) {
+			for (int c = 0; c < numRuns; c++) {
+				if (sampleSize == 0) {
+					bounds[c][p] = ends[c];
+				} else {
+					T splitter = sample[(int) ((long) sampleSize * p / numRanges)];
+					bounds[c][p] = lowerBound(runs[c], starts[c], ends[c], splitter, comparator);
+				}
+			}
+		}
+	}
+
+	public static void partitionRuns(long[][] runs, int[] starts, int[] ends, int[][] bounds) {
+		int numRuns = runs.length, numRanges = bounds[0].length - 1;
+		int stride = stride(starts, ends, numRanges);
+		long[] sample = new long[sampleCapacity(starts, ends, stride)];
+		int sampleSize = 0;
+		for (int c = 0; c < numRuns; c++) {
+			for (int i = starts[c] + stride / 2; i < ends[c]; i += stride) {
+				sample[sampleSize++] = runs[c][i];
+			}
+		}
+		Arrays.sort(sample, 0, sampleSize);
+
+		for (int c = 0; c < numRuns; c++) {
+			bounds[c][0] = starts[c];
+			bounds[c][numRanges] = ends[c];
+		}
+		for (int p = 1; p < numRanges; p++) {
+			for (int c = 0; c < numRuns; c++) {
+				if (sampleSize == 0) {
+					bounds[c][p] = ends[c];
+				} else {
+					long splitter = sample[(int) ((long) sampleSize * p / numRanges)];
+					bounds[c][p] = lowerBound(runs[c], starts[c], ends[c], splitter);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sample stride giving about SAMPLES_PER_RUN samples per range.
+	 */
+	private static int stride(int[] starts, int[] ends, int numRanges) {
+		long total = 0;
+		for (int c = 0; c < starts.length; c++) {
+			total += ends[c] - starts[c];
+		}
+		return (int) Math.max(1, total / ((long) SAMPLES_PER_RUN * numRanges));
+	}
+
+	private static int sampleCapacity(int[] starts, int[] ends, int stride) {
+		int capacity = 0;
+		for (int c = 0; c < starts.length; c++) {
+			capacity += (ends[c] - starts[c] + stride - 1) / stride;
+		}
+		return capacity;
+	}
+}
@@ -0,0 +1,307 @@
+package pro.sort.sorter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collector;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import net.mokyu.threading.GameExecutor;
+import net.mokyu.threading.SplitTask;
+import net.mokyu.threading.TaskTree;
+import net.mokyu.threading.TaskTreeBuilder;
+import pro.sort.method.ISorterMethod;
+import pro.sort.method.MergeMethod;
+import pro.sort.method.ScratchPool;
+import pro.sort.method.SortContext;
+
+/**
+ * Sorts streams with the executor, without collecting them into one array
+ * first.
+ *
+ * The input arrives as runs in encounter order: one per segment of a
+ * parallel stream for the Collector, or one per part of the stream's
+ * Spliterator, which sorted() splits into numChunks parts and drains in
+ * parallel. Runs longer than a chunk are cut into chunk sized pieces, all
+ * pieces are sorted in parallel and then merged with a ParallelMerger.
+ *
+ * The merge is stable, so with a stable sort method (MergeMethod by default)
+ * the result equals that of Stream.sorted(comparator). Like the other
+ * sorters, a StreamSorter sorts one stream at a time.
+ */
+public class StreamSorter<T> {
+
+	private final int numChunks;
+	private final ISorterMethod sorter;
+	private final ParallelMerger<T> merger;
+	private final SortPiecesTask sortPiecesTask;
+	private final DrainTask drainTask;
+	private final TaskTree sortTree, drainTree;
+	private SortContext context = new SortContext(new ScratchPool());
+
+	private Comparator<T> comparator;
+	private ISorterMethod activeSorter;
+	private Object[][] pieceArrays;
+	private int[] pieceStarts, pieceEnds;
+	private List<Spliterator<T>> parts;
+	private Run[] drained;
+
+	public StreamSorter(int numChunks) {
+		this(numChunks, new MergeMethod());
+	}
+
+	public StreamSorter(int numChunks, ISorterMethod sorter) {
+		if (numChunks < 1) {
+			throw new IllegalArgumentException("Minimum number of chunks is 1");
+		}
+		this.numChunks = numChunks;
+		this.sorter = sorter;
+		this.merger = new ParallelMerger<>(numChunks);
+
+		this.sortPiecesTask = new SortPiecesTask();
+		TaskTreeBuilder builder = new TaskTreeBuilder();
+		builder.addTask(sortPiecesTask);
+		sortTree = builder.build();
+
+		this.drainTask = new DrainTask();
+		builder = new TaskTreeBuilder();
+		builder.addTask(drainTask);
+		drainTree = builder.build();
+	}
+
+	public void setScratchPool(ScratchPool scratchPool) {
+		this.context = new SortContext(scratchPool);
+	}
+
+	public ScratchPool getScratchPool() {
+		return context.getScratchPool();
+	}
+
+	/**
+	 * Returns a stream of the elements of the given stream in sorted order.
+	 * The input is consumed, and sorted, right away. The returned stream is
+	 * parallel if the input was, and closing it closes the input.
+	 */
+	public Stream<T> sorted(Stream<T> stream, Comparator<T> comparator, GameExecutor executor) {
+		List<Run> runs = drain(stream.spliterator(), executor);
+		Object[] sorted = sortRuns(runs, comparator, executor);
+		Spliterator<T> spliterator = Spliterators.spliterator(sorted, Spliterator.ORDERED | Spliterator.IMMUTABLE);
+		return StreamSupport.stream(spliterator, stream.isParallel()).onClose(stream::close);
+	}
+
+	/**
+	 * Returns a Collector that sorts the elements into a list. Every segment
+	 * of a parallel stream becomes a run of its own. The list is fixed size
+	 * and backed by the sorted array.
+	 */
+	public Collector<T, ?, List<T>> toSortedList(Comparator<T> comparator, GameExecutor executor) {
+		Supplier<Runs> supplier = Runs::new;
+		BiConsumer<Runs, T> accumulator = Runs::add;
+		BinaryOperator<Runs> combiner = Runs::append;
+		Function<Runs, List<T>> finisher = runs -> {
+			@SuppressWarnings("unchecked")
+			List<T> list = (List<T>) Arrays.asList(sortRuns(runs.runs, comparator, executor));
+			return list;
+		};
+		return Collector.of(supplier, accumulator, combiner, finisher);
+	}
+
+	/**
+	 * Splits the spliterator into up to numChunks parts, always splitting the
+	 * largest, and drains them into runs in parallel.
+	 */
+	private List<Run> drain(Spliterator<T> spliterator, GameExecutor executor) {
+		List<Spliterator<T>> parts = new ArrayList<>();
+		parts.add(spliterator);
+		while (parts.size() < numChunks) {
+			int largest = 0;
+			for (int i = 1; i < parts.size(); i++) {
+				if (parts.get(i).estimateSize() > parts.get(largest).estimateSize()) {
+					largest = i;
+				}
+			}
+			// trySplit() returns the prefix, which goes in front.
+			Spliterator<T> prefix = parts.get(largest).trySplit();
+			if (prefix == null) {
+				break;
+			}
+			parts.add(largest, prefix);
+		}
+		if (parts.size() == 1) {
+			Run run = new Run(spliterator);
+			spliterator.forEachRemaining(run::add);
+			return Collections.singletonList(run);
+		}
+
+		this.parts = parts;
+		this.drained = new Run[parts.size()];
+		drainTask.setSubtasks(parts.size());
+		try {
+			executor.run(drainTree);
+			return Arrays.asList(drained);
+		} finally {
+			this.parts = null;
+			this.drained = null;
+		}
+	}
+
+	private void drainPart(int partID) {
+		Spliterator<T> part = parts.get(partID);
+		Run run = new Run(part);
+		part.forEachRemaining(run::add);
+		drained[partID] = run;
+	}
+
+	/**
+	 * Sorts the concatenation of the runs into a new array.
+	 */
+	private Object[] sortRuns(List<Run> runs, Comparator<T> comparator, GameExecutor executor) {
+		long total = 0;
+		for (Run run : runs) {
+			total += run.size;
+		}
+		if (total > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("Too many elements to sort: " + total);
+		}
+		int length = (int) total;
+		if (length == 0) {
+			return new Object[0];
+		}
+
+		// Cut the runs into pieces of at most about a chunk.
+		int chunkLength = Math.max(1, (length + numChunks - 1) / numChunks);
+		int numPieces = 0;
+		for (Run run : runs) {
+			numPieces += (run.size + chunkLength - 1) / chunkLength;
+		}
+		Object[][] arrays = new Object[numPieces][];
+		int[] starts = new int[numPieces];
+		int[] ends = new int[numPieces];
+		int piece = 0;
+		for (Run run : runs) {
+			int count = (run.size + chunkLength - 1) / chunkLength;
+			for (int i = 0; i < count; i++) {
+				arrays[piece] = run.elements;
+				starts[piece] = (int) ((long) run.size * i / count);
+				ends[piece] = (int) ((long) run.size * (i + 1) / count);
+				piece++;
+			}
+		}
+
+		this.comparator = comparator;
+		this.activeSorter = sorter.specialize(comparator);
+		this.pieceArrays = arrays;
+		this.pieceStarts = starts;
+		this.pieceEnds = ends;
+		Object[] sorted = new Object[length];
+		try {
+			sortPiecesTask.setSubtasks(numPieces);
+			executor.run(sortTree);
+
+			@SuppressWarnings("unchecked")
+			T[][] sources = (T[][]) arrays;
+			@SuppressWarnings("unchecked")
+			T[] destination = (T[]) sorted;
+			merger.merge(sources, starts, ends, destination, 0, comparator, executor);
+		} finally {
+			this.comparator = null;
+			this.activeSorter = null;
+			this.pieceArrays = null;
+			this.pieceStarts = null;
+			this.pieceEnds = null;
+		}
+		return sorted;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void sortPiece(int pieceID) {
+		T[] array = (T[]) pieceArrays[pieceID];
+		activeSorter.sort(array, pieceStarts[pieceID], pieceEnds[pieceID], comparator, 0, context);
+	}
+
+	/**
+	 * A growable array of elements in encounter order.
+	 */
+	private static class Run {
+
+		private Object[] elements;
+		private int size;
+
+		Run() {
+			elements = new Object[16];
+		}
+
+		Run(Spliterator<?> source) {
+			long estimate = source.hasCharacteristics(Spliterator.SIZED) ? source.estimateSize() : 16;
+			elements = new Object[(int) Math.max(16, Math.min(estimate, Integer.MAX_VALUE - 8))];
+		}
+
+		void add(Object element) {
+			if (size == elements.length) {
+				elements = Arrays.copyOf(elements, (int) Math.min(Integer.MAX_VALUE - 8, size * 2L));
+			}
+			elements[size++] = element;
+		}
+	}
+
+	/**
+	 * Collector container: the runs of the stream segments combined so far.
+	 */
+	private static class Runs {
+
+		private final List<Run> runs = new ArrayList<>();
+
+		void add(Object element) {
+			if (runs.isEmpty()) {
+				runs.add(new Run());
+			}
+			runs.get(runs.size() - 1).add(element);
+		}
+
+		Runs append(Runs next) {
+			runs.addAll(next.runs);
+			return this;
+		}
+	}
+
+	private class SortPiecesTask extends SplitTask {
+
+		public SortPiecesTask() {
+			super(0, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			sortPiece(subtask);
+		}
+
+		@Override
+		public void finish() {
+		}
+	}
+
+	private class DrainTask extends SplitTask {
+
+		public DrainTask() {
+			super(0, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			drainPart(subtask);
+		}
+
+		@Override
+		public void finish() {
+		}
+	}
+}
@@ -0,0 +1,356 @@
+package pro.sort.spatial;
+
+import java.util.function.IntToDoubleFunction;
+import java.util.function.ToDoubleFunction;
+
+import net.mokyu.threading.GameExecutor;
+import net.mokyu.threading.SplitTask;
+import net.mokyu.threading.TaskTree;
+import net.mokyu.threading.TaskTreeBuilder;
+import pro.sort.method.RadixMethod;
+import pro.sort.method.ScratchPool;
+import pro.sort.sorter.ArgSorter;
+import pro.sort.sorter.ParallelRadixSorter;
+
+/**
+ * Orders points or entities along a space filling curve, so that things that
+ * are close in space end up close in memory (for culling, collision checks
+ * or anything else that walks neighbours).
+ *
+ * The bounding box of all points is computed first, then every point is
+ * quantized to a grid in it and mapped to its position on the curve: a
+ * Morton (Z-order) code, which is cheap, or a Hilbert code, which never
+ * jumps between distant cells and so keeps neighbours together a bit
+ * better. 2D codes use 16 bits per axis, 3D codes (Morton only) 10 bits per
+ * axis. Each code is packed with the point's index and the packed keys are
+ * sorted by their code half with the ParallelRadixSorter, so points with
+ * equal codes keep their order.
+ *
+ * order() returns the permutation, in the format of ArgSorter.apply(); the
+ * sort() methods apply it to the entity array right away. Bounds, codes and
+ * the permutation are computed in parallel over numChunks subtasks.
+ * The grid spans the finite coordinates only. NaN and negative infinity are
+ * treated as the minimum of their axis, positive infinity as the maximum.
+ */
+public class SpatialSorter {
+
+	public enum Curve {
+		MORTON, HILBERT
+	}
+
+	private final int numChunks;
+	private final ParallelRadixSorter radixSorter;
+	private ArgSorter argSorter;
+	private final TaskTree codeTree, unpackTree;
+	private ScratchPool pool = new ScratchPool();
+
+	// State of the current call.
+	private IntToDoubleFunction[] axes;
+	private Curve curve;
+	private int sortStart, length;
+	private double[][] chunkMin, chunkMax;
+	private double[] min, scale;
+	private long[] keys;
+	private int[] permutation;
+
+	public SpatialSorter(int numChunks) {
+		if (numChunks < 1) {
+			throw new IllegalArgumentException("Minimum number of chunks is 1");
+		}
+		this.numChunks = numChunks;
+		this.radixSorter = new ParallelRadixSorter(numChunks);
+		this.radixSorter.setScratchPool(pool);
+		this.argSorter = newArgSorter(pool);
+
+		TaskTreeBuilder builder = new TaskTreeBuilder();
+		SplitTask boundsTask = new BoundsTask();
+		SplitTask encodeTask = new EncodeTask();
+		encodeTask.addRequiredTask(boundsTask);
+		builder.addTask(boundsTask);
+		builder.addTask(encodeTask);
+		codeTree = builder.build();
+
+		builder = new TaskTreeBuilder();
+		builder.addTask(new UnpackTask());
+		unpackTree = builder.build();
+	}
+
+	private ArgSorter newArgSorter(ScratchPool pool) {
+		return new ArgSorter(Math.max(2, numChunks), new RadixMethod(pool));
+	}
+
+	public void setScratchPool(ScratchPool pool) {
+		this.pool = pool;
+		this.radixSorter.setScratchPool(pool);
+		this.argSorter = newArgSorter(pool);
+	}
+
+	public ScratchPool getScratchPool() {
+		return pool;
+	}
+
+	public int[] order(float[] x, float[] y, int start, int end, Curve curve, GameExecutor executor) {
+		return order(curve, start, end, executor, i -> x[i], i -> y[i]);
+	}
+
+	/**
+	 * 3D order along the Morton curve.
+	 */
+	public int[] order(float[] x, float[] y, float[] z, int start, int end, GameExecutor executor) {
+		return order(Curve.MORTON, start, end, executor, i -> x[i], i -> y[i], i -> z[i]);
+	}
+
+	public <T> int[] order(T[] entities, int start, int end, ToDoubleFunction<? super T> x,
+			ToDoubleFunction<? super T> y, Curve curve, GameExecutor executor) {
+		return order(curve, start, end, executor, i -> x.applyAsDouble(entities[i]),
+				i -> y.applyAsDouble(entities[i]));
+	}
+
+	public <T> int[] order(T[] entities, int start, int end, ToDoubleFunction<? super T> x,
+			ToDoubleFunction<? super T> y, ToDoubleFunction<? super T> z, GameExecutor executor) {
+		return order(Curve.MORTON, start, end, executor, i -> x.applyAsDouble(entities[i]),
+				i -> y.applyAsDouble(entities[i]), i -> z.applyAsDouble(entities[i]));
+	}
+
+	/**
+	 * Sorts entities[start, end) along a 2D curve.
+	 */
+	public <T> void sort(T[] entities, int start, int end, ToDoubleFunction<? super T> x,
+			ToDoubleFunction<? super T> y, Curve curve, GameExecutor executor) {
+		argSorter.apply(order(entities, start, end, x, y, curve, executor), start, executor, (Object) entities);
+	}
+
+	/**
+	 * Sorts entities[start, end) along the 3D Morton curve.
+	 */
+	public <T> void sort(T[] entities, int start, int end, ToDoubleFunction<? super T> x,
+			ToDoubleFunction<? super T> y, ToDoubleFunction<? super T> z, GameExecutor executor) {
+		argSorter.apply(order(entities, start, end, x, y, z, executor), start, executor, (Object) entities);
+	}
+
+	/**
+	 * Rearranges parallel arrays (e.g. separate coordinate and velocity
+	 * arrays) by a permutation returned by order().
+	 */
+	public void apply(int[] permutation, int start, GameExecutor executor, Object... columns) {
+		argSorter.apply(permutation, start, executor, columns);
+	}
+
+	private int[] order(Curve curve, int start, int end, GameExecutor executor, IntToDoubleFunction... axes) {
+		if (start > end) {
+			throw new IllegalArgumentException("start > end: " + start + " > " + end);
+		}
+		int length = end - start;
+		int[] result = new int[length];
+		if (length == 0) {
+			return result;
+		}
+		this.axes = axes;
+		this.curve = curve;
+		this.sortStart = start;
+		this.length = length;
+		this.chunkMin = new double[numChunks][axes.length];
+		this.chunkMax = new double[numChunks][axes.length];
+		this.min = new double[axes.length];
+		this.scale = new double[axes.length];
+		this.keys = pool.borrowLongs(length);
+		this.permutation = result;
+		try {
+			executor.run(codeTree);
+			radixSorter.sortByUpperHalf(keys, 0, length, executor);
+			executor.run(unpackTree);
+			return result;
+		} finally {
+			pool.release(keys);
+			this.axes = null;
+			this.keys = null;
+			this.permutation = null;
+		}
+	}
+
+	private int chunkStart(int chunkID) {
+		return (int) ((long) length * chunkID / numChunks);
+	}
+
+	private void bounds(int chunkID) {
+		int from = sortStart + chunkStart(chunkID), to = sortStart + chunkStart(chunkID + 1);
+		for (int a = 0; a < axes.length; a++) {
+			IntToDoubleFunction axis = axes[a];
+			double lo = Double.POSITIVE_INFINITY, hi = Double.NEGATIVE_INFINITY;
+			for (int i = from; i < to; i++) {
+				double v = axis.applyAsDouble(i);
+				// Comparisons with NaN are false, so NaN is skipped.
+				if (Double.isInfinite(v)) {
+					continue;
+				}
+				if (v < lo) {
+					lo = v;
+				}
+				if (v > hi) {
+					hi = v;
+				}
+			}
+			chunkMin[chunkID][a] = lo;
+			chunkMax[chunkID][a] = hi;
+		}
+	}
+
+	private void computeScale() {
+		int cells = axes.length == 2 ? 1 << 16 : 1 << 10;
+		for (int a = 0; a < axes.length; a++) {
+			double lo = Double.POSITIVE_INFINITY, hi = Double.NEGATIVE_INFINITY;
+			for (int c = 0; c < numChunks; c++) {
+				lo = Math.min(lo, chunkMin[c][a]);
+				hi = Math.max(hi, chunkMax[c][a]);
+			}
+			min[a] = lo;
+			scale[a] = hi > lo && hi - lo < Double.POSITIVE_INFINITY ? cells / (hi - lo) : 0;
+		}
+	}
+
+	private int quantize(int axis, int index, int maxCell) {
+		double v = axes[axis].applyAsDouble(index);
+		if (v == Double.POSITIVE_INFINITY) {
+			return maxCell;
+		}
+		double cell = (v - min[axis]) * scale[axis];
+		// NaN, and negative infinity, which gives -Infinity or NaN here, fail
+		// the first comparison and become cell 0.
+		return cell > 0 ? (cell < maxCell ? (int) cell : maxCell) : 0;
+	}
+
+	/**
+	 * Computes the codes of a chunk and packs each with its index: code in
+	 * the upper 32 bits (with the sign bit flipped, as the radix sort is
+	 * signed), index in the lower.
+	 */
+	private void encode(int chunkID) {
+		int from = chunkStart(chunkID), to = chunkStart(chunkID + 1);
+		boolean is3D = axes.length == 3;
+		for (int i = from; i < to; i++) {
+			int index = sortStart + i;
+			int code;
+			if (is3D) {
+				code = morton3D(quantize(0, index, 1023), quantize(1, index, 1023), quantize(2, index, 1023));
+			} else if (curve == Curve.HILBERT) {
+				code = hilbert2D(quantize(0, index, 0xFFFF), quantize(1, index, 0xFFFF));
+			} else {
+				code = morton2D(quantize(0, index, 0xFFFF), quantize(1, index, 0xFFFF));
+			}
+			keys[i] = ((long) (code ^ Integer.MIN_VALUE) << 32) | i;
+		}
+	}
+
+	private void unpack(int chunkID) {
+		int from = chunkStart(chunkID), to = chunkStart(chunkID + 1);
+		for (int i = from; i < to; i++) {
+			permutation[i] = sortStart + (int) keys[i];
+		}
+	}
+
+	/**
+	 * Interleaves the bits of two 16 bit coordinates, x in the even bits.
+	 */
+	public static int morton2D(int x, int y) {
+		return spread2(x) | (spread2(y) << 1);
+	}
+
+	/**
+	 * Interleaves the bits of three 10 bit coordinates, x in the lowest.
+	 */
+	public static int morton3D(int x, int y, int z) {
+		return spread3(x) | (spread3(y) << 1) | (spread3(z) << 2);
+	}
+
+	/**
+	 * Distance along the Hilbert curve through a 2^16 x 2^16 grid, as an
+	 * unsigned int.
+	 */
+	public static int hilbert2D(int x, int y) {
+		int d = 0;
+		for (int s = 1 << 15; s > 0; s >>>= 1) {
+			int rx = (x & s) != 0 ? 1 : 0;
+			int ry = (y & s) != 0 ? 1 : 0;
+			// s * s * 3 overflows for the top level, but d only needs to be
+			// right modulo 2^32.
+			d += s * s * ((3 * rx) ^ ry);
+			if (ry == 0) {
+				if (rx == 1) {
+					x = 0xFFFF - x;
+					y = 0xFFFF - y;
+				}
+				int t = x;
+				x = y;
+				y = t;
+			}
+		}
+		return d;
+	}
+
+	private static int spread2(int v) {
+		v &= 0xFFFF;
+		v = (v | (v << 8)) & 0x00FF00FF;
+		v = (v | (v << 4)) & 0x0F0F0F0F;
+		v = (v | (v << 2)) & 0x33333333;
+		v = (v | (v << 1)) & 0x55555555;
+		return v;
+	}
+
+	private static int spread3(int v) {
+		v &= 0x3FF;
+		v = (v | (v << 16)) & 0x030000FF;
+		v = (v | (v << 8)) & 0x0300F00F;
+		v = (v | (v << 4)) & 0x030C30C3;
+		v = (v | (v << 2)) & 0x09249249;
+		return v;
+	}
+
+	private class BoundsTask extends SplitTask {
+
+		public BoundsTask() {
+			super(0, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			bounds(subtask);
+		}
+
+		@Override
+		public void finish() {
+			computeScale();
+		}
+	}
+
+	private class EncodeTask extends SplitTask {
+
+		public EncodeTask() {
+			super(1, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			encode(subtask);
+		}
+
+		@Override
+		public void finish() {
+		}
+	}
+
+	private class UnpackTask extends SplitTask {
+
+		public UnpackTask() {
+			super(0, 0, numChunks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			unpack(subtask);
+		}
+
+		@Override
+		public void finish() {
+		}
+	}
+}
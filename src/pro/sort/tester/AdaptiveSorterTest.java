@@ -0,0 +1,151 @@
+package pro.sort.tester;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import net.mokyu.threading.GameExecutor;
+import net.mokyu.threading.MultithreadedExecutor;
+import pro.sort.sorter.AdaptiveSorter;
+import pro.sort.sorter.AdaptiveSorter.Choice;
+
+/**
+ * Checks the method AdaptiveSorter reports for sorted, reversed,
+ * low-cardinality, random and tiny inputs, sequentially and in parallel, and
+ * that the object, int, long and float entry points sort correctly.
+ */
+public class AdaptiveSorterTest {
+
+	private static final int NUM_CHUNKS = 4;
+	private static final int[] SIZES = { 5_000, 100_000 }; // below and above the parallel threshold
+	private static final int TINY = 20;
+	private static final int OFFSET = 3; // sort [OFFSET, length - OFFSET)
+
+	private enum Input {
+		SORTED, REVERSED, LOW_CARDINALITY, RANDOM
+	}
+
+	private static int failures;
+
+	public static void main(String[] args) {
+		GameExecutor executor = new MultithreadedExecutor(NUM_CHUNKS);
+		AdaptiveSorter<Integer> sorter = new AdaptiveSorter<>(NUM_CHUNKS);
+		Random random = new Random(1);
+		try {
+			for (int size : SIZES) {
+				for (Input input : Input.values()) {
+					long[] values = generate(input, size, random);
+					Choice objectChoice = input == Input.SORTED ? Choice.ALREADY_SORTED
+							: input == Input.REVERSED ? Choice.MERGE
+									: input == Input.LOW_CARDINALITY ? Choice.THREE_WAY : Choice.QUICKSORT;
+					Choice primitiveChoice = input == Input.SORTED ? Choice.ALREADY_SORTED : Choice.RADIX;
+					testAll(sorter, values, input + " " + size, objectChoice, primitiveChoice, executor);
+				}
+			}
+			for (Input input : Input.values()) {
+				long[] values = generate(input, TINY + 2 * OFFSET, random);
+				testAll(sorter, values, input + " tiny", Choice.INSERTION, Choice.INSERTION, executor);
+			}
+			for (int size : SIZES) {
+				testSpecialFloats(sorter, size, random, executor);
+			}
+		} finally {
+			executor.close();
+		}
+		System.out.println(failures == 0 ? "All tests passed." : failures + " tests failed.");
+	}
+
+	private static long[] generate(Input input, int length, Random random) {
+		long[] values = new long[length];
+		for (int i = 0; i < length; i++) {
+			switch (input) {
+			case SORTED:
+				values[i] = i / 3 - length / 6;
+				break;
+			case REVERSED:
+				values[i] = length / 2 - i;
+				break;
+			case LOW_CARDINALITY:
+				values[i] = random.nextInt(5) - 2;
+				break;
+			default:
+				values[i] = random.nextInt();
+			}
+		}
+		return values;
+	}
+
+	private static void testAll(AdaptiveSorter<Integer> sorter, long[] values, String name, Choice objectChoice,
+			Choice primitiveChoice, GameExecutor executor) {
+		int length = values.length, start = OFFSET, end = length - OFFSET;
+		boolean parallel = end - start >= 1 << 15;
+
+		Integer[] objects = new Integer[length];
+		int[] ints = new int[length];
+		float[] floats = new float[length];
+		for (int i = 0; i < length; i++) {
+			objects[i] = (int) values[i];
+			ints[i] = (int) values[i];
+			floats[i] = values[i];
+		}
+		long[] longs = values.clone();
+		Integer[] expectedObjects = objects.clone();
+		int[] expectedInts = ints.clone();
+		long[] expectedLongs = longs.clone();
+		float[] expectedFloats = floats.clone();
+		Arrays.sort(expectedObjects, start, end);
+		Arrays.sort(expectedInts, start, end);
+		Arrays.sort(expectedLongs, start, end);
+		Arrays.sort(expectedFloats, start, end);
+
+		sorter.sort(objects, start, end, Comparator.naturalOrder(), executor);
+		check(sorter, name + " objects", objectChoice, parallel, Arrays.equals(objects, expectedObjects));
+		sorter.sort(ints, start, end, executor);
+		check(sorter, name + " ints", primitiveChoice, parallel, Arrays.equals(ints, expectedInts));
+		sorter.sort(longs, start, end, executor);
+		check(sorter, name + " longs", primitiveChoice, parallel, Arrays.equals(longs, expectedLongs));
+		sorter.sort(floats, start, end, executor);
+		check(sorter, name + " floats", primitiveChoice, parallel, Arrays.equals(floats, expectedFloats));
+	}
+
+	/**
+	 * Floats must end up like Arrays.sort(float[]) orders them: -0.0 before
+	 * 0.0 and NaN last.
+	 */
+	private static void testSpecialFloats(AdaptiveSorter<Integer> sorter, int length, Random random,
+			GameExecutor executor) {
+		float[] specials = { Float.NaN, -0.0f, 0.0f, Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY };
+		float[] floats = new float[length];
+		for (int i = 0; i < length; i++) {
+			floats[i] = random.nextInt(4) == 0 ? specials[random.nextInt(specials.length)]
+					: (float) random.nextGaussian();
+		}
+		float[] expected = floats.clone();
+		Arrays.sort(expected, OFFSET, length - OFFSET);
+		sorter.sort(floats, OFFSET, length - OFFSET, executor);
+		check(sorter, "special floats " + length, Choice.RADIX, length - 2 * OFFSET >= 1 << 15,
+				Arrays.equals(floats, expected));
+	}
+
+	private static void check(AdaptiveSorter<?> sorter, String name, Choice expected, boolean parallel,
+			boolean sorted) {
+		Choice choice = sorter.getLastChoice();
+		boolean expectParallel = parallel && expected != Choice.ALREADY_SORTED && expected != Choice.INSERTION;
+		System.out.println(name + ": " + choice + (sorter.wasLastParallel() ? " (parallel)" : "") + ", "
+				+ sorter.getLastProfile());
+		if (choice != expected) {
+			fail(name + ": chose " + choice + " instead of " + expected);
+		}
+		if (sorter.wasLastParallel() != expectParallel) {
+			fail(name + ": " + (expectParallel ? "not sorted in parallel" : "sorted in parallel"));
+		}
+		if (!sorted) {
+			fail(name + ": not sorted");
+		}
+	}
+
+	private static void fail(String message) {
+		System.out.println("FAILED: " + message);
+		failures++;
+	}
+}
@@ -0,0 +1,81 @@
+package pro.sort.tester;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import net.mokyu.threading.GameExecutor;
+import net.mokyu.threading.MultithreadedExecutor;
+import pro.sort.big.BigLongArray;
+import pro.sort.method.RadixMethod;
+import pro.sort.sorter.BigLongSorter;
+
+/**
+ * Checks BigLongSorter against Arrays.sort on arrays with tiny segments, so
+ * that ranges are cut into many pieces and the co-ranking split of the
+ * merge is exercised without a large heap. Heavy duplicates test that equal
+ * values split across pieces end up in the right output chunks, and ranges
+ * not starting at 0 test the index arithmetic.
+ */
+public class BigLongSorterTest {
+
+	private static final int SEGMENT_SHIFT = 2; // 4 elements per segment
+	private static final int ITERATIONS = 2000;
+
+	private static int failures;
+
+	public static void main(String[] args) {
+		GameExecutor executor = new MultithreadedExecutor(4);
+		try {
+			Random random = new Random(1);
+			for (int t = 0; t < ITERATIONS; t++) {
+				int length = random.nextInt(t % 10 == 0 ? 5000 : 200);
+				int start = random.nextInt(Math.min(7, length) + 1);
+				int end = length - random.nextInt(Math.min(7, length - start) + 1);
+				int numChunks = 1 + random.nextInt(6);
+				int cardinality = t % 3 == 0 ? 0 : 1 + random.nextInt(t % 3 == 1 ? 3 : 1000);
+				test(random, length, start, end, numChunks, cardinality, executor);
+			}
+		} finally {
+			executor.close();
+		}
+		System.out.println(failures == 0 ? "All tests passed." : failures + " tests failed.");
+	}
+
+	/**
+	 * Sorts [start, end) of a random array of the given length. A
+	 * cardinality of 0 means any long value, extremes included.
+	 */
+	private static void test(Random random, int length, int start, int end, int numChunks, int cardinality,
+			GameExecutor executor) {
+		long[] values = new long[length];
+		for (int i = 0; i < length; i++) {
+			if (cardinality > 0) {
+				values[i] = random.nextInt(cardinality) - cardinality / 2;
+			} else {
+				int pick = random.nextInt(10);
+				values[i] = pick == 0 ? Long.MIN_VALUE : pick == 1 ? Long.MAX_VALUE : random.nextLong();
+			}
+		}
+		BigLongArray array = new BigLongArray(length, SEGMENT_SHIFT);
+		for (int i = 0; i < length; i++) {
+			array.set(i, values[i]);
+		}
+
+		new BigLongSorter(numChunks, new RadixMethod()).sort(array, start, end, executor);
+
+		long[] expected = values.clone();
+		Arrays.sort(expected, start, end);
+		for (int i = 0; i < length; i++) {
+			if (array.get(i) != expected[i]) {
+				fail("length " + length + ", range [" + start + ", " + end + "), " + numChunks + " chunks, cardinality "
+						+ cardinality + ": wrong value at " + i);
+				return;
+			}
+		}
+	}
+
+	private static void fail(String message) {
+		System.out.println("FAILED: " + message);
+		failures++;
+	}
+}
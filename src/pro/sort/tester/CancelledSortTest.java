@@ -0,0 +1,93 @@
+package pro.sort.tester;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.mokyu.threading.CancellationToken;
+import net.mokyu.threading.GameExecutor;
+import net.mokyu.threading.MultithreadedExecutor;
+import pro.sort.method.BubbleMethod;
+import pro.sort.method.ISorterMethod;
+import pro.sort.method.InsertionMethod;
+import pro.sort.sorter.ParallelSorter;
+
+/**
+ * Checks that a cancelled ParallelSorter.sort() returns false and leaves a
+ * permutation of the range, that the O(n^2) methods stop soon after a
+ * deadline, and that the sorter sorts correctly again afterwards.
+ */
+public class CancelledSortTest {
+
+	private static final int NUM_ELEMENTS = 200_000;
+	private static final int NUM_CHUNKS = 4;
+	private static final long DEADLINE_MILLIS = 50;
+
+	private static int failures;
+
+	public static void main(String[] args) {
+		GameExecutor executor = new MultithreadedExecutor(NUM_CHUNKS);
+		try {
+			test("Insertion", new InsertionMethod(), executor);
+			test("Bubble", new BubbleMethod(), executor);
+		} finally {
+			executor.close();
+		}
+		System.out.println(failures == 0 ? "All tests passed." : failures + " tests failed.");
+	}
+
+	private static void test(String name, ISorterMethod method, GameExecutor executor) {
+		Comparator<Integer> comparator = Comparator.naturalOrder();
+		ParallelSorter<Integer> sorter = new ParallelSorter<>(NUM_CHUNKS, method);
+		Integer[] input = new Integer[NUM_ELEMENTS];
+		Random r = new Random(1);
+		for (int i = 0; i < NUM_ELEMENTS; i++) {
+			input[i] = r.nextInt();
+		}
+
+		// A token cancelled before the sort.
+		Integer[] array = input.clone();
+		CancellationToken cancelled = new CancellationToken();
+		cancelled.cancel();
+		check(!sorter.sort(array, 0, NUM_ELEMENTS, comparator, executor, cancelled),
+				name + ": a cancelled token returned true");
+		checkPermutation(name, array, input);
+
+		// A deadline passing while the chunks are sorted. Sorting 200000
+		// elements in O(n^2) takes far longer than the deadline.
+		array = input.clone();
+		long startTime = System.nanoTime();
+		boolean sorted = sorter.sort(array, 0, NUM_ELEMENTS, comparator, executor,
+				new CancellationToken(DEADLINE_MILLIS, TimeUnit.MILLISECONDS));
+		long millis = (System.nanoTime() - startTime) / 1000 / 1000;
+		System.out.println(name + " sort cancelled after " + millis + " ms");
+		check(!sorted, name + ": the sort finished before the deadline");
+		check(millis < 20 * DEADLINE_MILLIS, name + ": the sort took " + millis + " ms to stop");
+		checkPermutation(name, array, input);
+
+		// The sorter and its task tree are reusable after a cancellation: it
+		// gives the same result as a sorter that was never cancelled.
+		int length = 2_000;
+		array = Arrays.copyOf(input, length);
+		check(sorter.sort(array, 0, length, comparator, executor, new CancellationToken()),
+				name + ": a sort with a live token returned false");
+		Integer[] expected = Arrays.copyOf(input, length);
+		new ParallelSorter<Integer>(NUM_CHUNKS, method).sort(expected, 0, length, comparator, executor);
+		check(Arrays.equals(array, expected), name + ": a different result after a cancellation");
+	}
+
+	private static void checkPermutation(String name, Integer[] array, Integer[] input) {
+		Integer[] a = array.clone(), b = input.clone();
+		Arrays.sort(a);
+		Arrays.sort(b);
+		check(Arrays.equals(a, b), name + ": the range is not a permutation of the input");
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			System.out.println("FAILED: " + message);
+			failures++;
+		}
+	}
+}
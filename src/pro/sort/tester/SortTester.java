@@ -4,28 +4,30 @@ import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Random;
 
-import net.mokyu.threading.MultithreadedExecutor;
+import net.mokyu.threading.GameExecutor;
 import pro.sort.method.BubbleMethod;
 import pro.sort.method.ISorterMethod;
 import pro.sort.method.InsertionMethod;
 import pro.sort.sorter.ParallelSorter;
+import pro.sort.tuning.TuningProfile;
 
 public class SortTester {
 
 	private static final int numElements = 1_000_000;
-	private static final int numThreads = 10;
-	private static final int numChunks =  4;
 	private static final int shuffleDisplacement = 1;
 
 	public static void main(String[] args) {
 
-		MultithreadedExecutor executor = new MultithreadedExecutor(numThreads);
+		TuningProfile profile = TuningProfile.getDefault();
+		System.out.println("Tuning profile: " + profile);
+
+		GameExecutor executor = profile.createExecutor();
 		ISorterMethod insertionMethod = new InsertionMethod();
 		ISorterMethod bubbleMethod = new BubbleMethod();
 		
-		ParallelSorter<Element> parallelInsertionSort = new ParallelSorter<>(numChunks, insertionMethod);
+		ParallelSorter<Element> parallelInsertionSort = new ParallelSorter<>(profile, insertionMethod);
 
-		ParallelSorter<Element> parallelBubbleSort = new ParallelSorter<>(numChunks, bubbleMethod);
+		ParallelSorter<Element> parallelBubbleSort = new ParallelSorter<>(profile, bubbleMethod);
 
 		Element[] array1 = new Element[numElements];
 		Element[] array2 = new Element[numElements];
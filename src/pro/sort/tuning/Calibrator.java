@@ -0,0 +1,209 @@
+package pro.sort.tuning;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import net.mokyu.threading.MultithreadedExecutor;
+import net.mokyu.threading.SplitTask;
+import net.mokyu.threading.TaskTree;
+import net.mokyu.threading.TaskTreeBuilder;
+import pro.sort.method.SortKernel;
+
+/**
+ * Measures this machine and derives a TuningProfile from it.
+ *
+ * The number of threads is chosen by how sorting actually scales: the same
+ * sort of boxed integers is run on 1, 2, 4... threads at once, up to the
+ * number of available processors, and the smallest thread count after which
+ * more threads stop adding at least MIN_GAIN throughput wins. Memory
+ * bandwidth, SMT siblings and a busy machine are all reflected in that.
+ *
+ * For the chosen count, the cost of running a task tree with one empty
+ * subtask per thread is measured; every parallel sort pays it. A parallel
+ * sort only pays off when every chunk takes much longer to sort (at the
+ * measured per thread speed) than dispatching it, which gives the sequential
+ * cutoff. Calibration takes well under a second on most machines.
+ */
+public class Calibrator {
+
+	private static final int SORT_LENGTH = 1 << 16;
+	private static final int SORT_RUNS = 8;
+	private static final int DISPATCH_WARMUP = 500;
+	private static final int DISPATCH_RUNS = 2000;
+
+	// More threads must sort this much more per second to be used.
+	private static final double MIN_GAIN = 1.15;
+
+	// A chunk must take this many times the dispatch cost to sort.
+	private static final int DISPATCH_FACTOR = 20;
+	private static final int MIN_CHUNK_LENGTH = 1 << 12;
+
+	private int maxThreads = Runtime.getRuntime().availableProcessors();
+	private boolean fixedThreads;
+
+	/**
+	 * Uses exactly this number of threads instead of measuring the best
+	 * number up to the available processors.
+	 */
+	public void setNumThreads(int numThreads) {
+		if (numThreads < 1) {
+			throw new IllegalArgumentException("Minimum number of threads is 1");
+		}
+		this.maxThreads = numThreads;
+		this.fixedThreads = true;
+	}
+
+	public TuningProfile calibrate() {
+		Integer[] values = new Integer[SORT_LENGTH];
+		Random random = new Random(42);
+		for (int i = 0; i < SORT_LENGTH; i++) {
+			values[i] = random.nextInt();
+		}
+
+		// Comparisons per nanosecond, all threads together.
+		int numThreads = fixedThreads ? maxThreads : 1;
+		double throughput = measureThroughput(values, numThreads);
+		if (!fixedThreads) {
+			for (int threads = 2; threads <= maxThreads; threads = nextCandidate(threads)) {
+				double measured = measureThroughput(values, threads);
+				if (measured >= throughput * MIN_GAIN) {
+					numThreads = threads;
+					throughput = measured;
+				}
+			}
+		}
+		double nanosPerComparison = numThreads / throughput;
+		long dispatchNanos = numThreads > 1 ? measureDispatch(numThreads) : 0;
+
+		int numChunks = Math.max(2, numThreads);
+		int sequentialCutoff;
+		if (numThreads == 1) {
+			sequentialCutoff = Integer.MAX_VALUE;
+		} else {
+			// Smallest chunk length m with m log2 m comparisons costing
+			// DISPATCH_FACTOR dispatches.
+			double budget = DISPATCH_FACTOR * (double) dispatchNanos / nanosPerComparison;
+			long chunkLength = MIN_CHUNK_LENGTH;
+			while (chunkLength * log2(chunkLength) < budget && chunkLength < Integer.MAX_VALUE / numChunks) {
+				chunkLength *= 2;
+			}
+			sequentialCutoff = (int) Math.min(Integer.MAX_VALUE, chunkLength * numChunks);
+		}
+		return new TuningProfile(numThreads, numChunks, sequentialCutoff, nanosPerComparison, dispatchNanos);
+	}
+
+	/**
+	 * Doubles the thread count, but always tries maxThreads itself.
+	 */
+	private int nextCandidate(int threads) {
+		return threads < maxThreads && threads * 2 > maxThreads ? maxThreads : threads * 2;
+	}
+
+	private static double log2(double x) {
+		return Math.log(x) / Math.log(2);
+	}
+
+	/**
+	 * Best of SORT_RUNS rounds in which every thread sorts its own copy of
+	 * the values, so that JIT compilation and garbage collection are not
+	 * measured. Returns comparisons (n log2 n per sort) per nanosecond.
+	 */
+	static double measureThroughput(Integer[] values, int numThreads) {
+		SortTask task = new SortTask(values, numThreads);
+		if (numThreads == 1) {
+			long best = Long.MAX_VALUE;
+			for (int run = 0; run < SORT_RUNS; run++) {
+				long start = System.nanoTime();
+				task.runSubtask(0);
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			return SORT_LENGTH * log2(SORT_LENGTH) / best;
+		}
+
+		TaskTreeBuilder builder = new TaskTreeBuilder();
+		builder.addTask(task);
+		TaskTree tree = builder.build();
+		MultithreadedExecutor executor = new MultithreadedExecutor(numThreads);
+		try {
+			long best = Long.MAX_VALUE;
+			for (int run = 0; run < SORT_RUNS; run++) {
+				long start = System.nanoTime();
+				executor.run(tree);
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			return numThreads * SORT_LENGTH * log2(SORT_LENGTH) / best;
+		} finally {
+			executor.close();
+		}
+	}
+
+	/**
+	 * Median cost of running a tree with one empty subtask per thread.
+	 */
+	static long measureDispatch(int numThreads) {
+		TaskTreeBuilder builder = new TaskTreeBuilder();
+		builder.addTask(new EmptyTask(numThreads));
+		TaskTree tree = builder.build();
+
+		MultithreadedExecutor executor = new MultithreadedExecutor(numThreads);
+		try {
+			for (int i = 0; i < DISPATCH_WARMUP; i++) {
+				executor.run(tree);
+			}
+			long[] times = new long[DISPATCH_RUNS];
+			for (int i = 0; i < DISPATCH_RUNS; i++) {
+				long start = System.nanoTime();
+				executor.run(tree);
+				times[i] = System.nanoTime() - start;
+			}
+			Arrays.sort(times);
+			return times[DISPATCH_RUNS / 2];
+		} finally {
+			executor.close();
+		}
+	}
+
+	/**
+	 * Every subtask sorts a fresh copy of the values in its own array.
+	 */
+	private static class SortTask extends SplitTask {
+
+		private final Integer[] values;
+		private final Integer[][] arrays;
+		private final Comparator<Integer> comparator = Integer::compare;
+		private final SortKernel kernel = new SortKernel();
+
+		public SortTask(Integer[] values, int numSubtasks) {
+			super(0, 0, numSubtasks);
+			this.values = values;
+			this.arrays = new Integer[numSubtasks][values.length];
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+			Integer[] array = arrays[subtask];
+			System.arraycopy(values, 0, array, 0, values.length);
+			kernel.sort(array, 0, array.length, comparator);
+		}
+
+		@Override
+		public void finish() {
+		}
+	}
+
+	private static class EmptyTask extends SplitTask {
+
+		public EmptyTask(int numSubtasks) {
+			super(0, 0, numSubtasks);
+		}
+
+		@Override
+		protected void runSubtask(int subtask) {
+		}
+
+		@Override
+		public void finish() {
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package pro.sort.tuning;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+import net.mokyu.threading.GameExecutor;
+import net.mokyu.threading.MultithreadedExecutor;
+import net.mokyu.threading.SingleThreadExecutor;
+
+/**
+ * Machine dependent settings for the parallel sorters: how many worker
+ * threads and chunks to use, and below which length splitting a sort into
+ * chunks does not pay off.
+ *
+ * A profile is measured by the Calibrator and stored as a properties file,
+ * by default .prosort/tuning.properties in the user's home directory.
+ * getDefault() loads that file, or calibrates the machine and writes it on
+ * first use. Delete the file (or call Calibrator.calibrate() and save()) to
+ * measure again, e.g. after a hardware change.
+ *
+ * The threading package knows nothing about sorting, so executors are not
+ * tuned by themselves; create them with createExecutor() instead.
+ */
+public class TuningProfile {
+
+	private static final int VERSION = 2;
+
+	private static TuningProfile defaultProfile;
+
+	private final int numThreads;
+	private final int numChunks;
+	private final int sequentialCutoff;
+	private final double nanosPerComparison;
+	private final long dispatchNanos;
+
+	public TuningProfile(int numThreads, int numChunks, int sequentialCutoff, double nanosPerComparison,
+			long dispatchNanos) {
+		if (numThreads < 1) {
+			throw new IllegalArgumentException("Minimum number of threads is 1");
+		}
+		if (numChunks < 2) {
+			throw new IllegalArgumentException("Minimum number of chunks is 2");
+		}
+		if (sequentialCutoff < 0) {
+			throw new IllegalArgumentException("Negative sequential cutoff: " + sequentialCutoff);
+		}
+		this.numThreads = numThreads;
+		this.numChunks = numChunks;
+		this.sequentialCutoff = sequentialCutoff;
+		this.nanosPerComparison = nanosPerComparison;
+		this.dispatchNanos = dispatchNanos;
+	}
+
+	/**
+	 * Returns the profile of this machine: loaded from the default file, or
+	 * calibrated and saved there if the file is missing, unreadable or from
+	 * an older version. A profile that cannot be saved is still returned.
+	 */
+	public static synchronized TuningProfile getDefault() {
+		if (defaultProfile == null) {
+			Path path = getDefaultPath();
+			try {
+				defaultProfile = load(path);
+			} catch (IOException | IllegalArgumentException e) {
+				defaultProfile = null;
+			}
+			if (defaultProfile == null) {
+				defaultProfile = new Calibrator().calibrate();
+				try {
+					defaultProfile.save(path);
+				} catch (IOException e) {
+					// Calibrate again next time.
+				}
+			}
+		}
+		return defaultProfile;
+	}
+
+	public static Path getDefaultPath() {
+		return Paths.get(System.getProperty("user.home"), ".prosort", "tuning.properties");
+	}
+
+	/**
+	 * Loads a profile, or returns null if the file does not exist or was
+	 * written by another version.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the file is malformed
+	 */
+	public static TuningProfile load(Path path) throws IOException {
+		Properties properties = new Properties();
+		try (InputStream in = Files.newInputStream(path)) {
+			properties.load(in);
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+		if (!Integer.toString(VERSION).equals(properties.getProperty("version"))) {
+			return null;
+		}
+		try {
+			return new TuningProfile(
+					Integer.parseInt(get(properties, "threads")),
+					Integer.parseInt(get(properties, "chunks")),
+					Integer.parseInt(get(properties, "sequentialCutoff")),
+					Double.parseDouble(get(properties, "nanosPerComparison")),
+					Long.parseLong(get(properties, "dispatchNanos")));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Malformed tuning profile " + path, e);
+		}
+	}
+
+	private static String get(Properties properties, String key) {
+		String value = properties.getProperty(key);
+		if (value == null) {
+			throw new IllegalArgumentException("Tuning profile is missing " + key);
+		}
+		return value.trim();
+	}
+
+	public void save(Path path) throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty("version", Integer.toString(VERSION));
+		properties.setProperty("threads", Integer.toString(numThreads));
+		properties.setProperty("chunks", Integer.toString(numChunks));
+		properties.setProperty("sequentialCutoff", Integer.toString(sequentialCutoff));
+		properties.setProperty("nanosPerComparison", Double.toString(nanosPerComparison));
+		properties.setProperty("dispatchNanos", Long.toString(dispatchNanos));
+
+		Path parent = path.toAbsolutePath().getParent();
+		if (parent != null) {
+			Files.createDirectories(parent);
+		}
+		try (OutputStream out = Files.newOutputStream(path)) {
+			properties.store(out, "Sort tuning profile");
+		}
+	}
+
+	/**
+	 * Creates an executor with the tuned number of threads; a single
+	 * threaded one if parallel sorting does not pay off on this machine.
+	 */
+	public GameExecutor createExecutor() {
+		return numThreads > 1 ? new MultithreadedExecutor(numThreads) : new SingleThreadExecutor();
+	}
+
+	public int getNumThreads() {
+		return numThreads;
+	}
+
+	public int getNumChunks() {
+		return numChunks;
+	}
+
+	/**
+	 * Ranges shorter than this are sorted faster by one thread than split
+	 * into chunks.
+	 */
+	public int getSequentialCutoff() {
+		return sequentialCutoff;
+	}
+
+	/**
+	 * Measured sort cost per element per level (n log2 n) of one thread,
+	 * while all numThreads threads sort at once.
+	 */
+	public double getNanosPerComparison() {
+		return nanosPerComparison;
+	}
+
+	/**
+	 * Measured cost of running a task tree with one subtask per thread.
+	 */
+	public long getDispatchNanos() {
+		return dispatchNanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"%d threads, %d chunks, sequential below %d, %.2f ns per comparison, %d ns dispatch", numThreads,
+				numChunks, sequentialCutoff, nanosPerComparison, dispatchNanos);
+	}
+}